@@ -0,0 +1,32 @@
+#!/bin/bash
+
+# Script name: startup-latency.sh
+#
+# Compares the wall time of 4700ftp commands run in a fresh JVM with the same commands forwarded
+# to the client daemon. Usage: scripts/startup-latency.sh <ftp URL of a directory> [runs]
+
+if [ $# -lt 1 ]; then
+    echo "Usage: $0 <ftp URL of a directory> [runs]" >&2
+    exit 1
+fi
+
+URL="$1"
+RUNS="${2:-20}"
+FTP="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." &> /dev/null && pwd)/4700ftp"
+
+# Runs "4700ftp ls URL" RUNS times and prints the median and 90th percentile wall time in milliseconds
+measure() {
+    for _ in $(seq "$RUNS"); do
+        start=$(date +%s%N)
+        "$FTP" ls "$URL" > /dev/null || exit 1
+        echo $(( ($(date +%s%N) - start) / 1000000 ))
+    done | sort -n | awk '{ t[NR] = $1 } END { printf "median %d ms, p90 %d ms\n", t[int((NR + 1) / 2)], t[int(NR * 0.9 + 0.5)] }'
+}
+
+"$FTP" daemon stop > /dev/null 2>&1
+echo "fresh JVM:    $(FTP4700_DAEMON=off measure)"
+
+"$FTP" daemon start || exit 1
+"$FTP" ls "$URL" > /dev/null   # the first forwarded command logs in and warms up the daemon
+echo "daemon:       $(measure)"
+"$FTP" daemon stop > /dev/null
@@ -0,0 +1,326 @@
+import client.FTPSessionRegistry;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FTPDaemon keeps a warm JVM and logged-in FTP sessions alive between invocations of 4700ftp.
+ * It listens on a UNIX domain socket; the 4700ftp wrapper script forwards each command line to it
+ * instead of starting a new JVM, so short operations skip JVM startup, a cold JIT and a fresh login.
+ *
+ * Protocol, one command per connection:
+ * the client sends its working directory and then the arguments, each terminated by a NUL byte, and then
+ * shuts down its sending side. Relative local paths in the arguments are resolved against that directory.
+ * The daemon answers with lines prefixed by "1" (standard output) or "2" (standard error) and ends with
+ * a line "x" followed by the exit status. The single argument "--shutdown" stops the daemon.
+ */
+public class FTPDaemon {
+    /** Maximum number of sessions kept per server and account */
+    private static final int SESSIONS_PER_SERVER = 8;
+
+    /** The daemon exits after this long without commands */
+    private static final long IDLE_EXIT_MINUTES = 30;
+
+    /** How long commands still running at shutdown may take to finish */
+    private static final long SHUTDOWN_GRACE_SECONDS = 10;
+
+    private static final AtomicInteger activeCommands = new AtomicInteger();
+    private static final AtomicLong lastCommand = new AtomicLong(System.nanoTime());
+
+    /**
+     * Starts the daemon.
+     *
+     * @param args The path of the UNIX domain socket to listen on
+     * @throws IOException If the socket cannot be created
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: FTPDaemon <socket path>");
+            System.exit(1);
+        }
+        serve(Paths.get(args[0]));
+        System.exit(0);
+    }
+
+    /**
+     * Serves command lines on the given socket until a shutdown request arrives or the daemon has been idle
+     * for too long, then closes the sessions it kept and removes the socket.
+     * Commands still running at that point get a short grace period to send their exit status.
+     *
+     * @param socket The path of the UNIX domain socket to listen on
+     * @throws IOException If the socket cannot be created
+     */
+    static void serve(Path socket) throws IOException {
+        Path socketPath = socket.toAbsolutePath();
+        createPrivateDirectory(socketPath.getParent());
+        Files.deleteIfExists(socketPath);
+
+        FTPSessionRegistry registry = new FTPSessionRegistry(SESSIONS_PER_SERVER);
+        Main.useSessionRegistry(registry);
+        RoutingPrintStream.install();
+
+        ExecutorService handlers = Executors.newCachedThreadPool();
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ftp-daemon-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lastCommand.set(System.nanoTime());
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            // Bound inside the private directory, so the socket is never reachable by others, even before
+            // its own permissions are narrowed
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+
+            watchdog.scheduleAtFixedRate(() -> {
+                long idle = System.nanoTime() - lastCommand.get();
+                if (activeCommands.get() == 0 && idle > TimeUnit.MINUTES.toNanos(IDLE_EXIT_MINUTES)) {
+                    closeQuietly(server);
+                }
+            }, 1, 1, TimeUnit.MINUTES);
+
+            while (server.isOpen()) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (IOException e) {
+                    // Closed by the watchdog or by a shutdown request
+                    break;
+                }
+                handlers.execute(() -> handle(channel, server));
+            }
+        } finally {
+            watchdog.shutdownNow();
+            handlers.shutdown();
+            try {
+                // Lets the shutdown request, and commands still running, send their exit status
+                handlers.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            registry.close();
+            Main.useSessionRegistry(null);
+            RoutingPrintStream.uninstall();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    /**
+     * Creates the directory holding the socket with mode 0700, or checks that an existing one is owned by
+     * the current user and closed to others. Command lines carry credentials, so only the owner may connect.
+     *
+     * @param directory The directory the socket is created in
+     * @throws IOException If the directory cannot be created or is not private
+     */
+    private static void createPrivateDirectory(Path directory) throws IOException {
+        Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+        if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(ownerOnly));
+        }
+        UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)
+                || !Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).equals(user)
+                || !Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS).equals(ownerOnly)) {
+            throw new IOException(directory + " must be a directory owned by " + user.getName() + " with mode 0700");
+        }
+    }
+
+    /**
+     * Runs one forwarded command line and streams its output back to the wrapper.
+     */
+    private static void handle(SocketChannel channel, ServerSocketChannel server) {
+        activeCommands.incrementAndGet();
+        try (SocketChannel c = channel) {
+            String[] request = readArguments(Channels.newInputStream(c));
+            Path workingDirectory = Paths.get(request.length > 0 ? request[0] : "/");
+            String[] args = Arrays.copyOfRange(request, Math.min(1, request.length), request.length);
+            OutputStream sink = new BufferedOutputStream(Channels.newOutputStream(c));
+
+            int status;
+            if (args.length == 1 && args[0].equals("--shutdown")) {
+                status = 0;
+                closeQuietly(server);
+            } else {
+                PrintStream out = new PrintStream(new FramedOutputStream('1', sink), true, StandardCharsets.UTF_8);
+                PrintStream err = new PrintStream(new FramedOutputStream('2', sink), true, StandardCharsets.UTF_8);
+                RoutingPrintStream.route(out, err);
+                try {
+                    status = Main.run(args, workingDirectory);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    status = 1;
+                } finally {
+                    out.close();
+                    err.close();
+                    RoutingPrintStream.route(null, null);
+                }
+            }
+            synchronized (sink) {
+                sink.write(("x" + status + "\n").getBytes(StandardCharsets.UTF_8));
+                sink.flush();
+            }
+        } catch (IOException e) {
+            // The wrapper went away; nothing left to report to
+        } finally {
+            lastCommand.set(System.nanoTime());
+            activeCommands.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reads NUL-terminated arguments until the wrapper shuts down its side of the connection.
+     */
+    private static String[] readArguments(InputStream input) throws IOException {
+        byte[] request = input.readAllBytes();
+        List<String> args = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < request.length; i++) {
+            if (request[i] == 0) {
+                args.add(new String(request, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return args.toArray(new String[0]);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Writes output as lines prefixed with a stream marker, sharing one connection between
+     * standard output and standard error. Partial lines are sent when the stream is flushed on close.
+     */
+    private static class FramedOutputStream extends OutputStream {
+        private final char marker;
+        private final OutputStream sink;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        FramedOutputStream(char marker, OutputStream sink) {
+            this.marker = marker;
+            this.sink = sink;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (b == '\n') {
+                emit();
+            } else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        private void emit() throws IOException {
+            synchronized (sink) {
+                sink.write(marker);
+                line.writeTo(sink);
+                sink.write('\n');
+            }
+            line.reset();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (line.size() > 0) {
+                emit();
+            }
+            synchronized (sink) {
+                sink.flush();
+            }
+        }
+    }
+
+    /**
+     * Replaces System.out and System.err with streams that forward to the output of the command the
+     * current thread works for. Threads started while running a command inherit its streams, so
+     * concurrent commands don't mix their output. Threads outside any command use the original streams.
+     */
+    private static class RoutingPrintStream extends PrintStream {
+        private static final InheritableThreadLocal<PrintStream[]> TARGETS = new InheritableThreadLocal<>();
+        private final int index;
+        private final PrintStream fallback;
+
+        private RoutingPrintStream(int index, PrintStream fallback) {
+            super(fallback, true);
+            this.index = index;
+            this.fallback = fallback;
+        }
+
+        static void install() {
+            System.setOut(new RoutingPrintStream(0, System.out));
+            System.setErr(new RoutingPrintStream(1, System.err));
+        }
+
+        static void uninstall() {
+            if (System.out instanceof RoutingPrintStream out) {
+                System.setOut(out.fallback);
+            }
+            if (System.err instanceof RoutingPrintStream err) {
+                System.setErr(err.fallback);
+            }
+        }
+
+        static void route(PrintStream out, PrintStream err) {
+            if (out == null) {
+                TARGETS.remove();
+            } else {
+                TARGETS.set(new PrintStream[]{out, err});
+            }
+        }
+
+        private PrintStream target() {
+            PrintStream[] targets = TARGETS.get();
+            return targets == null ? fallback : targets[index];
+        }
+
+        @Override
+        public void write(int b) {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            target().write(buf, off, len);
+        }
+
+        @Override
+        public void flush() {
+            target().flush();
+        }
+    }
+}
@@ -1,10 +1,37 @@
+import client.ConcurrencyController;
+import client.DownloadCache;
+import client.DurabilityPolicy;
+import client.FTPClientConfig;
+import client.FTPSessionPool;
+import client.FTPSessionRegistry;
 import command.FTPExecutor;
+import command.FanOutUpload;
+import command.HedgedDownload;
+import command.RecursiveDelete;
+import util.AesGcmStage;
 import util.FTPPathHandler;
+import util.ParallelGzipStage;
+import util.TransformStage;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
  * Main class for the FTP client application.
@@ -18,11 +45,70 @@ public class Main {
      */
     private static final Map<String, BiConsumer<FTPExecutor, FTPPathHandler.ParsedPath>> OPERATIONS = new HashMap<>();
 
+    /**
+     * Map of operations where both parameters are URLs, and their execution logic.
+     */
+    private static final Map<String, RemoteOperation> REMOTE_OPERATIONS = new HashMap<>();
+
+    /**
+     * An operation between two FTP URLs, given an executor and parsed path for each side.
+     */
+    private interface RemoteOperation {
+        void accept(FTPExecutor sourceExecutor, FTPPathHandler.ParsedPath source,
+                    FTPExecutor targetExecutor, FTPPathHandler.ParsedPath target);
+    }
+
+    /** Long-lived sessions to reuse across operations, or null to connect for every operation */
+    private static volatile FTPSessionRegistry sessionRegistry;
+
+    /** Number of parallel sessions used when --sessions is not given */
+    private static final int DEFAULT_SESSIONS = 4;
+
+    /** With --hedge, how long a download may run before a second copy is started */
+    private static final Duration HEDGE_DELAY = Duration.ofSeconds(1);
+
+    /** The size cap of the download cache when --cache-size is not given */
+    private static final int DEFAULT_CACHE_MEGABYTES = 1024;
+
+    /** With --hedge, the largest file that is downloaded twice */
+    private static final long HEDGE_MAX_BYTES = 16L * 1024 * 1024;
+
+    /** Where the session limits learned for each server are kept between runs */
+    private static final Path CONCURRENCY_FILE =
+            Paths.get(System.getProperty("user.home"), ".cache", "4700ftp", "concurrency.properties");
+
+    /** The highest session limit learned for any server; --sessions caps it further */
+    private static final int MAX_LEARNED_SESSIONS = 32;
+
+    /** The limits learned for each server, loaded on first use and shared by later commands in the daemon */
+    private static ConcurrencyController concurrency;
+
+    /** The number of transform stages kept for reuse */
+    private static final int MAX_STAGES = 8;
+
+    /**
+     * Transform stages and download caches already built, by the settings they were built from.
+     * Configurations compare these by identity, so reusing them lets commands with the same options
+     * share one pool in the session registry instead of opening a new one each time.
+     * Stages hold encryption keys, so only the most recently used few are kept; a command whose stage
+     * was dropped builds it again and gets a pool of its own.
+     */
+    private static final Map<String, TransformStage> STAGES = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TransformStage> eldest) {
+            return size() > MAX_STAGES;
+        }
+    };
+    private static final Map<String, DownloadCache> CACHES = new HashMap<>();
+
+    /** Hedged downloads kept for the pools of the session registry, so their hedge delay has a history */
+    private static final Map<FTPSessionPool, HedgedDownload> HEDGES = new HashMap<>();
+
     /**
      * Help string containing usage information and available operations.
      */
     public static final String HELP_STR =
-            "usage: ./4700ftp [-h] [--verbose] operation params [params ...]\n" +
+            "usage: ./4700ftp [-h] [--verbose] [options] operation params [params ...]\n" +
                     "\n" +
                     "FTP client for listing, copying, moving, and deleting files and directories on remote FTP servers.\n" +
                     "\n" +
@@ -34,6 +120,33 @@ public class Main {
                     "optional arguments:\n" +
                     "-h, --help     show this help message and exit\n" +
                     "--verbose, -v  Print all messages to and from the FTP server\n" +
+                    "--ascii        Transfer files as text (TYPE A), converting line endings\n" +
+                    "--tls          Secure the session with explicit FTPS (AUTH TLS, PROT P); the server\n" +
+                    "              certificate must be trusted by the JVM\n" +
+                    "--atomic       Upload to a temporary name and rename it into place once complete\n" +
+                    "--append       With cp to a URL, send only what the local file has beyond the remote\n" +
+                    "              file's size, such as the new lines of a growing log\n" +
+                    "--verify-tail  With --append, first check that the end of the remote file matches the\n" +
+                    "              local file at the same offset\n" +
+                    "--compress     With cp, gzip files on upload and gunzip them on download, on every core\n" +
+                    "--encrypt=KEYFILE  With cp, encrypt files with AES-GCM on upload and decrypt them on\n" +
+                    "              download; KEYFILE holds a 128-, 192- or 256-bit key, raw or in Base64\n" +
+                    "--cache=DIR    With cp to a local file, keep downloads in DIR and reuse them while the\n" +
+                    "              server reports the same size and modification time\n" +
+                    "--cache-size=MB  Evict the least recently used cached files above MB megabytes (default 1024)\n" +
+                    "--cache-links  Hard-link cached files into place instead of copying them\n" +
+                    "--fsync=MODE   When a downloaded file is forced to disk: 'none' (default), 'file' before\n" +
+                    "              it is renamed into place, or 'group' in batches shared by many files\n" +
+                    "-r, --recursive  With rm or rmdir, delete the directory at the URL and everything below it\n" +
+                    "--timeout=S    Give up on a transfer that takes longer than S seconds in total\n" +
+                    "--stall-timeout=S  Give up on a transfer that moves no data for S seconds (default 60)\n" +
+                    "--hedge        With cp to a local file, start a second copy of a slow small download on\n" +
+                    "              another session and keep whichever finishes first\n" +
+                    "--drop-after=S  With cp to several URLs, drop a target that holds up the others for S\n" +
+                    "              seconds instead of slowing every upload to its pace\n" +
+                    "--sessions=N   Most parallel sessions for operations that use several (default 4); within\n" +
+                    "              that, each server's limit is learned and kept in\n" +
+                    "              ~/.cache/4700ftp/concurrency.properties for the next run\n" +
                     "\n" +
                     "# Available Operations\n" +
                     "\n" +
@@ -43,10 +156,17 @@ public class Main {
                     "mkdir <URL>              Create a new directory on the FTP server at the given URL\n" +
                     "rm <URL>                 Delete the file on the FTP server at the given URL\n" +
                     "rmdir <URL>              Delete the directory on the FTP server at the given URL\n" +
+                    "rm -r <URL>              Delete the directory at the given URL and everything below it\n" +
                     "cp <ARG1> <ARG2>         Copy the file given by ARG1 to the file given by\n" +
                     "                          ARG2. If ARG1 is a local file, then ARG2 must be a URL, and vice-versa.\n" +
+                    "                          Use '-' as the local file to read from standard input or write to\n" +
+                    "                          standard output. If both are URLs, the file is copied directly between\n" +
+                    "                          the two servers.\n" +
+                    "cp <ARG1> <URL> <URL>... Upload the local file ARG1 to several URLs at once, reading it only\n" +
+                    "                          once, and print the outcome for each URL.\n" +
                     "mv <ARG1> <ARG2>         Move the file given by ARG1 to the file given by\n" +
-                    "                          ARG2. If ARG1 is a local file, then ARG2 must be a URL, and vice-versa.";
+                    "                          ARG2. If ARG1 is a local file, then ARG2 must be a URL, and vice-versa.\n" +
+                    "                          If both are URLs on the same server, the file is renamed on the server.";
 
 
     static {
@@ -56,6 +176,341 @@ public class Main {
         OPERATIONS.put("rm", (executor, path) -> executor.executeCommand(client -> client.deleteFile(path.getRemotePath(), true)));
         OPERATIONS.put("cp", (executor, path) -> executor.executeCommand(client -> client.copyFile(path.getRemotePath(), path.getLocalPath(), path.isDownload())));
         OPERATIONS.put("mv", (executor, path) -> executor.executeCommand(client -> client.moveFile(path.getRemotePath(), path.getLocalPath(), path.isDownload())));
+
+        REMOTE_OPERATIONS.put("cp", (sourceExecutor, source, targetExecutor, target) -> sourceExecutor.executeCommand(targetExecutor,
+                (sourceClient, targetClient) -> sourceClient.copyToServer(source.getRemotePath(), targetClient, target.getRemotePath())));
+        REMOTE_OPERATIONS.put("mv", (sourceExecutor, source, targetExecutor, target) -> {
+            if (source.isSameServer(target)) {
+                sourceExecutor.executeCommand(client -> client.renameFile(source.getRemotePath(), target.getRemotePath()));
+            } else {
+                sourceExecutor.executeCommand(targetExecutor,
+                        (sourceClient, targetClient) -> sourceClient.moveToServer(source.getRemotePath(), targetClient, target.getRemotePath()));
+            }
+        });
+    }
+
+    /**
+     * Creates an FTP executor for the server named in a parsed path.
+     *
+     * @param path   The parsed FTP path holding the connection details
+     * @param config The client settings chosen on the command line
+     * @return An FTPExecutor for that server
+     */
+    private static FTPExecutor executorFor(FTPPathHandler.ParsedPath path, FTPClientConfig config) {
+        if (sessionRegistry != null) {
+            return new FTPExecutor(poolFor(path, config));
+        }
+        return new FTPExecutor(path.getHost(), path.getPort(), path.getUsername(), path.getPassword(), config);
+    }
+
+    /**
+     * Returns the long-lived session pool for the server named in a parsed path.
+     * Only valid while a session registry is in use.
+     */
+    private static FTPSessionPool poolFor(FTPPathHandler.ParsedPath path, FTPClientConfig config) {
+        return sessionRegistry.poolFor(path, config);
+    }
+
+    /**
+     * Makes every following operation run on sessions kept in the given registry instead of
+     * connecting and disconnecting each time. Used by the daemon, which outlives single commands.
+     *
+     * @param registry The registry holding the logged-in sessions, or null to connect for each command again
+     */
+    static void useSessionRegistry(FTPSessionRegistry registry) {
+        sessionRegistry = registry;
+        // The hedged downloads kept so far run on the previous registry's pools
+        synchronized (HEDGES) {
+            HEDGES.values().forEach(HedgedDownload::shutdown);
+            HEDGES.clear();
+        }
+    }
+
+    /**
+     * Deletes a remote directory and everything below it, then prints a summary.
+     *
+     * @param path          The parsed FTP path of the directory
+     * @param config        The client settings chosen on the command line
+     * @param sessions      The number of sessions to delete with in parallel
+     * @param sessionsGiven True if the number of sessions was chosen with --sessions
+     * @return 0 if everything was deleted, 2 if some files or directories could not be
+     */
+    private static int deleteRecursively(FTPPathHandler.ParsedPath path, FTPClientConfig config, int sessions,
+                                         boolean sessionsGiven) {
+        // The daemon's pools are shared and stay open, but their size is fixed, so an explicit --sessions
+        // gets a pool of its own that lives for this operation only, as it does without the daemon
+        boolean shared = sessionRegistry != null && !sessionsGiven;
+        FTPSessionPool pool = shared ? poolFor(path, config) : new FTPSessionPool(path.getHost(),
+                path.getPort(), path.getUsername(), path.getPassword(), config, sessions);
+        ConcurrencyController controller = concurrencyController();
+        try {
+            RecursiveDelete.Report report = new RecursiveDelete(pool, controller).delete(path.getRemotePath());
+            for (Exception failure : report.getFailures()) {
+                System.err.println(failure.getMessage());
+            }
+            System.out.println(report);
+            return report.getFailures().isEmpty() ? 0 : 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 2;
+        } finally {
+            saveConcurrency(controller);
+            if (!shared) {
+                pool.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the controller holding the session limit learned for each server, loading the limits
+     * saved by earlier runs the first time. Unreadable saved limits are reported and relearned.
+     *
+     * @return The shared controller
+     */
+    private static synchronized ConcurrencyController concurrencyController() {
+        if (concurrency == null) {
+            concurrency = new ConcurrencyController(DEFAULT_SESSIONS, MAX_LEARNED_SESSIONS);
+            try {
+                concurrency.load(CONCURRENCY_FILE);
+            } catch (IOException e) {
+                System.err.println("Cannot read learned session limits from " + CONCURRENCY_FILE + ": " + e.getMessage());
+            }
+        }
+        return concurrency;
+    }
+
+    /**
+     * Saves the learned session limits for the next run, reporting rather than failing if they cannot be written.
+     *
+     * @param controller The controller holding the limits
+     */
+    private static void saveConcurrency(ConcurrencyController controller) {
+        try {
+            synchronized (Main.class) {
+                controller.save(CONCURRENCY_FILE);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot save learned session limits to " + CONCURRENCY_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Downloads a file to a local path, racing a second copy on another session if the first is slow.
+     * In the daemon, downloads from one shared pool share one HedgedDownload, so that its hedge delay
+     * adapts to the downloads of earlier commands.
+     *
+     * @param path   The parsed path holding the server, remote file and local destination
+     * @param config The client settings chosen on the command line
+     * @return 0 if the file was downloaded, 2 if every copy failed
+     */
+    private static int downloadHedged(FTPPathHandler.ParsedPath path, FTPClientConfig config) {
+        boolean shared = sessionRegistry != null;
+        FTPSessionPool pool = shared ? poolFor(path, config) : new FTPSessionPool(path.getHost(),
+                path.getPort(), path.getUsername(), path.getPassword(), config, 2);
+        HedgedDownload download = shared ? hedgedDownloadFor(pool)
+                : new HedgedDownload(pool, HEDGE_DELAY, HEDGE_MAX_BYTES);
+        try {
+            download.download(path.getRemotePath(), Paths.get(path.getLocalPath()));
+            return 0;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 2;
+        } finally {
+            if (!shared) {
+                download.shutdown();
+                pool.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the HedgedDownload kept for a shared pool, creating it on first use.
+     *
+     * @param pool A pool from the session registry
+     * @return The HedgedDownload running on that pool
+     */
+    private static HedgedDownload hedgedDownloadFor(FTPSessionPool pool) {
+        synchronized (HEDGES) {
+            return HEDGES.computeIfAbsent(pool, unused -> new HedgedDownload(pool, HEDGE_DELAY, HEDGE_MAX_BYTES));
+        }
+    }
+
+    /**
+     * Uploads a local file or standard input to several URLs at once, then prints the outcome for each.
+     *
+     * @param args   The parsed command-line arguments: the source followed by the target URLs
+     * @param config The client settings chosen on the command line
+     * @return 0 if every target received the file, 2 otherwise
+     * @throws IllegalArgumentException If the source is a URL or a target is not
+     * @throws MalformedURLException    If a target URL is invalid
+     */
+    private static int uploadFanOut(ParseArgs args, FTPClientConfig config) throws MalformedURLException {
+        String source = args.param1;
+        if (source.startsWith("ftp://")) {
+            throw new IllegalArgumentException("With several targets, cp needs a local source");
+        }
+        if (!config.getTransforms().isEmpty()) {
+            throw new IllegalArgumentException("--compress and --encrypt do not apply to cp with several targets");
+        }
+        List<FanOutUpload.Target> targets = new ArrayList<>();
+        for (String url : args.params.subList(1, args.params.size())) {
+            if (!url.startsWith("ftp://")) {
+                throw new IllegalArgumentException("With several targets, every target must be a URL: " + url);
+            }
+            FTPPathHandler.ParsedPath path = FTPPathHandler.parse(url, source, false);
+            String name = "ftp://" + path.getHost() + ":" + path.getPort() + path.getRemotePath();
+            targets.add(new FanOutUpload.Target(name, executorFor(path, config), path.getRemotePath()));
+        }
+        Duration maxLag = Duration.ofSeconds(args.hasOption("drop-after") ? args.getIntOption("drop-after", 0) : 0);
+        FanOutUpload upload = new FanOutUpload(FanOutUpload.DEFAULT_BUFFER_SIZE, FanOutUpload.DEFAULT_BUFFERS, maxLag);
+        try (InputStream input = FTPPathHandler.isStdio(source) ? System.in : new FileInputStream(source)) {
+            boolean succeeded = true;
+            for (FanOutUpload.Result result : upload.upload(input, targets)) {
+                System.out.println(result);
+                succeeded &= result.isSucceeded();
+            }
+            return succeeded ? 0 : 2;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 2;
+        }
+    }
+
+    /**
+     * Builds the client settings from the command-line options.
+     *
+     * @param args The parsed command-line arguments
+     * @return The FTPClientConfig to use for every connection
+     */
+    static FTPClientConfig configFrom(ParseArgs args) {
+        FTPClientConfig config = new FTPClientConfig();
+        config.setAtomicUploads(args.hasOption("atomic"));
+        config.setAsciiMode(args.hasOption("ascii"));
+        config.setTls(args.hasOption("tls"));
+        config.setTransforms(transformsFrom(args));
+        if (args.hasOption("fsync")) {
+            config.setDurability(DurabilityPolicy.of(syncFrom(args.options.get("fsync"))));
+        }
+        if (args.hasOption("cache")) {
+            long maxBytes = args.getIntOption("cache-size", DEFAULT_CACHE_MEGABYTES) * 1024L * 1024;
+            config.setCache(cacheFor(args.options.get("cache"), maxBytes, args.hasOption("cache-links")));
+        }
+        if (args.hasOption("timeout")) {
+            config.setTimeoutMillis(FTPClientConfig.Phase.TOTAL, args.getIntOption("timeout", 0) * 1000L);
+        }
+        if (args.hasOption("stall-timeout")) {
+            config.setTimeoutMillis(FTPClientConfig.Phase.STALL, args.getIntOption("stall-timeout", 0) * 1000L);
+        }
+        return config;
+    }
+
+    /**
+     * Builds the transform stages chosen with --compress and --encrypt. Compression comes first,
+     * since encrypted data does not compress.
+     *
+     * @param args The parsed command-line arguments
+     * @return The stages in upload order
+     * @throws IllegalArgumentException If the key file cannot be read or holds no valid key
+     */
+    private static List<TransformStage> transformsFrom(ParseArgs args) {
+        List<TransformStage> transforms = new ArrayList<>();
+        if (args.hasOption("compress")) {
+            transforms.add(stageFor("gzip", ParallelGzipStage::new));
+        }
+        if (args.hasOption("encrypt")) {
+            String keyFile = args.options.get("encrypt");
+            byte[] key;
+            try {
+                key = Files.readAllBytes(Paths.get(keyFile));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot read key file " + keyFile + ": " + e.getMessage());
+            }
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                try {
+                    key = Base64.getDecoder().decode(new String(key, StandardCharsets.US_ASCII).trim());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Key file " + keyFile + " holds neither a raw nor a Base64 key");
+                }
+            }
+            byte[] validKey = key;
+            // Looked up by a digest of the key, so the key itself is only held by the stage
+            transforms.add(stageFor("aes-gcm:" + Base64.getEncoder().encodeToString(sha256(key)),
+                    () -> new AesGcmStage(AesGcmStage.key(validKey))));
+        }
+        return transforms;
+    }
+
+    /**
+     * @return The SHA-256 digest of the data
+     */
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the stage built earlier from the same settings, or builds it now.
+     *
+     * @param settings Everything the stage is built from, such as its key
+     * @param factory  Builds the stage the first time
+     * @return The shared stage
+     */
+    private static synchronized TransformStage stageFor(String settings, Supplier<TransformStage> factory) {
+        return STAGES.computeIfAbsent(settings, unused -> factory.get());
+    }
+
+    /**
+     * Returns the download cache opened earlier for the same directory and settings, or opens it now.
+     *
+     * @param directory The cache directory as given on the command line
+     * @param maxBytes  The size cap of the cache
+     * @param links     True to hard-link cached files into place
+     * @return The shared cache
+     * @throws IllegalArgumentException If the directory cannot be used
+     */
+    private static synchronized DownloadCache cacheFor(String directory, long maxBytes, boolean links) {
+        Path path = Paths.get(directory).toAbsolutePath().normalize();
+        String settings = path + "|" + maxBytes + "|" + links;
+        DownloadCache cache = CACHES.get(settings);
+        if (cache == null) {
+            try {
+                cache = new DownloadCache(path, maxBytes, links);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot use cache directory " + directory + ": " + e.getMessage());
+            }
+            CACHES.put(settings, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Translates the value of --fsync into a sync mode.
+     *
+     * @param value The option value: none, file or group
+     * @return The sync mode
+     * @throws IllegalArgumentException If the value names no mode
+     */
+    private static DurabilityPolicy.Sync syncFrom(String value) {
+        switch (value) {
+            case "none":
+                return DurabilityPolicy.Sync.NONE;
+            case "file":
+                return DurabilityPolicy.Sync.PER_FILE;
+            case "group":
+                return DurabilityPolicy.Sync.GROUP_COMMIT;
+            default:
+                throw new IllegalArgumentException("Option --fsync must be none, file or group: " + value);
+        }
     }
 
     /**
@@ -65,39 +520,160 @@ public class Main {
      * @param args Command-line arguments passed to the application
      */
     public static void main(String[] args) {
+        int status = run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs the client for one command line given in this process's working directory.
+     *
+     * @param args Command-line arguments for a single invocation
+     * @return The exit status, as for {@link #run(String[], Path)}
+     */
+    static int run(String[] args) {
+        return run(args, Paths.get("").toAbsolutePath());
+    }
+
+    /**
+     * Runs the client for one command line and returns its exit status instead of exiting,
+     * so that a long-lived process can run many command lines.
+     * Relative local paths are resolved against the directory the command line was given in.
+     *
+     * @param args             Command-line arguments for a single invocation
+     * @param workingDirectory The working directory of the process that received the command line
+     * @return The exit status: 0 on success, 1 for invalid arguments, 2 if files did not all reach their
+     * destination: an upload to several targets missed one, every copy of a hedged download failed,
+     * a recursive delete left files behind, or downloads queued for a group commit could not be committed
+     */
+    static int run(String[] args, Path workingDirectory) {
         try {
             // Parse command-line arguments
-            ParseArgs result = ParseArgs.parse(args);
+            ParseArgs result = ParseArgs.parse(args).resolveLocalPaths(workingDirectory);
 
             // Display help message if requested
             if (result.helpRequested) {
                 System.out.println(HELP_STR);
-                return;
+                return 0;
             }
 
-            // Parse the FTP path
-            FTPPathHandler.ParsedPath parsedPath = (result.param1.startsWith("ftp://") ?
-                    FTPPathHandler.parse(result.param1, result.param2, true) :
-                    FTPPathHandler.parse(result.param2, result.param1, false));
-
-            // Create an FTP executor with the parsed connection details
-            FTPExecutor executor = new FTPExecutor(parsedPath.getHost(), parsedPath.getPort(),
-                    parsedPath.getUsername(), parsedPath.getPassword());
-
-            // Retrieve the operation to execute
-            BiConsumer<FTPExecutor, FTPPathHandler.ParsedPath> operation = OPERATIONS.get(result.operation);
-            if (operation == null) {
-                throw new IllegalArgumentException("Unknown operation: " + result.operation);
+            FTPClientConfig config = configFrom(result);
+            int status = execute(result, config);
+            if (result.verbose && config.getCache() != null) {
+                // On standard error, so the statistics never mix with a download written to standard output
+                System.err.println(config.getCache());
             }
-
-            // Execute the requested operation
-            operation.accept(executor, parsedPath);
+            return commitDownloads(config) ? status : 2;
 
         } catch (IllegalArgumentException | MalformedURLException e) {
             // Handle errors by displaying the error message and help information
             System.err.println("Error: " + e.getMessage());
             System.out.println(HELP_STR);
-            System.exit(1);
+            return 1;
+        }
+    }
+
+    /**
+     * Runs the operation of one parsed command line.
+     *
+     * @param result The parsed command-line arguments
+     * @param config The client settings chosen on the command line
+     * @return The exit status of the operation
+     * @throws IllegalArgumentException If the arguments do not form a valid command
+     * @throws MalformedURLException    If a URL is invalid
+     */
+    private static int execute(ParseArgs result, FTPClientConfig config) throws MalformedURLException {
+        // Several targets: the source is read once and uploaded to all of them in parallel
+        if (result.params.size() > 2) {
+            return uploadFanOut(result, config);
+        }
+
+        // Both parameters are URLs: the operation runs between two paths on one or two servers
+        if (result.param2 != null && result.param1.startsWith("ftp://") && result.param2.startsWith("ftp://")) {
+            RemoteOperation operation = REMOTE_OPERATIONS.get(result.operation);
+            if (operation == null) {
+                throw new IllegalArgumentException("Operation not supported between two URLs: " + result.operation);
+            }
+            FTPPathHandler.ParsedPath source = FTPPathHandler.parse(result.param1, null, true);
+            FTPPathHandler.ParsedPath target = FTPPathHandler.parse(result.param2, null, false);
+            operation.accept(executorFor(source, config), source, executorFor(target, config), target);
+            return 0;
+        }
+
+        // Parse the FTP path
+        FTPPathHandler.ParsedPath parsedPath = (result.param1.startsWith("ftp://") ?
+                FTPPathHandler.parse(result.param1, result.param2, true) :
+                FTPPathHandler.parse(result.param2, result.param1, false));
+
+        // Create an FTP executor with the parsed connection details
+        FTPExecutor executor = executorFor(parsedPath, config);
+
+        // Recursive deletes run over a pool of sessions rather than a single executor
+        if (result.hasOption("recursive")) {
+            if (!result.operation.equals("rm") && !result.operation.equals("rmdir")) {
+                throw new IllegalArgumentException("--recursive only applies to rm and rmdir");
+            }
+            return deleteRecursively(parsedPath, config, result.getIntOption("sessions", DEFAULT_SESSIONS),
+                    result.hasOption("sessions"));
+        }
+
+        // Hedged downloads run over a pool so that a slow copy can be raced by a second session
+        if (result.hasOption("hedge")) {
+            if (!result.operation.equals("cp") || !parsedPath.isDownload()
+                    || FTPPathHandler.isStdio(parsedPath.getLocalPath())) {
+                throw new IllegalArgumentException("--hedge only applies to cp from a URL to a local file");
+            }
+            return downloadHedged(parsedPath, config);
+        }
+
+        // Appending sends only the part of a growing local file that the server does not have yet
+        if (result.hasOption("append")) {
+            if (!result.operation.equals("cp") || parsedPath.isDownload() || parsedPath.isStdio()) {
+                throw new IllegalArgumentException("--append only applies to cp from a local file to a URL");
+            }
+            if (config.isAtomicUploads() || config.isAsciiMode() || !config.getTransforms().isEmpty()) {
+                throw new IllegalArgumentException(
+                        "--append cannot be combined with --atomic, --ascii, --compress or --encrypt");
+            }
+            boolean verifyTail = result.hasOption("verify-tail");
+            executor.executeCommand(client -> client.appendFile(parsedPath.getRemotePath(),
+                    parsedPath.getLocalPath(), verifyTail));
+            return 0;
+        }
+        if (result.hasOption("verify-tail")) {
+            throw new IllegalArgumentException("--verify-tail only applies with --append");
+        }
+
+        // Retrieve the operation to execute
+        BiConsumer<FTPExecutor, FTPPathHandler.ParsedPath> operation = OPERATIONS.get(result.operation);
+        if (operation == null) {
+            throw new IllegalArgumentException("Unknown operation: " + result.operation);
+        }
+
+        // Execute the requested operation
+        operation.accept(executor, parsedPath);
+        return 0;
+    }
+
+    /**
+     * Waits for the files this command downloaded under a group commit to be durable and in place.
+     * The policy is shared with other commands in the daemon, but each command only sees its own failures.
+     *
+     * @param config The client settings of the command
+     * @return False if some of the command's files could not be committed; the reason is printed
+     */
+    private static boolean commitDownloads(FTPClientConfig config) {
+        DurabilityPolicy durability = config.getDurability();
+        if (durability.getSync() != DurabilityPolicy.Sync.GROUP_COMMIT) {
+            return true;
+        }
+        try {
+            durability.flush();
+            return true;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
         }
     }
 }
\ No newline at end of file
@@ -1,9 +1,51 @@
+import util.FTPPathHandler;
+
+import java.nio.file.Path;
+import java.util.*;
+
 /**
  * The ParseArgs class is responsible for parsing and storing command-line arguments
  * for an application that performs operations like copy (cp) and move (mv).
- * It supports verbose mode and help requests.
+ * It supports verbose mode, help requests and long options such as "--atomic".
  */
 public class ParseArgs {
+    /**
+     * Long options accepted on the command line, mapped to whether they take a value ("--name=value").
+     */
+    private static final Map<String, Boolean> OPTIONS = new HashMap<>();
+
+    /**
+     * Single-letter flags and the long options they stand for.
+     */
+    private static final Map<String, String> SHORT_OPTIONS = new HashMap<>();
+
+    static {
+        OPTIONS.put("append", false);
+        OPTIONS.put("ascii", false);
+        OPTIONS.put("atomic", false);
+        OPTIONS.put("cache", true);
+        OPTIONS.put("cache-links", false);
+        OPTIONS.put("cache-size", true);
+        OPTIONS.put("compress", false);
+        OPTIONS.put("drop-after", true);
+        OPTIONS.put("encrypt", true);
+        OPTIONS.put("fsync", true);
+        OPTIONS.put("hedge", false);
+        OPTIONS.put("recursive", false);
+        OPTIONS.put("sessions", true);
+        OPTIONS.put("stall-timeout", true);
+        OPTIONS.put("timeout", true);
+        OPTIONS.put("tls", false);
+        OPTIONS.put("verify-tail", false);
+
+        SHORT_OPTIONS.put("-r", "recursive");
+    }
+
+    /**
+     * Long options whose value is a local path.
+     */
+    private static final Set<String> PATH_OPTIONS = Set.of("cache", "encrypt");
+
     /** The operation to be performed (e.g., "cp" for copy, "mv" for move) */
     public final String operation;
 
@@ -13,12 +55,18 @@ public class ParseArgs {
     /** The second parameter for the operation (e.g., destination file/directory) */
     public final String param2;
 
+    /** Every parameter after the operation, for operations that take more than two */
+    public final List<String> params;
+
     /** Flag indicating whether verbose output is requested */
     public final boolean verbose;
 
     /** Flag indicating whether help information is requested */
     public final boolean helpRequested;
 
+    /** Long options given on the command line, mapped to their value ("" for options without one) */
+    public final Map<String, String> options;
+
     /**
      * Constructs a ParseArgs object with the specified parameters.
      *
@@ -29,15 +77,103 @@ public class ParseArgs {
      * @param helpRequested Flag indicating a help request
      */
     public ParseArgs(String operation, String param1, String param2, boolean verbose, boolean helpRequested) {
+        this(operation, param1, param2, verbose, helpRequested, Collections.emptyMap());
+    }
+
+    /**
+     * Constructs a ParseArgs object with the specified parameters and long options.
+     *
+     * @param operation     The operation to be performed
+     * @param param1        The first parameter for the operation
+     * @param param2        The second parameter for the operation
+     * @param verbose       Flag for verbose output
+     * @param helpRequested Flag indicating a help request
+     * @param options       Long options mapped to their values
+     */
+    public ParseArgs(String operation, String param1, String param2, boolean verbose, boolean helpRequested,
+                     Map<String, String> options) {
+        this(operation, param2 != null ? List.of(param1, param2) : param1 != null ? List.of(param1) : List.of(),
+                verbose, helpRequested, options);
+    }
+
+    /**
+     * Constructs a ParseArgs object with any number of parameters and long options.
+     *
+     * @param operation     The operation to be performed
+     * @param params        The parameters for the operation, in order
+     * @param verbose       Flag for verbose output
+     * @param helpRequested Flag indicating a help request
+     * @param options       Long options mapped to their values
+     */
+    public ParseArgs(String operation, List<String> params, boolean verbose, boolean helpRequested,
+                     Map<String, String> options) {
         this.operation = operation;
-        this.param1 = param1;
-        this.param2 = param2;
+        this.params = List.copyOf(params);
+        this.param1 = params.size() > 0 ? params.get(0) : null;
+        this.param2 = params.size() > 1 ? params.get(1) : null;
         this.verbose = verbose;
         this.helpRequested = helpRequested;
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * Checks whether a long option was given.
+     *
+     * @param name The option name without the leading dashes
+     * @return True if the option was present on the command line
+     */
+    public boolean hasOption(String name) {
+        return options.containsKey(name);
+    }
+
+    /**
+     * Returns the value of a long option as a positive integer.
+     *
+     * @param name         The option name without the leading dashes
+     * @param defaultValue The value to use when the option was not given
+     * @return The option's value, or the default
+     * @throws IllegalArgumentException If the value is not a positive integer
+     */
+    public int getIntOption(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Option --" + name + " must be a positive integer: " + value);
+    }
+
+    /**
+     * Returns these arguments with every local path made absolute against the given directory:
+     * parameters that are neither URLs nor "-", and the values of options naming local files.
+     * Used when the arguments were given in another process with a different working directory.
+     *
+     * @param directory The working directory the arguments were given in
+     * @return The arguments with absolute local paths
+     */
+    public ParseArgs resolveLocalPaths(Path directory) {
+        List<String> resolved = new ArrayList<>();
+        for (String param : params) {
+            boolean local = !param.startsWith("ftp://") && !FTPPathHandler.isStdio(param);
+            resolved.add(local ? directory.resolve(param).toString() : param);
+        }
+        Map<String, String> resolvedOptions = new HashMap<>(options);
+        for (String name : PATH_OPTIONS) {
+            resolvedOptions.computeIfPresent(name, (unused, value) -> directory.resolve(value).toString());
+        }
+        return new ParseArgs(operation, resolved, verbose, helpRequested, resolvedOptions);
     }
 
     /**
      * Parses the given command-line arguments and returns a ParseArgs object.
+     * Flags and long options may appear anywhere; the remaining arguments are the operation and its parameters.
      *
      * @param args The command-line arguments to parse
      * @return A ParseArgs object representing the parsed arguments
@@ -48,37 +184,84 @@ public class ParseArgs {
             throw new IllegalArgumentException("No arguments provided");
         }
 
-        // Check for help request
-        if (args[0].equals("-h") || args[0].equals("--help")) {
-            return new ParseArgs(null, null, null, false, true);
-        }
-
         boolean verbose = false;
-        int startIndex = 0;
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
 
-        // Check for verbose flag
-        if (args[0].equals("-v") || args[0].equals("--verbose")) {
-            verbose = true;
-            startIndex = 1;
+        for (String arg : args) {
+            if (arg.equals("-h") || arg.equals("--help")) {
+                // Check for help request
+                return new ParseArgs(null, null, null, false, true);
+            } else if (arg.equals("-v") || arg.equals("--verbose")) {
+                // Check for verbose flag
+                verbose = true;
+            } else if (arg.startsWith("--")) {
+                parseOption(arg.substring(2), options);
+            } else if (SHORT_OPTIONS.containsKey(arg)) {
+                parseOption(SHORT_OPTIONS.get(arg), options);
+            } else if (arg.startsWith("-") && !FTPPathHandler.isStdio(arg)) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else {
+                positional.add(arg);
+            }
         }
 
         // Ensure sufficient arguments are provided
-        if (args.length - startIndex < 2) {
+        if (positional.size() < 2) {
             throw new IllegalArgumentException("Insufficient arguments");
         }
 
-        String operation = args[startIndex];
-        String param1 = args[startIndex + 1];
+        String operation = positional.get(0);
+        String param1 = positional.get(1);
         String param2 = null;
 
         // Handle operations that require two parameters (cp and mv)
         if (operation.equals("cp") || operation.equals("mv")) {
-            if (args.length - startIndex < 3) {
+            if (positional.size() < 3) {
                 throw new IllegalArgumentException("Insufficient arguments for " + operation);
             }
-            param2 = args[startIndex + 2];
+            param2 = positional.get(2);
+
+            // "-" streams through standard input/output, which only makes sense for a copy to or from a URL
+            boolean stdio1 = FTPPathHandler.isStdio(param1);
+            boolean stdio2 = FTPPathHandler.isStdio(param2);
+            if (stdio1 && stdio2) {
+                throw new IllegalArgumentException("Only one side of " + operation + " can be '-'");
+            }
+            if ((stdio1 || stdio2) && operation.equals("mv")) {
+                throw new IllegalArgumentException("Standard input/output ('-') cannot be used with mv");
+            }
         }
 
-        return new ParseArgs(operation, param1, param2, verbose, false);
+        // cp also takes several targets, which receive the same source
+        if (operation.equals("cp")) {
+            return new ParseArgs(operation, positional.subList(1, positional.size()), verbose, false, options);
+        }
+        return new ParseArgs(operation, param1, param2, verbose, false, options);
+    }
+
+    /**
+     * Parses a single long option of the form "name" or "name=value" and records it.
+     *
+     * @param option  The option text without the leading dashes
+     * @param options The map receiving the parsed option
+     * @throws IllegalArgumentException If the option is unknown or its value is missing or unexpected
+     */
+    private static void parseOption(String option, Map<String, String> options) {
+        int equals = option.indexOf('=');
+        String name = equals < 0 ? option : option.substring(0, equals);
+        String value = equals < 0 ? "" : option.substring(equals + 1);
+
+        Boolean takesValue = OPTIONS.get(name);
+        if (takesValue == null) {
+            throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+        if (takesValue && value.isEmpty()) {
+            throw new IllegalArgumentException("Option --" + name + " requires a value");
+        }
+        if (!takesValue && equals >= 0) {
+            throw new IllegalArgumentException("Option --" + name + " does not take a value");
+        }
+        options.put(name, value);
     }
-}
\ No newline at end of file
+}
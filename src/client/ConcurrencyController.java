@@ -0,0 +1,320 @@
+package client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Learns how many sessions each server tolerates and limits concurrent work to that number.
+ *
+ * The limit follows the AIMD scheme of TCP congestion control. Completed work is measured in windows
+ * of two operations per allowed session, counting only operations started within the window, so that
+ * work admitted under an earlier limit does not blur the measurement. A window's throughput is the rate
+ * each session achieved times the average number of sessions busy, which does not depend on where the
+ * window boundary fell within an operation. A window that moved more data per second than the previous
+ * one raises the limit by one session. A window that brought no gain after such
+ * a raise takes the raise back and holds the limit, probing again only after several steady windows.
+ * A window whose throughput fell sharply, or whose sessions each got less than half of the best
+ * per-session rate seen, cuts the limit by a quarter. A server that signals overload, with 421, 425 or
+ * 426, a refused connection or a reset, halves it at once.
+ *
+ * Learned limits can be saved to and loaded from a properties file, so the next run starts at the
+ * concurrency each server settled on instead of rediscovering it.
+ */
+public class ConcurrencyController {
+    /** A window must beat the previous one by this factor to count as an improvement */
+    private static final double IMPROVEMENT = 1.05;
+    /** A window below this fraction of the previous one counts as falling throughput */
+    private static final double DECLINE = 0.8;
+    /** The fewest operations a window measures; windows also span at least two rounds of the limit */
+    private static final int MIN_WINDOW = 8;
+    /** Steady windows to wait before probing for a higher limit again */
+    private static final int HOLD_WINDOWS = 8;
+
+    private final int initialLimit;
+    private final int maxLimit;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * A permission to run one operation against a server. Exactly one of
+     * {@link #succeeded} and {@link #failed} must be called when the operation ends.
+     */
+    public class Permit {
+        private final Host host;
+        private final long window;
+        private final long startNanos = System.nanoTime();
+        private boolean done;
+
+        private Permit(Host host, long window) {
+            this.host = host;
+            this.window = window;
+        }
+
+        /**
+         * Reports that the operation completed.
+         *
+         * @param bytes The number of bytes it transferred, or -1 to count it as a single unit of work
+         */
+        public void succeeded(long bytes) {
+            if (!done) {
+                done = true;
+                host.completed(window, bytes < 0 ? 1 : bytes, System.nanoTime() - startNanos);
+            }
+        }
+
+        /**
+         * Reports that the operation failed. Overload signals lower the limit; other failures only free the permit.
+         *
+         * @param e The failure
+         */
+        public void failed(IOException e) {
+            if (!done) {
+                done = true;
+                host.failed(isOverload(e));
+            }
+        }
+    }
+
+    /**
+     * The learned state of one server.
+     */
+    private class Host {
+        private double limit;
+        private int inFlight;
+        /** Counts windows, so completions can be matched to the window they started in */
+        private long window;
+        private long windowStart = System.nanoTime();
+        private long lastChange = windowStart;
+        /** The integral of operations in flight over the window's time, to average the concurrency */
+        private double windowConcurrencyNanos;
+        private long windowUnits;
+        private long windowBusyNanos;
+        private int windowOperations;
+        private double previousRate;
+        private double bestSessionRate;
+        private boolean probing;
+        private int steadyWindows;
+        /** The limit at which the server last signalled overload; raises stay below it for a while */
+        private double ceiling = Double.MAX_VALUE;
+
+        Host(int limit) {
+            this.limit = limit;
+        }
+
+        synchronized Permit acquire() throws InterruptedException {
+            while (inFlight >= allowed()) {
+                wait();
+            }
+            accountConcurrency();
+            inFlight++;
+            return new Permit(this, window);
+        }
+
+        synchronized int allowed() {
+            return (int) limit;
+        }
+
+        synchronized void completed(long startWindow, long units, long nanos) {
+            accountConcurrency();
+            inFlight--;
+            if (startWindow != window) {
+                notifyAll();
+                return;
+            }
+            windowUnits += units;
+            windowBusyNanos += nanos;
+            windowOperations++;
+            if (windowOperations >= Math.max(MIN_WINDOW, 2 * allowed())) {
+                endWindow();
+            }
+            notifyAll();
+        }
+
+        synchronized void failed(boolean overload) {
+            accountConcurrency();
+            inFlight--;
+            if (overload) {
+                ceiling = Math.min(ceiling, Math.max(2, inFlight + 1));
+                limit = Math.max(1, Math.floor(limit / 2));
+                probing = false;
+                steadyWindows = 0;
+                startWindow();
+                // The next window is measured at the lower limit and must not be compared with this one
+                previousRate = 0;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Compares the throughput of the window that just ended with the previous one and adjusts the limit.
+         */
+        private void endWindow() {
+            accountConcurrency();
+            double concurrency = windowConcurrencyNanos / Math.max(1, lastChange - windowStart);
+            double sessionRate = windowUnits * 1e9 / Math.max(1, windowBusyNanos);
+            double rate = sessionRate * concurrency;
+            bestSessionRate = Math.max(bestSessionRate, sessionRate);
+
+            if (previousRate > 0 && (rate < previousRate * DECLINE
+                    || (sessionRate < bestSessionRate / 2 && rate < previousRate * IMPROVEMENT))) {
+                // The server is saturated: every session got slower and together they gained nothing
+                limit = Math.max(1, Math.floor(limit * 0.75));
+                probing = false;
+                steadyWindows = 0;
+            } else if (previousRate == 0 || rate > previousRate * IMPROVEMENT) {
+                raise();
+            } else if (probing) {
+                // The last raise did not pay off; settle one session lower
+                limit = Math.max(1, limit - 1);
+                probing = false;
+                steadyWindows = 0;
+            } else if (++steadyWindows >= HOLD_WINDOWS) {
+                // Conditions may have changed since the last overload; allow probing one session higher
+                ceiling++;
+                raise();
+            }
+            previousRate = rate;
+            startWindow();
+        }
+
+        private void raise() {
+            steadyWindows = 0;
+            if (limit < maxLimit && limit + 1 < ceiling) {
+                limit++;
+                probing = true;
+            } else {
+                probing = false;
+            }
+        }
+
+        private void accountConcurrency() {
+            long now = System.nanoTime();
+            windowConcurrencyNanos += (double) inFlight * (now - lastChange);
+            lastChange = now;
+        }
+
+        private void startWindow() {
+            accountConcurrency();
+            window++;
+            windowStart = lastChange;
+            windowConcurrencyNanos = 0;
+            windowUnits = 0;
+            windowBusyNanos = 0;
+            windowOperations = 0;
+        }
+    }
+
+    /**
+     * Constructs a controller with no learned limits.
+     *
+     * @param initialLimit The number of sessions a server starts with
+     * @param maxLimit     The highest limit the controller raises any server to
+     */
+    public ConcurrencyController(int initialLimit, int maxLimit) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= initialLimit <= maxLimit");
+        }
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Waits until the server's limit allows another operation.
+     *
+     * @param host The server, e.g. "host:port"
+     * @return The permit, to be completed with {@link Permit#succeeded} or {@link Permit#failed}
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public Permit acquire(String host) throws InterruptedException {
+        return hostFor(host).acquire();
+    }
+
+    /**
+     * @param host The server, e.g. "host:port"
+     * @return The number of operations currently allowed to run against the server at once
+     */
+    public int getLimit(String host) {
+        return hostFor(host).allowed();
+    }
+
+    private Host hostFor(String host) {
+        return hosts.computeIfAbsent(host, key -> new Host(initialLimit));
+    }
+
+    /**
+     * Reads learned limits saved by {@link #save}. Missing files and unreadable entries are ignored.
+     *
+     * @param file The properties file
+     * @throws IOException If the file exists but cannot be read
+     */
+    public void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            properties.load(input);
+        }
+        for (String host : properties.stringPropertyNames()) {
+            try {
+                int limit = Integer.parseInt(properties.getProperty(host).trim());
+                hosts.put(host, new Host(Math.max(1, Math.min(maxLimit, limit))));
+            } catch (NumberFormatException e) {
+                // Ignore entries edited by hand into something unreadable
+            }
+        }
+    }
+
+    /**
+     * Writes the learned limit of every server, replacing the file atomically.
+     *
+     * @param file The properties file
+     * @throws IOException If the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        Properties properties = new Properties();
+        hosts.forEach((host, state) -> properties.setProperty(host, Integer.toString(state.allowed())));
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, "." + file.getFileName(), ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temporary)) {
+                properties.store(output, "Learned concurrency limits per FTP server");
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Decides whether a failure means the server has too many sessions or connections.
+     *
+     * @param e The failure
+     * @return True for 421, 425 and 426 replies, refused connections and resets, anywhere in the cause chain
+     */
+    public static boolean isOverload(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FTPReplyException) {
+                int code = ((FTPReplyException) cause).getReplyCode();
+                if (code == 421 || code == 425 || code == 426) {
+                    return true;
+                }
+            } else if (cause instanceof ConnectException) {
+                return true;
+            } else if (cause instanceof SocketException && cause.getMessage() != null
+                    && cause.getMessage().toLowerCase().contains("reset")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
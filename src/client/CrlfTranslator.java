@@ -0,0 +1,184 @@
+package client;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Translates line endings between the FTP ASCII representation (CRLF, RFC 959 section 3.1.1.1)
+ * and the local convention while data streams through a fixed buffer.
+ * The translator works directly on byte arrays and allocates nothing per call, so an ASCII
+ * transfer costs one pass over the data just like a binary one.
+ *
+ * A translator is stateful: a CR at the end of one chunk is only resolved by the first byte of the
+ * next, so a CRLF pair split across reads is still recognised. Use one instance per transfer and
+ * call {@link #finish} after the last chunk.
+ */
+public class CrlfTranslator {
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    /** Reads eight bytes at a time, so line endings can be searched for a word at a time */
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * The direction of the translation.
+     */
+    public enum Direction {
+        /** CRLF from the server becomes the local line separator */
+        TO_LOCAL,
+        /** Local line endings become CRLF for the server */
+        TO_NETWORK
+    }
+
+    private final Direction direction;
+    private final boolean identity;
+
+    /** TO_LOCAL: a CR was read but not written yet. TO_NETWORK: the last byte written was a CR. */
+    private boolean pendingCr;
+
+    /**
+     * Creates a translator for the local platform's line separator.
+     * On platforms that already use CRLF the data passes through unchanged.
+     *
+     * @param direction The direction of the translation
+     */
+    public CrlfTranslator(Direction direction) {
+        this(direction, System.lineSeparator());
+    }
+
+    /**
+     * Creates a translator for an explicit local line separator.
+     *
+     * @param direction          The direction of the translation
+     * @param localLineSeparator The local line separator, either "\n" or "\r\n"
+     */
+    public CrlfTranslator(Direction direction, String localLineSeparator) {
+        if (!localLineSeparator.equals("\n") && !localLineSeparator.equals("\r\n")) {
+            throw new IllegalArgumentException("Unsupported line separator");
+        }
+        this.direction = direction;
+        this.identity = localLineSeparator.equals("\r\n");
+    }
+
+    /**
+     * Returns the size of the output buffer needed to translate a chunk of the given length.
+     *
+     * @param inputLength The length of the input chunk
+     * @return The largest number of bytes {@link #translate} can produce for it
+     */
+    public static int maxOutputLength(int inputLength) {
+        // TO_NETWORK can double the data (all LF); TO_LOCAL can emit one held-back CR more than it reads
+        return 2 * inputLength + 1;
+    }
+
+    /**
+     * Translates one chunk of data.
+     *
+     * @param in     The input buffer
+     * @param offset The offset of the chunk in the input buffer
+     * @param length The length of the chunk
+     * @param out    The output buffer, at least {@link #maxOutputLength(int)} bytes long
+     * @return The number of bytes written to the start of the output buffer
+     */
+    public int translate(byte[] in, int offset, int length, byte[] out) {
+        if (identity) {
+            System.arraycopy(in, offset, out, 0, length);
+            return length;
+        }
+        return direction == Direction.TO_LOCAL ? toLocal(in, offset, length, out) : toNetwork(in, offset, length, out);
+    }
+
+    /**
+     * Writes anything held back at the end of the data.
+     *
+     * @param out The output buffer, at least one byte long
+     * @return The number of bytes written to the start of the output buffer
+     */
+    public int finish(byte[] out) {
+        if (direction == Direction.TO_LOCAL && pendingCr) {
+            // A CR at the very end was not part of a CRLF pair; keep it
+            pendingCr = false;
+            out[0] = CR;
+            return 1;
+        }
+        pendingCr = false;
+        return 0;
+    }
+
+    private int toLocal(byte[] in, int offset, int length, byte[] out) {
+        int written = 0;
+        int end = offset + length;
+        int i = offset;
+        if (pendingCr && i < end) {
+            pendingCr = false;
+            if (in[i] != LF) {
+                out[written++] = CR;
+            }
+        }
+        // Copy the runs between CRs in bulk; only the CRs themselves need a decision
+        int runStart = i;
+        while ((i = indexOf(in, i, end, CR)) < end) {
+            System.arraycopy(in, runStart, out, written, i - runStart);
+            written += i - runStart;
+            i++;
+            if (i == end) {
+                // Cannot tell yet whether this CR starts a CRLF pair
+                pendingCr = true;
+            } else if (in[i] != LF) {
+                out[written++] = CR;
+            }
+            // A CR followed by LF is dropped; the LF starts the next run
+            runStart = i;
+        }
+        System.arraycopy(in, runStart, out, written, end - runStart);
+        return written + end - runStart;
+    }
+
+    private int toNetwork(byte[] in, int offset, int length, byte[] out) {
+        int written = 0;
+        int end = offset + length;
+        boolean previousCr = pendingCr;
+        int runStart = offset;
+        for (int i = indexOf(in, offset, end, LF); i < end; i = indexOf(in, i + 1, end, LF)) {
+            if (!(i == offset ? previousCr : in[i - 1] == CR)) {
+                System.arraycopy(in, runStart, out, written, i - runStart);
+                written += i - runStart;
+                out[written++] = CR;
+                runStart = i;
+            }
+        }
+        System.arraycopy(in, runStart, out, written, end - runStart);
+        written += end - runStart;
+        if (length > 0) {
+            pendingCr = in[end - 1] == CR;
+        }
+        return written;
+    }
+
+    /**
+     * Finds the next occurrence of a byte, testing eight bytes per step with the
+     * "has zero byte" bit trick on the XOR of each word with the searched value.
+     *
+     * @return The index of the byte, or {@code end} if it does not occur
+     */
+    private static int indexOf(byte[] array, int from, int end, byte value) {
+        long pattern = ONES * (value & 0xff);
+        int i = from;
+        for (; i <= end - Long.BYTES; i += Long.BYTES) {
+            long word = (long) LONGS.get(array, i) ^ pattern;
+            long found = (word - ONES) & ~word & HIGH_BITS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < end; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,458 @@
+package client;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local cache of downloaded files, shared by every process that points at the same directory.
+ *
+ * Each entry is named by the SHA-256 of the server, the user, the normalized remote path, and the
+ * file's size and modification time (SIZE and MDTM, RFC 3659). A file that changes on the server
+ * gets a new key, so an entry never needs invalidating; the old entry ages out instead. A hit is
+ * copied to the destination, or hard-linked when links are enabled, without a transfer.
+ *
+ * Processes share the directory safely without a coordinator:
+ * <ul>
+ *     <li>Entries are written under a temporary name and renamed into place, so a reader never sees
+ *     a partial entry, and are checked against their expected size before use.</li>
+ *     <li>A hit opens its entry before reading it, so an eviction by another process cannot cut it short.</li>
+ *     <li>Eviction holds an exclusive lock on the directory's lock file, so processes never evict at once.</li>
+ * </ul>
+ * Eviction is least recently used: a hit sets the entry's modification time, and once the entries
+ * exceed the size cap the oldest are removed.
+ */
+public class DownloadCache {
+    private static final String LOCK_FILE = ".lock";
+    private static final String FILL_PREFIX = ".fill-";
+
+    /** Fills older than this belong to processes that died; younger ones may still be running */
+    private static final long STALE_FILL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final boolean hardLinks;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong hitBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Opens a cache, creating its directory if necessary.
+     *
+     * @param directory The directory holding the entries; it should be used for nothing else
+     * @param maxBytes  The total size of entries above which the least recently used are evicted
+     * @param hardLinks Whether hits are hard-linked to their destination instead of copied. A linked file
+     *                  shares its data with the entry, so this suits downloads that are only ever read,
+     *                  such as build artifacts; editing such a file in place would change the cached copy.
+     *                  Links that cannot be made, for example across file systems, fall back to copies.
+     * @throws IOException If the directory cannot be created
+     */
+    public DownloadCache(Path directory, long maxBytes, boolean hardLinks) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        this.hardLinks = hardLinks;
+    }
+
+    /**
+     * Builds the key of a remote file's current version.
+     *
+     * @param user     The user the file was read as, since servers may show each user a different tree
+     * @param host     The server's host name
+     * @param port     The server's control port
+     * @param path     The remote path; it is normalized, so equivalent spellings share an entry
+     * @param size     The file's size from SIZE
+     * @param modified The file's modification time from MDTM
+     * @return The key, as 64 hexadecimal digits
+     */
+    public static String key(String user, String host, int port, String path, long size, String modified) {
+        String identity = user + "@" + host.toLowerCase() + ":" + port + "\n" + normalize(path) + "\n"
+                + size + "\n" + modified;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Normalizes a remote path: repeated slashes and "." segments are dropped and ".." segments resolved.
+     *
+     * @param path A remote path
+     * @return The normalized path, absolute if the input was
+     */
+    static String normalize(String path) {
+        boolean absolute = path.startsWith("/");
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (!segment.equals("..")) {
+                segments.addLast(segment);
+            } else if (!segments.isEmpty() && !segments.peekLast().equals("..")) {
+                segments.removeLast();
+            } else if (!absolute) {
+                // Above a relative path ".." depends on the working directory, so it is kept; above the root it is dropped
+                segments.addLast(segment);
+            }
+        }
+        return (absolute ? "/" : "") + String.join("/", segments);
+    }
+
+    /**
+     * Puts the cached copy of a file at the destination, if there is one.
+     * Copies go through the durability policy, like downloads, so a hit is as safe as a transfer.
+     *
+     * @param key        The file's key
+     * @param size       The file's size, which the entry must match
+     * @param target     The local destination
+     * @param durability The policy that puts copied files in place
+     * @return True on a hit; false if the file must be downloaded
+     * @throws IOException If the entry cannot be copied to the destination
+     */
+    public boolean fetch(String key, long size, Path target, DurabilityPolicy durability) throws IOException {
+        Path entry = directory.resolve(key);
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(entry, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+        try (channel) {
+            if (channel.size() != size) {
+                // Cut short by a crash before it reached the disk; the next fill replaces it
+                misses.incrementAndGet();
+                return false;
+            }
+            touch(entry);
+            if (!hardLinks || !link(entry, target)) {
+                try (DurabilityPolicy.OutputFile file = durability.create(target)) {
+                    InputStream input = Channels.newInputStream(channel);
+                    input.transferTo(file.getStream());
+                    file.commit();
+                }
+            }
+        }
+        hits.incrementAndGet();
+        hitBytes.addAndGet(size);
+        return true;
+    }
+
+    /**
+     * Starts storing a file that is being downloaded after a miss.
+     *
+     * @param key  The file's key
+     * @param size The file's size; the entry is only kept if exactly this much is written
+     * @return The entry being filled, to be committed once the download succeeds and closed by the caller
+     * @throws IOException If the temporary file cannot be created
+     */
+    public Fill fill(String key, long size) throws IOException {
+        if (size > maxBytes) {
+            // It would evict everything else and then itself
+            return new Fill(null, null, size);
+        }
+        while (true) {
+            Path temporary = directory.resolve(FILL_PREFIX + key + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+            try {
+                FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                return new Fill(directory.resolve(key), temporary, size, channel);
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+
+    /**
+     * An entry being written while its file downloads. Closing it without a commit discards it.
+     */
+    public final class Fill implements Closeable {
+        private final Path entry;
+        private final Path temporary;
+        private final long size;
+        private final FileChannel channel;
+        private final OutputStream stream;
+        private long written;
+        private boolean failed;
+        private boolean done;
+
+        private Fill(Path entry, Path temporary, long size) {
+            this(entry, temporary, size, null);
+        }
+
+        private Fill(Path entry, Path temporary, long size, FileChannel channel) {
+            this.entry = entry;
+            this.temporary = temporary;
+            this.size = size;
+            this.channel = channel;
+            this.stream = channel == null ? null : Channels.newOutputStream(channel);
+            this.failed = channel == null;
+        }
+
+        /**
+         * Wraps the stream the download is written to, so the data is also written to the entry.
+         * If the entry cannot be written, for example because its disk is full, the download carries on
+         * and the entry is dropped.
+         *
+         * @param output The download's destination
+         * @return A stream writing to both; closing it does not close the destination
+         */
+        public OutputStream tee(OutputStream output) {
+            if (channel == null) {
+                return output;
+            }
+            return new FilterOutputStream(output) {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    if (!failed) {
+                        try {
+                            stream.write(b, off, len);
+                            written += len;
+                        } catch (IOException e) {
+                            failed = true;
+                        }
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+
+        /**
+         * Puts the entry in place, unless it was not written in full, and evicts entries over the cap.
+         * The download has already succeeded, so failing to cache it is not an error.
+         *
+         * @return True if the entry was stored
+         */
+        public boolean commit() {
+            if (done || failed || written != size) {
+                closeQuietly();
+                return false;
+            }
+            done = true;
+            try {
+                channel.close();
+                Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                evict();
+                return true;
+            } catch (IOException e) {
+                closeQuietly();
+                return false;
+            }
+        }
+
+        /**
+         * Discards the entry unless it was committed.
+         */
+        @Override
+        public void close() {
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            done = true;
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                // A leftover fill is removed by a later eviction once it is stale
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the rest fit under the cap, along with fills
+     * abandoned by processes that died.
+     *
+     * @throws IOException If the directory cannot be listed or locked
+     */
+    void evict() throws IOException {
+        // File locks are held per process, so threads of this process take turns on the monitor first
+        synchronized (DownloadCache.class) {
+            try (FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = lockChannel.lock();
+                try {
+                    List<Entry> entries = new ArrayList<>();
+                    long total = 0;
+                    long staleBefore = System.currentTimeMillis() - STALE_FILL_MILLIS;
+                    try (DirectoryStream<Path> listing = Files.newDirectoryStream(directory)) {
+                        for (Path path : listing) {
+                            String name = path.getFileName().toString();
+                            BasicFileAttributes attrs;
+                            try {
+                                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                            } catch (NoSuchFileException e) {
+                                continue;
+                            }
+                            if (name.startsWith(FILL_PREFIX)) {
+                                if (attrs.lastModifiedTime().toMillis() < staleBefore) {
+                                    Files.deleteIfExists(path);
+                                }
+                            } else if (!name.startsWith(".") && attrs.isRegularFile()) {
+                                entries.add(new Entry(path, attrs));
+                                total += attrs.size();
+                            }
+                        }
+                    }
+                    if (total <= maxBytes) {
+                        return;
+                    }
+                    entries.sort(Comparator.comparing(entry -> entry.used));
+                    for (Entry entry : entries) {
+                        if (total <= maxBytes) {
+                            break;
+                        }
+                        try {
+                            if (Files.deleteIfExists(entry.path)) {
+                                evictions.incrementAndGet();
+                            }
+                            total -= entry.size;
+                        } catch (IOException e) {
+                            // In use on a platform that cannot delete open files; try the next one
+                        }
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * An entry found while evicting.
+     */
+    private static class Entry {
+        final Path path;
+        final long size;
+        final FileTime used;
+
+        Entry(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.size = attributes.size();
+            this.used = attributes.lastModifiedTime();
+        }
+    }
+
+    /**
+     * Hard-links an entry to the destination, replacing it atomically.
+     *
+     * @return False if no link could be made and the entry must be copied instead
+     */
+    private static boolean link(Path entry, Path target) {
+        if (Files.isSymbolicLink(target) || (Files.exists(target) && !Files.isRegularFile(target))) {
+            // Leave links and special files to the durability policy, which writes through them
+            return false;
+        }
+        Path temporary = target.toAbsolutePath().getParent().resolve("." + target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".link");
+        try {
+            Files.createLink(temporary, entry);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException cleanup) {
+                // Nothing more can be done; the copy still goes ahead
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Marks an entry as just used. A linked destination shares the entry's time, which matches what a
+     * fresh download would have given it.
+     */
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // The entry may have been evicted meanwhile; the open channel still reads it
+        }
+    }
+
+    /** @return The directory holding the entries */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /** @return The total size of entries above which the least recently used are evicted */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** @return The number of downloads served from the cache by this instance */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return The number of downloads this instance looked up and did not find */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return The number of bytes served from the cache instead of the network by this instance */
+    public long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    /** @return The number of entries this instance evicted */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadCache[" + directory + ": " + getHits() + " hits (" + getHitBytes() + " bytes), "
+                + getMisses() + " misses, " + getEvictions() + " evictions]";
+    }
+}
@@ -0,0 +1,404 @@
+package client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how downloaded files reach their local destination and when they are made durable.
+ *
+ * Every file is written to a hidden temporary file next to its destination and moved over the
+ * destination atomically once the transfer succeeds, so a failed download never leaves a truncated
+ * file behind and never destroys the previous copy. The sync mode decides when the data is forced
+ * to the storage device:
+ * <ul>
+ *     <li>{@link Sync#NONE} leaves writing back to the operating system.</li>
+ *     <li>{@link Sync#PER_FILE} forces the file before the move and its directory after it, so the file
+ *     has survived a crash once {@link OutputFile#commit} returns.</li>
+ *     <li>{@link Sync#GROUP_COMMIT} queues committed files and makes them durable in batches: every file
+ *     of a batch is forced, then all are moved into place, then each directory they share is forced once.
+ *     A file only appears under its final name once its batch is durable, so after a crash every
+ *     destination holds either its previous contents or the complete new file. A file that cannot be
+ *     committed is reported by {@link #flush()} to the thread that committed it, so callers sharing one
+ *     policy only see their own failures.</li>
+ * </ul>
+ * Destinations that exist but are not regular files, such as /dev/null or a named pipe, are written directly.
+ */
+public class DurabilityPolicy implements Closeable {
+
+    /**
+     * When written files are forced to the storage device.
+     */
+    public enum Sync {
+        /** Never; the operating system writes the data back in its own time */
+        NONE,
+        /** Each file and its directory, before the commit returns */
+        PER_FILE,
+        /** Batches of files, each batch sharing a single directory sync per directory */
+        GROUP_COMMIT
+    }
+
+    /** Files queued before a group commit starts without waiting for the delay */
+    private static final int DEFAULT_BATCH_SIZE = 256;
+
+    /** How long a group commit waits for more files after the first one is queued */
+    private static final long DEFAULT_BATCH_DELAY_MILLIS = 50;
+
+    /** One shared policy per mode, so that configurations using the same mode compare equal */
+    private static final Map<Sync, DurabilityPolicy> SHARED = new EnumMap<>(Sync.class);
+
+    static {
+        for (Sync sync : Sync.values()) {
+            SHARED.put(sync, new DurabilityPolicy(sync, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_DELAY_MILLIS));
+        }
+    }
+
+    private final Sync sync;
+    private final int batchSize;
+    private final long batchDelayNanos;
+
+    /** Files committed under GROUP_COMMIT that are not yet in place */
+    private final List<Pending> pending = new ArrayList<>();
+    /** The thread committing batches, or null while nothing is queued */
+    private Thread committer;
+    /** Whether the committer is working on a batch it has taken off the queue */
+    private boolean committing;
+    /** Callers waiting in flush(), who want the next batch committed without delay */
+    private int flushWaiters;
+    /** The first background commit failure of each committing thread since it last flushed */
+    private final Map<Thread, IOException> failures = new WeakHashMap<>();
+    private long fileSyncs;
+    private long directorySyncs;
+
+    /**
+     * A file committed under GROUP_COMMIT, waiting for its batch.
+     */
+    private static class Pending {
+        final Path temporary;
+        final Path target;
+        final long queuedNanos = System.nanoTime();
+        /** The thread that committed the file, to which a failure is reported */
+        final Thread owner = Thread.currentThread();
+
+        Pending(Path temporary, Path target) {
+            this.temporary = temporary;
+            this.target = target;
+        }
+    }
+
+    /**
+     * A local file being written. Data goes to {@link #getStream()}; {@link #commit()} puts the file in
+     * place, and closing it without a commit discards what was written.
+     */
+    public final class OutputFile implements Closeable {
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final OutputStream stream;
+        private boolean committed;
+
+        private OutputFile(Path target, Path temporary, FileChannel channel) {
+            this.target = target;
+            this.temporary = temporary;
+            this.channel = channel;
+            this.stream = Channels.newOutputStream(channel);
+        }
+
+        /**
+         * @return The stream that receives the file contents; closing it is not necessary
+         */
+        public OutputStream getStream() {
+            return stream;
+        }
+
+        /**
+         * Completes the file. Under GROUP_COMMIT it appears under its final name once its batch is durable;
+         * use {@link DurabilityPolicy#flush()} to wait for that.
+         *
+         * @throws IOException If the file cannot be forced or moved into place
+         */
+        public void commit() throws IOException {
+            if (committed) {
+                return;
+            }
+            committed = true;
+            if (temporary == null) {
+                channel.close();
+                return;
+            }
+            try {
+                if (sync == Sync.PER_FILE) {
+                    channel.force(true);
+                    countFileSync();
+                }
+                channel.close();
+                if (sync == Sync.GROUP_COMMIT) {
+                    enqueue(new Pending(temporary, target));
+                    return;
+                }
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (sync == Sync.PER_FILE) {
+                    syncDirectory(target.toAbsolutePath().getParent());
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+        }
+
+        /**
+         * Closes the file, discarding its contents unless it was committed.
+         *
+         * @throws IOException If the temporary file cannot be removed
+         */
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                committed = true;
+                channel.close();
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs a policy.
+     *
+     * @param sync             When written files are forced to the storage device
+     * @param batchSize        Under GROUP_COMMIT, the number of queued files that starts a batch at once
+     * @param batchDelayMillis Under GROUP_COMMIT, how long a batch waits for more files after its first
+     */
+    public DurabilityPolicy(Sync sync, int batchSize, long batchDelayMillis) {
+        if (batchSize < 1 || batchDelayMillis < 0) {
+            throw new IllegalArgumentException("Batch size must be positive and delay non-negative");
+        }
+        this.sync = sync;
+        this.batchSize = batchSize;
+        this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(batchDelayMillis);
+    }
+
+    /**
+     * Returns the policy shared by every configuration that uses the given mode with the default batching.
+     *
+     * @param sync When written files are forced to the storage device
+     * @return The shared policy
+     */
+    public static DurabilityPolicy of(Sync sync) {
+        return SHARED.get(sync);
+    }
+
+    /**
+     * @return When written files are forced to the storage device
+     */
+    public Sync getSync() {
+        return sync;
+    }
+
+    /**
+     * Starts writing a file. Nothing is visible at the destination until the file is committed.
+     *
+     * @param target The destination of the file
+     * @return The file being written, to be committed and closed by the caller
+     * @throws IOException If the temporary file cannot be created
+     */
+    public OutputFile create(Path target) throws IOException {
+        if (Files.isSymbolicLink(target)) {
+            // Replace the file the link points to, not the link
+            target = target.toRealPath();
+        }
+        if (Files.exists(target) && !Files.isRegularFile(target)) {
+            FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE);
+            return new OutputFile(target, null, channel);
+        }
+        Path directory = target.toAbsolutePath().getParent();
+        while (true) {
+            Path temporary = directory.resolve("." + target.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+            try {
+                FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                return new OutputFile(target, temporary, channel);
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+
+    /**
+     * Waits until every file committed so far is durable and in place.
+     *
+     * @throws IOException If a file this thread queued could not be committed since its last flush;
+     *                     failures of files queued by other threads are left for them
+     */
+    public synchronized void flush() throws IOException {
+        flushWaiters++;
+        notifyAll();
+        try {
+            while (!pending.isEmpty() || committing) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a group commit");
+        } finally {
+            flushWaiters--;
+        }
+        IOException e = failures.remove(Thread.currentThread());
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * Commits every queued file, as {@link #flush()} does. The policy remains usable afterwards.
+     *
+     * @throws IOException If a file this thread queued could not be committed since its last flush
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * @return The number of times a file was forced to the storage device
+     */
+    public synchronized long getFileSyncs() {
+        return fileSyncs;
+    }
+
+    /**
+     * @return The number of times a directory was forced to the storage device
+     */
+    public synchronized long getDirectorySyncs() {
+        return directorySyncs;
+    }
+
+    private synchronized void countFileSync() {
+        fileSyncs++;
+    }
+
+    private synchronized void enqueue(Pending file) {
+        pending.add(file);
+        if (committer == null) {
+            // Not a daemon thread: the JVM waits for queued files before it exits
+            committer = new Thread(this::commitBatches, "group-commit");
+            committer.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Runs on the committer thread until the queue is empty.
+     */
+    private void commitBatches() {
+        while (true) {
+            List<Pending> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    committer = null;
+                    notifyAll();
+                    return;
+                }
+                long deadline = pending.get(0).queuedNanos + batchDelayNanos;
+                long remaining;
+                while (pending.size() < batchSize && flushWaiters == 0
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } catch (InterruptedException e) {
+                        // Commit what has been queued rather than leave it behind
+                        break;
+                    }
+                }
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                committing = true;
+            }
+            Map<Thread, IOException> errors = commit(batch);
+            synchronized (this) {
+                committing = false;
+                errors.forEach(failures::putIfAbsent);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Makes one batch durable and moves it into place. Files that fail are removed; the others still commit.
+     *
+     * @return The first failure of each thread whose files failed
+     */
+    private Map<Thread, IOException> commit(List<Pending> batch) {
+        Map<Thread, IOException> errors = new HashMap<>();
+        List<Pending> synced = new ArrayList<>(batch.size());
+        for (Pending file : batch) {
+            try (FileChannel channel = FileChannel.open(file.temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+                countFileSync();
+                synced.add(file);
+            } catch (IOException e) {
+                discard(file, e, errors);
+            }
+        }
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Pending file : synced) {
+            try {
+                Files.move(file.temporary, file.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                directories.add(file.target.toAbsolutePath().getParent());
+            } catch (IOException e) {
+                discard(file, e, errors);
+            }
+        }
+        for (Path directory : directories) {
+            syncDirectory(directory);
+        }
+        return errors;
+    }
+
+    private static void discard(Pending file, IOException e, Map<Thread, IOException> errors) {
+        try {
+            Files.deleteIfExists(file.temporary);
+        } catch (IOException cleanup) {
+            e.addSuppressed(cleanup);
+        }
+        IOException error = errors.get(file.owner);
+        if (error == null) {
+            errors.put(file.owner, new IOException("Could not commit " + file.target + ": " + e.getMessage(), e));
+        } else {
+            error.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Forces a directory, making the renames in it durable.
+     */
+    private void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+            synchronized (this) {
+                directorySyncs++;
+            }
+        } catch (IOException e) {
+            // Some platforms cannot open a directory for syncing; the rename itself is still atomic there
+        }
+    }
+}
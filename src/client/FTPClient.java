@@ -1,10 +1,30 @@
 package client;
 
+import util.FTPPathHandler;
+import util.TransformStage;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A simple FTP Client that interacts with the FTP Server used for CS5700.
@@ -13,6 +33,18 @@ import java.nio.file.Paths;
  */
 public class FTPClient {
 
+    /** The copy buffer size for plain connections */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The copy buffer size for TLS connections: one full TLS record per write (RFC 8446 section 5.1) */
+    private static final int TLS_BUFFER_SIZE = 16384;
+
+    /** With tail verification, how much of the end of the remote file is compared before appending */
+    private static final int TAIL_CHECK_SIZE = 64 * 1024;
+
+    /** Matches the "h1,h2,h3,h4,p1,p2" address in a PASV reply */
+    private static final Pattern PASSIVE_ADDRESS_PATTERN = Pattern.compile("\\d+,\\d+,\\d+,\\d+,\\d+,\\d+");
+
     private Socket controlSocket;
     private BufferedReader controlReader;
     private PrintWriter controlWriter;
@@ -20,8 +52,15 @@ public class FTPClient {
     private final int controlPort;
     private final String username;
     private final String password;
+    private final FTPClientConfig config;
     private StringBuffer responseBuffer;
 
+    /** Creates the TLS sockets of an FTPS session, or null for plain FTP */
+    private SSLSocketFactory tlsFactory;
+
+    /** The phase whose deadline currently applies to replies on the control connection */
+    private FTPClientConfig.Phase controlPhase = FTPClientConfig.Phase.COMMAND;
+
     /**
      * Constructs an FTPClient with the specified server details and credentials.
      *
@@ -31,40 +70,152 @@ public class FTPClient {
      * @param password The password for authentication
      */
     public FTPClient(String server, int port, String username, String password) {
+        this(server, port, username, password, new FTPClientConfig());
+    }
+
+    /**
+     * Constructs an FTPClient with the specified server details, credentials and settings.
+     *
+     * @param server   The hostname or IP address of the FTP server
+     * @param port     The port number on which the FTP server is listening
+     * @param username The username for authentication
+     * @param password The password for authentication
+     * @param config   The settings controlling how operations are performed
+     */
+    public FTPClient(String server, int port, String username, String password, FTPClientConfig config) {
         this.server = server;
         this.controlPort = port;
         this.username = username;
         this.password = password;
+        this.config = config;
     }
 
     /**
      * Establishes a connection to the FTP Server and sets up the connection.
      * This method performs the following steps:
      * 1. Opens a control socket connection
-     * 2. Logs in with the provided credentials
-     * 3. Sets up the connection parameters (binary mode, stream mode, file-oriented)
+     * 2. Upgrades the control connection to TLS with AUTH TLS, if FTPS is enabled
+     * 3. Logs in with the provided credentials and, with FTPS, protects the data connections (PBSZ 0, PROT P)
+     * 4. Sets up the connection parameters (binary mode, stream mode, file-oriented)
      *
      * @throws IOException If there's an error during connection or setup
      */
     public void connect() throws IOException {
-        controlSocket = new Socket(server, controlPort);
+        FTPEvents.Connect event = new FTPEvents.Connect(server, controlPort, config.isTls());
+        try {
+            openSession(event);
+        } finally {
+            event.finish();
+        }
+    }
+
+    /**
+     * Performs the steps of {@link #connect()}, marking the end of each phase on its event.
+     */
+    private void openSession(FTPEvents.Connect event) throws IOException {
+        controlSocket = new Socket();
+        try {
+            controlSocket.connect(new InetSocketAddress(server, controlPort),
+                    timeoutMillis(FTPClientConfig.Phase.CONNECT));
+        } catch (SocketTimeoutException e) {
+            controlSocket.close();
+            throw new FTPTimeoutException(FTPClientConfig.Phase.CONNECT,
+                    "Timed out connecting to " + server + ":" + controlPort, e);
+        }
+        setControlPhase(FTPClientConfig.Phase.LOGIN, 0);
         controlReader = new BufferedReader(new InputStreamReader(controlSocket.getInputStream()));
         controlWriter = new PrintWriter(controlSocket.getOutputStream(), true);
         this.responseBuffer = new StringBuffer();
 
         String response = readResponse();
         if (!response.startsWith("220 ")) {
-            throw new IOException("FTP server not ready. Response: " + response);
+            // Servers at their session limit greet with 421; keep the reply so callers can recognise it
+            throw new FTPReplyException("FTP server not ready. Response: " + response, response);
+        }
+        event.connected();
+
+        if (config.isTls()) {
+            secureControlConnection();
+            event.secured();
         }
 
         // Log in to the server
         login();
 
+        if (tlsFactory != null) {
+            // Protect the data connections too; PBSZ must precede PROT and is always 0 for TLS (RFC 4217 section 9)
+            expectReply(sendCommand("PBSZ 0"), "200", "PBSZ");
+            expectReply(sendCommand("PROT P"), "200", "PROT P");
+        }
+
         // Set up the connection parameters
-        sendCommand("TYPE I"); // Set to 8-bit binary data mode
+        if (config.isAsciiMode()) {
+            sendCommand("TYPE A"); // Set to ASCII mode; line endings are translated during transfers
+        } else {
+            sendCommand("TYPE I"); // Set to 8-bit binary data mode
+        }
         sendCommand("MODE S"); // Set to stream mode
         sendCommand("STRU F"); // Set to file-oriented mode
+        setControlPhase(FTPClientConfig.Phase.COMMAND, 0);
+        event.loggedIn();
+
+    }
+
+    /**
+     * Upgrades the control connection to TLS with AUTH TLS (RFC 4217 section 4).
+     * The TLS socket is created for the server's host and control port, which makes it the key under
+     * which the session is cached; the data connections are created under the same key so that their
+     * handshakes resume this session instead of repeating the full key exchange.
+     *
+     * @throws IOException If the server refuses AUTH TLS or the handshake fails
+     */
+    private void secureControlConnection() throws IOException {
+        expectReply(sendCommand("AUTH TLS"), "234", "AUTH TLS");
+        SSLContext context = config.getSslContext();
+        try {
+            tlsFactory = (context != null ? context : SSLContext.getDefault()).getSocketFactory();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("TLS is not available: " + e.getMessage(), e);
+        }
+        SSLSocket secured = wrapInTls(controlSocket);
+        try {
+            secured.startHandshake();
+        } catch (SocketTimeoutException e) {
+            secured.close();
+            throw new FTPTimeoutException(controlPhase, "Timed out during the TLS handshake", e);
+        }
+        controlSocket = secured;
+        controlReader = new BufferedReader(new InputStreamReader(controlSocket.getInputStream()));
+        controlWriter = new PrintWriter(controlSocket.getOutputStream(), true);
+    }
 
+    /**
+     * Wraps a connected socket in a client-mode TLS socket that verifies the server's host name.
+     * Every socket of the session is created for the control connection's host and port, which is the
+     * key the TLS session is cached under.
+     *
+     * @param socket The connected socket
+     * @return The TLS socket, whose handshake has not started yet
+     * @throws IOException If the socket cannot be wrapped
+     */
+    private SSLSocket wrapInTls(Socket socket) throws IOException {
+        SSLSocket secured = (SSLSocket) tlsFactory.createSocket(socket, server, controlPort, true);
+        secured.setUseClientMode(true);
+        SSLParameters parameters = secured.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        secured.setSSLParameters(parameters);
+        return secured;
+    }
+
+    /**
+     * Checks that a reply to a session setup command has the expected code.
+     *
+     * @throws FTPReplyException If it does not
+     */
+    private static void expectReply(String response, String code, String command) throws FTPReplyException {
+        if (!response.startsWith(code)) {
+            throw new FTPReplyException(command + " failed. Response: " + response, response);
+        }
     }
 
     /**
@@ -77,7 +228,7 @@ public class FTPClient {
         if (response.startsWith("331 ")) {
             response = sendCommand("PASS " + password);
         } else if (!response.startsWith("230 ")) {
-            throw new IOException("Login failed. Response: " + response);
+            throw new FTPReplyException("Login failed. Response: " + response, response);
         }
     }
 
@@ -89,22 +240,174 @@ public class FTPClient {
      * @throws IOException If there's an error in sending the command or reading the response
      */
     public String sendCommand(String command) throws IOException {
+        FTPEvents.Command event = new FTPEvents.Command();
+        event.begin();
         controlWriter.println(command);
-        return readResponse();
+        String response = readResponse();
+        event.finish(server, command, response);
+        return response;
     }
 
     /**
      * Reads a response from the FTP server.
      *
      * @return The response sent by the server
-     * @throws IOException If there's an error reading from the control connection
+     * @throws IOException If there's an error reading from the control connection or it was closed
      */
     String readResponse() throws IOException {
-        String response = controlReader.readLine();
+        String response;
+        try {
+            response = controlReader.readLine();
+        } catch (SocketTimeoutException e) {
+            throw new FTPTimeoutException(controlPhase, "No reply from the server within "
+                    + controlSocket.getSoTimeout() + " ms", e);
+        }
+        if (response == null) {
+            throw new EOFException("Control connection closed by the server");
+        }
         responseBuffer.append(response).append("\r\n");
         return response;
     }
 
+    /**
+     * Applies the deadline of a phase to the following replies on the control connection.
+     *
+     * @param phase     The phase the session is entering
+     * @param capMillis A shorter limit imposed by the total deadline of a transfer, or 0 for none
+     */
+    private void setControlPhase(FTPClientConfig.Phase phase, int capMillis) throws SocketException {
+        int timeout = timeoutMillis(phase);
+        if (capMillis > 0 && (timeout == 0 || capMillis < timeout)) {
+            phase = FTPClientConfig.Phase.TOTAL;
+            timeout = capMillis;
+        }
+        controlPhase = phase;
+        controlSocket.setSoTimeout(timeout);
+    }
+
+    private int timeoutMillis(FTPClientConfig.Phase phase) {
+        return (int) Math.min(Integer.MAX_VALUE, config.getTimeoutMillis(phase));
+    }
+
+    /**
+     * Opens a data connection, giving up after the command deadline.
+     * With FTPS the connection is wrapped in TLS under the control connection's session cache key, so the
+     * handshake resumes the control session. The handshake itself is left to {@link #secureDataConnection},
+     * since servers only start it once they have accepted the transfer command.
+     *
+     * @param host The host announced for the data connection
+     * @param port The port announced for the data connection
+     * @return The connected socket
+     * @throws IOException If the connection fails or times out
+     */
+    private Socket openDataSocket(String host, int port) throws IOException {
+        Socket socket = tlsFactory != null ? new SessionKeySocket(controlPort) : new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis(FTPClientConfig.Phase.COMMAND));
+            if (tlsFactory != null) {
+                return wrapInTls(socket);
+            }
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            if (e instanceof SocketTimeoutException) {
+                throw new FTPTimeoutException(FTPClientConfig.Phase.COMMAND,
+                        "Timed out opening the data connection to " + host + ":" + port, e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * A data connection that reports the control connection's port as its remote port.
+     * The JDK looks up TLS sessions to resume by the host and port of the underlying socket, and every
+     * passive data connection has a port of its own; reporting the control port makes the lookup find
+     * the control session, so the data connection resumes it with an abbreviated handshake.
+     * This is also what servers that require session reuse on data connections expect.
+     */
+    private static class SessionKeySocket extends Socket {
+        private final int sessionPort;
+
+        SessionKeySocket(int sessionPort) {
+            this.sessionPort = sessionPort;
+        }
+
+        @Override
+        public int getPort() {
+            return isConnected() ? sessionPort : super.getPort();
+        }
+    }
+
+    /**
+     * Completes the TLS handshake of a protected data connection after the server accepted the transfer.
+     * Doing it explicitly, rather than on the first read or write, also covers transfers that move no data.
+     *
+     * @param socket A data connection from {@link #openDataSocket}
+     * @throws IOException If the handshake fails
+     */
+    private static void secureDataConnection(Socket socket) throws IOException {
+        if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).startHandshake();
+        }
+    }
+
+    /**
+     * Ends the data sent on a protected connection with a TLS close_notify and reads until the server
+     * closes its side. The read consumes the session ticket the server issues after each handshake: the
+     * JDK uses a ticket only once, so without the replacement the next data connection could not resume.
+     * Servers that insist on a clean TLS shutdown of uploads also rely on the close_notify.
+     *
+     * @param socket A data connection from {@link #openDataSocket}
+     * @throws IOException If the connection fails
+     */
+    private static void finishDataOutput(Socket socket) throws IOException {
+        if (socket instanceof SSLSocket) {
+            socket.shutdownOutput();
+            InputStream input = socket.getInputStream();
+            while (input.read() != -1) {
+                // Nothing is expected on the data connection of an upload
+            }
+        }
+    }
+
+    /**
+     * @return The copy buffer size for this session's data connections
+     */
+    private int bufferSize() {
+        return tlsFactory != null ? TLS_BUFFER_SIZE : BUFFER_SIZE;
+    }
+
+    /**
+     * The part of a transfer that runs under a {@link TransferMonitor}.
+     */
+    private interface TransferWork {
+        void run(TransferMonitor monitor) throws IOException;
+    }
+
+    /**
+     * Runs a transfer under the first-byte, stall and total deadlines.
+     * If a deadline passes, the data connections are closed and an FTPTimeoutException is thrown.
+     *
+     * @param work        The transfer
+     * @param dataSockets The data connections the transfer uses
+     * @throws IOException If the transfer fails or misses a deadline
+     */
+    private void monitored(TransferWork work, Socket... dataSockets) throws IOException {
+        TransferMonitor monitor = new TransferMonitor(config, dataSockets);
+        try {
+            work.run(monitor);
+        } catch (IOException e) {
+            throw monitor.translate(e);
+        } finally {
+            monitor.close();
+            try {
+                setControlPhase(FTPClientConfig.Phase.COMMAND, 0);
+            } catch (SocketException e) {
+                // The control connection is already gone; the failure is reported above
+            }
+        }
+    }
+
     /**
      * Creates a new directory on the FTP server.
      *
@@ -114,7 +417,7 @@ public class FTPClient {
     public void createDirectory(String directory) throws IOException {
         String response = sendCommand("MKD " + directory);
         if (!response.startsWith("257 ")) {
-            throw new IOException("Failed to create directory. Response: " + response);
+            throw new FTPReplyException("Failed to create directory. Response: " + response, response);
         }
     }
 
@@ -127,8 +430,45 @@ public class FTPClient {
     public void deleteDirectory(String directory) throws IOException {
         String response = sendCommand("RMD " + directory);
         if (!response.startsWith("250 ")) {
-            throw new IOException("Failed to remove directory. Response: " + response);
+            throw new FTPReplyException("Failed to remove directory. Response: " + response, response);
+        }
+    }
+
+    /**
+     * Retrieves the size of a file on the FTP server.
+     *
+     * @param path The path of the file on the FTP server
+     * @return The size of the file in bytes, or -1 if the server does not support the SIZE command
+     * @throws IOException If the file does not exist or there's an error in communication
+     */
+    public long getFileSize(String path) throws IOException {
+        String response = sendCommand("SIZE " + path);
+        if (response.startsWith("213 ")) {
+            return Long.parseLong(response.substring(4).trim());
+        }
+        if (response.startsWith("500") || response.startsWith("502") || response.startsWith("504")) {
+            return -1;
+        }
+        throw new FTPReplyException("Failed to get file size. Response: " + response, response);
+    }
+
+    /**
+     * Retrieves the last modification time of a file on the FTP server (MDTM, RFC 3659 section 3).
+     *
+     * @param path The path of the file on the FTP server
+     * @return The time as the server reports it, "YYYYMMDDHHMMSS" in UTC with optional fractional seconds,
+     * or null if the server does not support the MDTM command
+     * @throws IOException If the file does not exist or there's an error in communication
+     */
+    public String getModificationTime(String path) throws IOException {
+        String response = sendCommand("MDTM " + path);
+        if (response.startsWith("213 ")) {
+            return response.substring(4).trim();
         }
+        if (response.startsWith("500") || response.startsWith("502") || response.startsWith("504")) {
+            return null;
+        }
+        throw new FTPReplyException("Failed to get modification time. Response: " + response, response);
     }
 
     /**
@@ -138,14 +478,39 @@ public class FTPClient {
      * @throws IOException If entering passive mode fails
      */
     private int getDataPort() throws IOException {
+        String[] address = enterPassiveMode().split(",");
+        return Integer.parseInt(address[4]) * 256 + Integer.parseInt(address[5]);
+    }
+
+    /**
+     * Puts the server into passive mode and returns the address it is listening on.
+     *
+     * @return The address in the "h1,h2,h3,h4,p1,p2" form used by the PORT command
+     * @throws IOException If entering passive mode fails
+     */
+    public String enterPassiveMode() throws IOException {
         String response = sendCommand("PASV");
         if (!response.startsWith("227 ")) {
-            throw new IOException("Failed to enter passive mode. Response: " + response);
+            throw new FTPReplyException("Failed to enter passive mode. Response: " + response, response);
         }
 
-        // Parse the port number from the server's response
-        String[] address = response.replaceAll("\\D+", " ").split("\\s+");
-        return Integer.parseInt(address[address.length - 2]) * 256 + Integer.parseInt(address[address.length - 1]);
+        // Parse the six comma separated numbers from the server's response
+        Matcher matcher = PASSIVE_ADDRESS_PATTERN.matcher(response);
+        if (!matcher.find()) {
+            throw new IOException("Malformed passive mode response: " + response);
+        }
+        return matcher.group();
+    }
+
+    /**
+     * Tells the server to open its next data connection to the given address (active mode).
+     *
+     * @param address The address in the "h1,h2,h3,h4,p1,p2" form, usually taken from another server's PASV reply
+     * @return True if the server accepted the address, false if it refused it
+     * @throws IOException If there's an error communicating with the server
+     */
+    public boolean enterActiveMode(String address) throws IOException {
+        return sendCommand("PORT " + address).startsWith("200");
     }
 
     /**
@@ -155,65 +520,808 @@ public class FTPClient {
      * @throws IOException If there's an error during the listing process
      */
     public void listFiles(String path) throws IOException {
-        int dataPort = getDataPort();
+        FTPEvents.Transfer event = new FTPEvents.Transfer(server, "LIST " + path);
+        try {
+            int dataPort = getDataPort();
+            event.passive();
 
-        try (Socket dataSocket = new Socket(server, dataPort);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(dataSocket.getInputStream()))) {
-            String response = sendCommand("LIST " + path);
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
-                responseBuffer.append(line).append("\r\n");
-            }
-            // Read the closing response
-            readResponse();
+            Socket dataSocket = openDataSocket(server, dataPort);
+            event.connected();
+            monitored(monitor -> {
+                try (Socket socket = dataSocket;
+                     BufferedReader reader = new BufferedReader(new InputStreamReader(monitor.wrap(socket.getInputStream())))) {
+                    startTransfer("LIST " + path, monitor);
+                    secureDataConnection(socket);
+                    event.started();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        System.out.println(line);
+                        responseBuffer.append(line).append("\r\n");
+                    }
+                }
+                event.copied(monitor);
+                // Read the closing response
+                event.completed(completeTransfer(monitor));
+            }, dataSocket);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            event.finish();
         }
 
     }
 
+    /**
+     * Lists the entries of a directory on the FTP server.
+     *
+     * @param path The directory path to list
+     * @return The entries of the directory, excluding "." and ".."
+     * @throws IOException If the listing fails
+     */
+    public List<RemoteFile> listEntries(String path) throws IOException {
+        FTPEvents.Transfer event = new FTPEvents.Transfer(server, "LIST " + path);
+        try {
+            int dataPort = getDataPort();
+            event.passive();
+            List<RemoteFile> entries = new ArrayList<>();
+
+            Socket dataSocket = openDataSocket(server, dataPort);
+            event.connected();
+            monitored(monitor -> {
+                try (Socket socket = dataSocket;
+                     BufferedReader reader = new BufferedReader(new InputStreamReader(monitor.wrap(socket.getInputStream())))) {
+                    startTransfer("LIST " + path, monitor);
+                    secureDataConnection(socket);
+                    event.started();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        RemoteFile entry = RemoteFile.parse(line);
+                        if (entry != null) {
+                            entries.add(entry);
+                        }
+                    }
+                }
+                event.copied(monitor);
+                event.completed(completeTransfer(monitor));
+            }, dataSocket);
+            return entries;
+        } finally {
+            event.finish();
+        }
+    }
+
     /**
      * Copies a file between the local system and the FTP server.
+     * A local path of "-" streams the data from standard input (upload) or to standard output (download)
+     * instead of opening a file. Downloads are written through the configured {@link DurabilityPolicy},
+     * so a failed download leaves any existing local file untouched. The data passes through the
+     * configured transform stages, such as compression and encryption, on its way to or from the server.
+     * With a download cache configured, binary downloads without transform stages are served from the
+     * cache when the server reports the same size and modification time as a cached copy.
      *
      * @param remotePath The path of the file on the FTP server
-     * @param localPath  The path of the file on the local system
+     * @param localPath  The path of the file on the local system, or "-" for standard input/output
      * @param isDownload True if downloading from server to local, false if uploading
      * @throws IOException If there's an error during the file transfer
      */
     public void copyFile(String remotePath, String localPath, boolean isDownload) throws IOException {
+        List<TransformStage> transforms = config.getTransforms();
+        if (FTPPathHandler.isStdio(localPath)) {
+            if (isDownload) {
+                download(remotePath, System.out, transforms);
+            } else {
+                upload(remotePath, System.in, transforms);
+            }
+            return;
+        }
+
+        if (isDownload) {
+            DownloadCache cache = config.getCache();
+            // Decoded copies of encrypted files are kept out of the shared cache, and ASCII sizes vary by platform
+            if (cache != null && transforms.isEmpty() && !config.isAsciiMode()) {
+                downloadCached(cache, remotePath, Paths.get(localPath));
+                return;
+            }
+            try (DurabilityPolicy.OutputFile file = config.getDurability().create(Paths.get(localPath))) {
+                download(remotePath, file.getStream(), transforms);
+                file.commit();
+            }
+        } else {
+            try (InputStream input = new FileInputStream(localPath)) {
+                upload(remotePath, input, transforms);
+            }
+        }
+    }
+
+    /**
+     * Downloads a file through the cache: a cached copy of the file's current version is used if there
+     * is one, and otherwise the download is stored in the cache as it is written.
+     * Files whose size or modification time the server does not report are downloaded without the cache,
+     * since a changed file could not be told apart from the cached one.
+     */
+    private void downloadCached(DownloadCache cache, String remotePath, Path localPath) throws IOException {
+        long size = getFileSize(remotePath);
+        String modified = size < 0 ? null : getModificationTime(remotePath);
+        DurabilityPolicy durability = config.getDurability();
+        if (modified == null) {
+            try (DurabilityPolicy.OutputFile file = durability.create(localPath)) {
+                download(remotePath, file.getStream(), List.of());
+                file.commit();
+            }
+            return;
+        }
+        String key = DownloadCache.key(username, server, controlPort, remotePath, size, modified);
+        if (cache.fetch(key, size, localPath, durability)) {
+            return;
+        }
+        try (DurabilityPolicy.OutputFile file = durability.create(localPath);
+             DownloadCache.Fill fill = cache.fill(key, size)) {
+            download(remotePath, fill.tee(file.getStream()), List.of());
+            file.commit();
+            // A file rewritten during the transfer may hold a mix of versions; keep it out of the cache
+            if (modified.equals(getModificationTime(remotePath))) {
+                fill.commit();
+            }
+        }
+    }
+
+    /**
+     * Downloads a file from the FTP server into the given stream.
+     * The data is copied through a fixed-size buffer, so the whole file is never held in memory.
+     * The stream is flushed but not closed.
+     *
+     * @param remotePath The path of the file on the FTP server
+     * @param output     The stream that receives the file contents
+     * @throws IOException If there's an error during the file transfer
+     */
+    public void download(String remotePath, OutputStream output) throws IOException {
+        download(remotePath, output, List.of());
+    }
+
+    /**
+     * Downloads a file into the given stream, undoing the given transform stages in reverse order as
+     * the data arrives. The stream is flushed but not closed.
+     *
+     * @param remotePath The path of the file on the FTP server
+     * @param output     The stream that receives the decoded file contents
+     * @param transforms The stages the file was written with, in the order they were applied
+     * @throws IOException If there's an error during the file transfer or the data cannot be decoded
+     */
+    public void download(String remotePath, OutputStream output, List<TransformStage> transforms) throws IOException {
+        FTPEvents.Transfer event = new FTPEvents.Transfer(server, "RETR " + remotePath);
+        try {
+            int dataPort = getDataPort();
+            event.passive();
+
+            Socket dataSocket = openDataSocket(server, dataPort);
+            event.connected();
+            monitored(monitor -> {
+                try (Socket socket = dataSocket) {
+                    startTransfer("RETR " + remotePath, monitor);
+                    secureDataConnection(socket);
+                    event.started();
+                    InputStream input = decoded(monitor.wrap(socket.getInputStream()), transforms);
+                    if (config.isAsciiMode()) {
+                        copyTranslated(input, output, CrlfTranslator.Direction.TO_LOCAL, bufferSize());
+                    } else {
+                        copyStream(input, output, bufferSize());
+                    }
+                    output.flush();
+                }
+                event.copied(monitor);
+                event.completed(completeTransfer(monitor));
+            }, dataSocket);
+        } finally {
+            event.finish();
+        }
+    }
+
+    /**
+     * Uploads the contents of the given stream to a file on the FTP server.
+     * The stream is read until end of input through a fixed-size buffer and is not closed.
+     * If atomic uploads are enabled, the file only appears under its final name once it is complete.
+     *
+     * @param remotePath The path of the file on the FTP server
+     * @param input      The stream providing the file contents
+     * @throws IOException If there's an error during the file transfer
+     */
+    public void upload(String remotePath, InputStream input) throws IOException {
+        upload(remotePath, input, List.of());
+    }
+
+    /**
+     * Uploads a file, applying the given transform stages in order as the data is sent.
+     */
+    private void upload(String remotePath, InputStream input, List<TransformStage> transforms) throws IOException {
+        if (config.isAtomicUploads()) {
+            uploadAtomically(remotePath, input, transforms);
+            return;
+        }
+        store("STOR", remotePath, input, transforms);
+    }
 
-        int dataPort = getDataPort();
-        String command = isDownload ? "RETR " : "STOR ";
+    /**
+     * Uploads to a temporary name in the destination directory and renames the file into place.
+     * Readers on the server either see the previous file or the complete new one, never a partial upload.
+     * The existing file is never deleted to make room: if the server refuses the rename, for example
+     * because it does not rename over existing files, the previous file stays in place and the complete
+     * upload is kept under its temporary name, which the error reports.
+     *
+     * @param remotePath The final path of the file on the FTP server
+     * @param input      The stream providing the file contents
+     * @param transforms The stages to apply to the data, in order
+     * @throws IOException If the upload or the rename fails; a failed upload's temporary file is removed
+     */
+    private void uploadAtomically(String remotePath, InputStream input, List<TransformStage> transforms)
+            throws IOException {
+        String temporaryPath = temporaryPathFor(remotePath);
+        try {
+            store("STOR", temporaryPath, input, transforms);
+        } catch (IOException e) {
+            try {
+                sendCommand("DELE " + temporaryPath);
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+        try {
+            renameFile(temporaryPath, remotePath);
+        } catch (FTPReplyException e) {
+            throw new FTPReplyException("Uploaded " + remotePath + " as " + temporaryPath
+                    + " but could not rename it into place; the upload was kept there. " + e.getMessage(), e.getReply());
+        } catch (IOException e) {
+            throw new IOException("Uploaded " + remotePath + " as " + temporaryPath
+                    + " but could not rename it into place: " + e.getMessage(), e);
+        }
+    }
 
-        try (Socket dataSocket = new Socket(server, dataPort);
-             InputStream input = isDownload ? dataSocket.getInputStream() : new FileInputStream(localPath);
-             OutputStream output = isDownload ? new FileOutputStream(localPath) : dataSocket.getOutputStream()) {
+    /**
+     * Builds a hidden, unique temporary name next to the given remote path.
+     *
+     * @param remotePath The final path of the file on the FTP server
+     * @return The temporary path in the same directory
+     */
+    private static String temporaryPathFor(String remotePath) {
+        int slash = remotePath.lastIndexOf('/');
+        String directory = remotePath.substring(0, slash + 1);
+        String name = remotePath.substring(slash + 1);
+        return directory + "." + name + ".part-" + Long.toHexString(System.nanoTime());
+    }
 
-            // Send the appropriate FTP command
-            String response = sendCommand(command + remotePath);
+    /**
+     * Brings a remote copy of a growing local file, such as a log, up to date by sending only the part
+     * the server does not have yet. The remote size (SIZE) is taken as the length of the part already
+     * uploaded, and the rest is sent with APPE, read from the local file starting at that offset, so the
+     * unchanged prefix is never read. A remote file that does not exist yet is created with the whole file.
+     * The transfer is always binary and the configured transform stages do not apply, since both would
+     * make the remote size differ from the local offset.
+     *
+     * @param remotePath The path of the file on the FTP server
+     * @param localPath  The path of the local file
+     * @param verifyTail Whether to download the last block of the remote file (REST and RETR) and check it
+     *                   against the same range of the local file before appending, which catches a local
+     *                   file that was rotated or rewritten and has since grown past the remote size
+     * @return The number of bytes sent
+     * @throws IOException If the remote file is larger than the local one or, with verifyTail, is not
+     *                     a prefix of it, or if the transfer fails
+     */
+    public long appendFile(String remotePath, String localPath, boolean verifyTail) throws IOException {
+        if (config.isAsciiMode()) {
+            throw new IOException("Appending needs binary mode: ASCII transfers change the file's size");
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(localPath), StandardOpenOption.READ)) {
+            long localSize = channel.size();
+            long remoteSize;
+            try {
+                remoteSize = getFileSize(remotePath);
+            } catch (FTPReplyException e) {
+                if (e.getReplyCode() != 550) {
+                    throw e;
+                }
+                remoteSize = 0; // No such file yet
+            }
+            if (remoteSize < 0) {
+                throw new IOException("The server does not support SIZE, so the part already uploaded is unknown");
+            }
+            if (remoteSize > localSize) {
+                throw new IOException("Remote file " + remotePath + " (" + remoteSize
+                        + " bytes) is larger than the local file (" + localSize + " bytes)");
+            }
+            if (verifyTail && remoteSize > 0) {
+                verifyTail(remotePath, channel, remoteSize);
+            }
+            if (remoteSize == localSize) {
+                return 0;
+            }
 
-            if (!response.startsWith("150") && !response.startsWith("125")) {
-                throw new IOException("Failed to initiate file transfer: " + response);
+            // Positional: reading starts at the remote size, and the prefix is never read
+            channel.position(remoteSize);
+            CountingInput input = new CountingInput(Channels.newInputStream(channel));
+            store(remoteSize > 0 ? "APPE" : "STOR", remotePath, input, List.of());
+            long expected = remoteSize + input.count;
+            long stored = getFileSize(remotePath);
+            if (stored != expected) {
+                throw new IOException("Remote file " + remotePath + " holds " + stored
+                        + " bytes after appending, expected " + expected + "; it changed during the upload");
             }
+            return input.count;
+        }
+    }
 
-            // Perform the file transfer
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = input.read(buffer)) != -1) {
-                output.write(buffer, 0, bytesRead);
+    /**
+     * Checks that the last block of the remote file matches the same range of the local file.
+     *
+     * @throws IOException If they differ, or the block cannot be downloaded
+     */
+    private void verifyTail(String remotePath, FileChannel local, long remoteSize) throws IOException {
+        int length = (int) Math.min(TAIL_CHECK_SIZE, remoteSize);
+        long offset = remoteSize - length;
+        byte[] remote = readRange(remotePath, offset, length);
+        if (remote.length != length) {
+            throw new IOException("Remote file " + remotePath + " changed size while its tail was checked");
+        }
+        // Positional reads leave the channel's position alone
+        ByteBuffer expected = ByteBuffer.allocate(length);
+        while (expected.hasRemaining()) {
+            if (local.read(expected, offset + expected.position()) < 0) {
+                throw new IOException("Local file shrank while its tail was checked");
             }
+        }
+        if (!Arrays.equals(remote, expected.array())) {
+            throw new IOException("Remote file " + remotePath + " is not a prefix of the local file; "
+                    + "its last " + length + " bytes differ");
+        }
+    }
 
-            output.flush();
-            if (isDownload) {
-                readResponse();
+    /**
+     * Downloads one range of a remote file, from an offset (REST, RFC 3659 section 5) to the file's end.
+     *
+     * @param remotePath The path of the file on the FTP server
+     * @param offset     Where the range starts
+     * @param length     The length of the range, which must reach the end of the file
+     * @return The bytes received; more or fewer than the length if the file has changed size
+     * @throws IOException If the server refuses REST or the transfer fails
+     */
+    private byte[] readRange(String remotePath, long offset, int length) throws IOException {
+        FTPEvents.Transfer event = new FTPEvents.Transfer(server, "RETR " + remotePath);
+        byte[][] range = new byte[1][];
+        try {
+            int dataPort = getDataPort();
+            event.passive();
+
+            Socket dataSocket = openDataSocket(server, dataPort);
+            event.connected();
+            monitored(monitor -> {
+                try (Socket socket = dataSocket) {
+                    expectReply(sendCommand("REST " + offset), "350", "REST");
+                    startTransfer("RETR " + remotePath, monitor);
+                    secureDataConnection(socket);
+                    event.started();
+                    // One byte more than expected tells a file that has grown apart from one that matches
+                    range[0] = monitor.wrap(socket.getInputStream()).readNBytes(length + 1);
+                }
+                event.copied(monitor);
+                if (range[0].length <= length) {
+                    event.completed(completeTransfer(monitor));
+                } else {
+                    completeTransferQuietly();
+                }
+            }, dataSocket);
+        } finally {
+            event.finish();
+        }
+        return range[0];
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static class CountingInput extends FilterInputStream {
+        long count;
+
+        CountingInput(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Stores the contents of the given stream under the given remote path.
+     *
+     * @param command    The transfer command: STOR to replace the file, APPE to add to its end
+     * @param remotePath The path of the file on the FTP server
+     * @param input      The stream providing the file contents
+     * @param transforms The stages to apply to the data, in order
+     * @throws IOException If there's an error during the file transfer
+     */
+    private void store(String command, String remotePath, InputStream input, List<TransformStage> transforms)
+            throws IOException {
+        FTPEvents.Transfer event = new FTPEvents.Transfer(server, command + " " + remotePath);
+        try {
+            int dataPort = getDataPort();
+            event.passive();
+
+            // The data socket must be closed before the server sends its closing response
+            Socket dataSocket = openDataSocket(server, dataPort);
+            event.connected();
+            monitored(monitor -> {
+                try (Socket socket = dataSocket) {
+                    startTransfer(command + " " + remotePath, monitor);
+                    secureDataConnection(socket);
+                    event.started();
+                    OutputStream output = monitor.wrap(socket.getOutputStream());
+                    OutputStream encoded = encoded(output, transforms);
+                    if (config.isAsciiMode()) {
+                        copyTranslated(input, encoded, CrlfTranslator.Direction.TO_NETWORK, bufferSize());
+                    } else {
+                        copyStream(input, encoded, bufferSize());
+                    }
+                    if (encoded != output) {
+                        // Writes the stages' remaining blocks and trailers; the data connection stays open
+                        encoded.close();
+                    }
+                    output.flush();
+                    finishDataOutput(socket);
+                }
+                event.copied(monitor);
+                event.completed(completeTransfer(monitor));
+            }, dataSocket);
+        } finally {
+            event.finish();
+        }
+    }
+
+    /**
+     * Wraps the data going to the server in the given stages, the first stage applied first.
+     * Closing the result finishes every stage but leaves the given stream open.
+     *
+     * @param output     The stream to the server
+     * @param transforms The stages in upload order
+     * @return The stream to write the original data to, or the given stream if there are no stages
+     * @throws IOException If a stage cannot start
+     */
+    private static OutputStream encoded(OutputStream output, List<TransformStage> transforms) throws IOException {
+        if (transforms.isEmpty()) {
+            return output;
+        }
+        OutputStream encoded = new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        for (int i = transforms.size() - 1; i >= 0; i--) {
+            encoded = transforms.get(i).encode(encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * Wraps the data coming from the server so that the given stages are undone, the last stage first.
+     *
+     * @param input      The stream from the server
+     * @param transforms The stages in upload order
+     * @return The stream of original data
+     * @throws IOException If a stage cannot start, for example because the data lacks its header
+     */
+    private static InputStream decoded(InputStream input, List<TransformStage> transforms) throws IOException {
+        for (int i = transforms.size() - 1; i >= 0; i--) {
+            input = transforms.get(i).decode(input);
+        }
+        return input;
+    }
+
+    /**
+     * Sends a transfer command and checks that the server opened the data connection.
+     *
+     * @param command The transfer command to send (e.g. RETR or STOR)
+     * @throws IOException If the server refuses to start the transfer
+     */
+    private void startTransfer(String command) throws IOException {
+        String response = sendCommand(command);
+        if (!response.startsWith("150") && !response.startsWith("125")) {
+            throw new FTPReplyException("Failed to initiate file transfer: " + response, response);
+        }
+    }
+
+    /**
+     * Sends a transfer command under the first-byte deadline of a monitored transfer.
+     */
+    private void startTransfer(String command, TransferMonitor monitor) throws IOException {
+        setControlPhase(FTPClientConfig.Phase.FIRST_BYTE, monitor.remainingTotalMillis());
+        startTransfer(command);
+    }
+
+    /**
+     * Reads the closing response of a monitored transfer, which must follow the data without stalling.
+     */
+    private String completeTransfer(TransferMonitor monitor) throws IOException {
+        setControlPhase(FTPClientConfig.Phase.STALL, monitor.remainingTotalMillis());
+        return completeTransfer();
+    }
+
+    /**
+     * Reads the closing response of a transfer and checks that it completed.
+     *
+     * @return The closing response
+     * @throws IOException If the server reports that the transfer failed
+     */
+    private String completeTransfer() throws IOException {
+        String response = readResponse();
+        if (!response.startsWith("2")) {
+            throw new FTPReplyException("File transfer failed: " + response, response);
+        }
+        return response;
+    }
+
+    /**
+     * Copies everything from the input stream to the output stream using a fixed-size buffer.
+     *
+     * @param input      The stream to read from
+     * @param output     The stream to write to
+     * @param bufferSize The size of the buffer
+     * @throws IOException If there's an error reading or writing
+     */
+    private static void copyStream(InputStream input, OutputStream output, int bufferSize) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        int bytesRead;
+        while ((bytesRead = input.read(buffer)) != -1) {
+            output.write(buffer, 0, bytesRead);
+        }
+    }
+
+    /**
+     * Copies everything from the input stream to the output stream, translating line endings on the way.
+     * Both buffers are allocated once per transfer.
+     *
+     * @param input     The stream to read from
+     * @param output    The stream to write to
+     * @param direction  Whether the data comes from the server or goes to it
+     * @param bufferSize The size of the input buffer
+     * @throws IOException If there's an error reading or writing
+     */
+    private static void copyTranslated(InputStream input, OutputStream output, CrlfTranslator.Direction direction,
+                                       int bufferSize) throws IOException {
+        CrlfTranslator translator = new CrlfTranslator(direction);
+        byte[] buffer = new byte[bufferSize];
+        byte[] translated = new byte[CrlfTranslator.maxOutputLength(buffer.length)];
+        int bytesRead;
+        while ((bytesRead = input.read(buffer)) != -1) {
+            output.write(translated, 0, translator.translate(buffer, 0, bytesRead, translated));
+        }
+        output.write(translated, 0, translator.finish(translated));
+    }
+
+    /**
+     * Renames (moves) a file or directory on the FTP server using RNFR/RNTO.
+     * No data is transferred, so this is the cheapest way to move a file within one server.
+     *
+     * @param fromPath The current path on the FTP server
+     * @param toPath   The new path on the FTP server
+     * @throws IOException If the server refuses the rename
+     */
+    public void renameFile(String fromPath, String toPath) throws IOException {
+        String response = sendCommand("RNFR " + fromPath);
+        if (!response.startsWith("350 ")) {
+            throw new FTPReplyException("Failed to rename file. Response: " + response, response);
+        }
+        response = sendCommand("RNTO " + toPath);
+        if (!response.startsWith("250 ")) {
+            throw new FTPReplyException("Failed to rename file. Response: " + response, response);
+        }
+    }
+
+    /**
+     * Moves a file from this server to another FTP server.
+     * This operation is a site-to-site copy followed by delete of the source file.
+     *
+     * @param remotePath The path of the file on this server
+     * @param target     A connected client for the destination server
+     * @param targetPath The path of the file on the destination server
+     * @throws IOException If there's an error during the move operation
+     */
+    public void moveToServer(String remotePath, FTPClient target, String targetPath) throws IOException {
+        copyToServer(remotePath, target, targetPath);
+        deleteFile(remotePath, true);
+    }
+
+    /**
+     * Copies a file from this server directly to another FTP server (FXP).
+     * This server sends from a passive data port and the target server connects to it in active mode,
+     * so the data never passes through the client.
+     * If either server refuses the site-to-site setup, the data is relayed through the client instead,
+     * streaming from one data connection to the other without a temporary file.
+     * Since the client cannot watch a direct transfer's progress, the stall deadline limits the wait for
+     * each server's closing reply; direct copies that take longer need a longer stall deadline.
+     *
+     * @param remotePath The path of the file on this server
+     * @param target     A connected client for the destination server
+     * @param targetPath The path of the file on the destination server
+     * @throws IOException If the transfer fails
+     */
+    public void copyToServer(String remotePath, FTPClient target, String targetPath) throws IOException {
+        // Fail early if the source file is missing, before the target starts waiting for data.
+        // Many servers refuse SIZE in ASCII mode; there a missing file is caught when RETR fails.
+        if (!config.isAsciiMode()) {
+            getFileSize(remotePath);
+        }
+
+        if (tlsFactory != null || target.tlsFactory != null) {
+            // A direct transfer between servers cannot be protected without the CPSV/SSCN extensions,
+            // and sending the data in the clear would defeat FTPS; relay it over TLS instead
+            relayToServer(remotePath, target, targetPath);
+            return;
+        }
+
+        String address = enterPassiveMode();
+        if (!target.enterActiveMode(address)) {
+            relayToServer(remotePath, target, targetPath);
+            return;
+        }
+
+        String response = target.sendCommand("STOR " + targetPath);
+        if (!response.startsWith("150") && !response.startsWith("125")) {
+            // The target could not reach our passive port (or refuses to store); relay instead
+            relayToServer(remotePath, target, targetPath);
+            return;
+        }
+
+        try {
+            setControlPhase(FTPClientConfig.Phase.FIRST_BYTE, 0);
+            startTransfer("RETR " + remotePath);
+        } catch (IOException e) {
+            // The target may already be connected to our passive port and waiting for data.
+            // A fresh PASV drops that listener, after which the target's STOR can be aborted.
+            try {
+                setControlPhase(FTPClientConfig.Phase.COMMAND, 0);
+                enterPassiveMode();
+                target.abortTransfer();
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
             }
+            throw e;
+        }
+        // The data flows between the servers, so there is no progress to watch: the stall deadline bounds
+        // each wait for a closing reply, capped by the total deadline
+        setControlPhase(FTPClientConfig.Phase.STALL, timeoutMillis(FTPClientConfig.Phase.TOTAL));
+        target.setControlPhase(FTPClientConfig.Phase.STALL, timeoutMillis(FTPClientConfig.Phase.TOTAL));
+        try {
+            boolean sourceCompleted = false;
+            try {
+                completeTransfer();
+                sourceCompleted = true;
+            } finally {
+                if (!sourceCompleted) {
+                    // The target still owes the reply to its STOR; without it, its next command would read
+                    // this reply instead of its own
+                    target.completeTransferOrClose();
+                }
+            }
+            target.completeTransfer();
+        } finally {
+            setControlPhase(FTPClientConfig.Phase.COMMAND, 0);
+            try {
+                target.setControlPhase(FTPClientConfig.Phase.COMMAND, 0);
+            } catch (SocketException e) {
+                // The target's session was closed above; the failure is reported already
+            }
+        }
+    }
+
+    /**
+     * Copies a file from this server to another FTP server by relaying it through the client.
+     * Both data connections are open at the same time and the data is streamed between them.
+     *
+     * @param remotePath The path of the file on this server
+     * @param target     A connected client for the destination server
+     * @param targetPath The path of the file on the destination server
+     * @throws IOException If the transfer fails
+     */
+    public void relayToServer(String remotePath, FTPClient target, String targetPath) throws IOException {
+        int sourcePort = getDataPort();
+        int targetPort = target.getDataPort();
+
+        Socket sourceSocket = openDataSocket(server, sourcePort);
+        Socket targetSocket;
+        try {
+            targetSocket = target.openDataSocket(target.server, targetPort);
+        } catch (IOException e) {
+            sourceSocket.close();
+            throw e;
+        }
+        monitored(monitor -> {
+            boolean storeRefused = false;
+            try (Socket source = sourceSocket; Socket destination = targetSocket) {
+                startTransfer("RETR " + remotePath, monitor);
+                try {
+                    target.startTransfer("STOR " + targetPath, monitor);
+                } catch (IOException e) {
+                    storeRefused = true;
+                    throw e;
+                }
+                secureDataConnection(source);
+                secureDataConnection(destination);
+                OutputStream output = destination.getOutputStream();
+                copyStream(monitor.wrap(source.getInputStream()), output, Math.max(bufferSize(), target.bufferSize()));
+                output.flush();
+                finishDataOutput(destination);
+            } catch (IOException e) {
+                if (storeRefused) {
+                    // Closing the data connections ends the source's RETR; read its closing reply
+                    completeTransferQuietly();
+                }
+                throw e;
+            }
+            completeTransfer(monitor);
+            target.completeTransfer(monitor);
+        }, sourceSocket, targetSocket);
+        target.setControlPhase(FTPClientConfig.Phase.COMMAND, 0);
+    }
+
+    /**
+     * Aborts the transfer in progress and consumes the server's replies.
+     *
+     * @throws IOException If there's an error communicating with the server
+     */
+    private void abortTransfer() throws IOException {
+        String response = sendCommand("ABOR");
+        // Servers answer 426 for the aborted transfer followed by 226 for the ABOR itself
+        if (response.startsWith("426")) {
+            readResponse();
+        }
+    }
+
+    /**
+     * Reads the closing response of a transfer that is being abandoned, ignoring its outcome.
+     */
+    private void completeTransferQuietly() {
+        try {
+            readResponse();
+        } catch (IOException e) {
+            // The transfer is already being reported as failed
+        }
+    }
+
+    /**
+     * Reads the closing response of a transfer that failed on the other server of a site-to-site copy,
+     * ignoring its outcome. If the response does not arrive, the control connection is out of step
+     * and is closed, so that a pool does not hand the session out again.
+     */
+    private void completeTransferOrClose() {
+        try {
+            readResponse();
+        } catch (IOException e) {
+            closeQuietly();
         }
     }
 
     /**
      * Moves a file between the local system and the FTP server.
      * This operation is a copy followed by delete of the source file.
+     * A downloaded file is durable under the configured sync mode before the remote copy is deleted.
      *
      * @param remotePath The path of the file on the FTP server
      * @param localPath  The path of the file on the local system
@@ -223,6 +1331,9 @@ public class FTPClient {
     public void moveFile(String remotePath, String localPath, boolean isDownload) throws IOException {
         copyFile(remotePath, localPath, isDownload);
         if (isDownload) {
+            if (config.getDurability().getSync() == DurabilityPolicy.Sync.GROUP_COMMIT) {
+                config.getDurability().flush();
+            }
             deleteFile(remotePath, true);
         } else {
             deleteFile(localPath, false);
@@ -239,6 +1350,9 @@ public class FTPClient {
     public void deleteFile(String filePath, boolean isRemote) throws IOException {
         if (isRemote) {
             String response = sendCommand("DELE " + filePath);
+            if (!response.startsWith("250")) {
+                throw new FTPReplyException("Failed to delete file. Response: " + response, response);
+            }
         } else {
             Path path = Paths.get(filePath);
             if (Files.exists(path)) {
@@ -249,11 +1363,41 @@ public class FTPClient {
         }
     }
 
+    /**
+     * Deletes several files on the FTP server, pipelining the DELE commands.
+     * Up to {@code window} commands are sent before their replies are read, which hides the
+     * round trip per file. Every reply is checked.
+     *
+     * @param paths  The paths of the files to delete
+     * @param window The maximum number of commands in flight at once
+     * @return The reply exceptions for the files that could not be deleted, empty if all succeeded
+     * @throws IOException If there's an error communicating with the server
+     */
+    public List<FTPReplyException> deleteFiles(List<String> paths, int window) throws IOException {
+        List<FTPReplyException> failures = new ArrayList<>();
+        for (int start = 0; start < paths.size(); start += window) {
+            int end = Math.min(paths.size(), start + window);
+            for (int i = start; i < end; i++) {
+                controlWriter.println("DELE " + paths.get(i));
+            }
+            for (int i = start; i < end; i++) {
+                String response = readResponse();
+                if (!response.startsWith("250")) {
+                    failures.add(new FTPReplyException("Failed to delete " + paths.get(i) + ". Response: " + response, response));
+                }
+            }
+        }
+        return failures;
+    }
+
     /**
      * Disconnects from the FTP server.
      * This method sends the QUIT command and closes all connections.
      */
     public void disconnect() {
+        if (controlWriter == null) {
+            return;
+        }
         try {
             sendCommand("QUIT");
         } catch (IOException e) {
@@ -295,4 +1439,11 @@ public class FTPClient {
     public String getResponseBuffer() {
         return responseBuffer.toString();
     }
+
+    /**
+     * Discards the accumulated response buffer, so that long-lived pooled sessions don't keep growing it.
+     */
+    public void clearResponseBuffer() {
+        responseBuffer.setLength(0);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,280 @@
+package client;
+
+import util.TransformStage;
+
+import javax.net.ssl.SSLContext;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Holds the optional settings that change how an FTPClient performs its operations.
+ * A single instance can be shared by every client created for the same job.
+ * The defaults reproduce the client's original behaviour, except that every phase of an operation
+ * has a deadline so that a hung server cannot block the client forever.
+ */
+public class FTPClientConfig {
+
+    /**
+     * The phases of an FTP operation that have their own deadline.
+     */
+    public enum Phase {
+        /** Opening the control connection */
+        CONNECT(30_000),
+        /** Waiting for each reply from the greeting through login and session setup */
+        LOGIN(30_000),
+        /** Waiting for the reply to a command outside a transfer, including PASV, and opening a data connection */
+        COMMAND(30_000),
+        /** From sending a transfer command until the first data byte moves */
+        FIRST_BYTE(60_000),
+        /** The longest time a running transfer may move no data, including the wait for its closing reply */
+        STALL(60_000),
+        /** A whole transfer, from sending its command to the closing reply; unlimited by default */
+        TOTAL(0);
+
+        private final long defaultMillis;
+
+        Phase(long defaultMillis) {
+            this.defaultMillis = defaultMillis;
+        }
+    }
+
+    /** The deadline of each phase in milliseconds; 0 means no limit */
+    private final Map<Phase, Long> timeouts = new EnumMap<>(Phase.class);
+
+    /** Transfers slower than this over the throughput window count as stalled; 0 disables the check */
+    private long minThroughputBytesPerSecond;
+
+    /** The period over which transfer throughput is averaged */
+    private long throughputWindowMillis = 10_000;
+
+    /** Whether uploads are stored under a temporary name and renamed into place */
+    private boolean atomicUploads;
+
+    /** Whether files are transferred in ASCII mode (TYPE A) instead of binary mode (TYPE I) */
+    private boolean asciiMode;
+
+    /** Whether the session is secured with explicit TLS (AUTH TLS, RFC 4217) */
+    private boolean tls;
+
+    /** The TLS context to use, or null for the JVM's default context */
+    private SSLContext sslContext;
+
+    /** The stages file contents pass through on their way to and from the server, in upload order */
+    private List<TransformStage> transforms = List.of();
+
+    /** How downloaded files are put in place and made durable */
+    private DurabilityPolicy durability = DurabilityPolicy.of(DurabilityPolicy.Sync.NONE);
+
+    /** The local cache in front of downloads, or null to always transfer */
+    private DownloadCache cache;
+
+    /**
+     * @return True if uploads are written to a temporary name and renamed into place once complete
+     */
+    public boolean isAtomicUploads() {
+        return atomicUploads;
+    }
+
+    /**
+     * Enables or disables atomic uploads.
+     * With atomic uploads, readers on the server never see a partially written file.
+     *
+     * @param atomicUploads True to upload to a temporary name and rename it into place
+     */
+    public void setAtomicUploads(boolean atomicUploads) {
+        this.atomicUploads = atomicUploads;
+    }
+
+    /**
+     * @return True if files are transferred as text, translating line endings
+     */
+    public boolean isAsciiMode() {
+        return asciiMode;
+    }
+
+    /**
+     * Enables or disables ASCII transfers.
+     * In ASCII mode the server sends and expects CRLF line endings, which the client translates
+     * to and from the local line separator while streaming.
+     *
+     * @param asciiMode True to transfer files as text
+     */
+    public void setAsciiMode(boolean asciiMode) {
+        this.asciiMode = asciiMode;
+    }
+
+    /**
+     * @return True if the control and data connections are protected with TLS
+     */
+    public boolean isTls() {
+        return tls;
+    }
+
+    /**
+     * Enables or disables explicit FTPS.
+     * The client upgrades the control connection with AUTH TLS before logging in and protects
+     * every data connection with PBSZ 0 and PROT P.
+     *
+     * @param tls True to secure the session with TLS
+     */
+    public void setTls(boolean tls) {
+        this.tls = tls;
+    }
+
+    /**
+     * @return The TLS context used for FTPS connections, or null for the JVM's default
+     */
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Sets the TLS context used for FTPS connections, e.g. one that trusts a private certificate authority.
+     * Data connections reuse the TLS session of the control connection through this context's session cache.
+     *
+     * @param sslContext The TLS context, or null for the JVM's default
+     */
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * @return The stages that copied files pass through, in the order they apply to uploads
+     */
+    public List<TransformStage> getTransforms() {
+        return transforms;
+    }
+
+    /**
+     * Sets the stages, such as compression and encryption, that file contents pass through when files are
+     * copied with {@code copyFile}. Uploads apply the stages in the given order before the data reaches the
+     * server, and downloads undo them in reverse order, so the server stores the encoded form.
+     *
+     * @param transforms The stages in upload order; empty to store files as they are
+     */
+    public void setTransforms(List<TransformStage> transforms) {
+        this.transforms = List.copyOf(transforms);
+    }
+
+    /**
+     * @return The policy that puts downloaded files in place and decides when they are forced to disk
+     */
+    public DurabilityPolicy getDurability() {
+        return durability;
+    }
+
+    /**
+     * Sets how downloaded files are put in place and made durable.
+     * Every policy writes to a temporary file and moves it over the destination once complete;
+     * the policy's sync mode decides whether and how often the data is forced to disk.
+     *
+     * @param durability The policy to use for local files
+     */
+    public void setDurability(DurabilityPolicy durability) {
+        this.durability = Objects.requireNonNull(durability);
+    }
+
+    /**
+     * @return The local cache in front of downloads, or null if there is none
+     */
+    public DownloadCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Puts a local cache in front of binary downloads made with {@code copyFile}, so a file that has not
+     * changed on the server since it was last downloaded is copied from disk instead of transferred.
+     *
+     * @param cache The cache to use, or null to always transfer
+     */
+    public void setCache(DownloadCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param phase The phase of an operation
+     * @return The deadline of the phase in milliseconds, or 0 if it is unlimited
+     */
+    public long getTimeoutMillis(Phase phase) {
+        return timeouts.getOrDefault(phase, phase.defaultMillis);
+    }
+
+    /**
+     * Sets the deadline of a phase.
+     *
+     * @param phase  The phase of an operation
+     * @param millis The deadline in milliseconds, or 0 for no limit
+     */
+    public void setTimeoutMillis(Phase phase, long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        timeouts.put(phase, millis);
+    }
+
+    /** @return The minimum throughput in bytes per second, or 0 if throughput is not checked */
+    public long getMinThroughputBytesPerSecond() {
+        return minThroughputBytesPerSecond;
+    }
+
+    /** @return The period over which throughput is averaged, in milliseconds */
+    public long getThroughputWindowMillis() {
+        return throughputWindowMillis;
+    }
+
+    /**
+     * Makes transfers fail as stalled when their average throughput over a window drops below a minimum.
+     * This catches servers that trickle data just fast enough to never trip the stall deadline.
+     *
+     * @param bytesPerSecond The minimum average throughput, or 0 to disable the check
+     * @param windowMillis   The period to average over; the check starts once a transfer has run this long
+     */
+    public void setMinThroughput(long bytesPerSecond, long windowMillis) {
+        if (bytesPerSecond < 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("Invalid minimum throughput");
+        }
+        this.minThroughputBytesPerSecond = bytesPerSecond;
+        this.throughputWindowMillis = windowMillis;
+    }
+
+    /**
+     * Two configs are equal when they would make clients behave the same way,
+     * which lets sessions created for one be reused for the other.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FTPClientConfig)) {
+            return false;
+        }
+        FTPClientConfig other = (FTPClientConfig) o;
+        if (atomicUploads != other.atomicUploads || asciiMode != other.asciiMode || tls != other.tls
+                || !Objects.equals(sslContext, other.sslContext) || durability != other.durability
+                || cache != other.cache
+                || !transforms.equals(other.transforms)
+                || minThroughputBytesPerSecond != other.minThroughputBytesPerSecond
+                || throughputWindowMillis != other.throughputWindowMillis) {
+            return false;
+        }
+        for (Phase phase : Phase.values()) {
+            if (getTimeoutMillis(phase) != other.getTimeoutMillis(phase)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Objects.hash(atomicUploads, asciiMode, tls, sslContext, durability, cache, transforms,
+                minThroughputBytesPerSecond, throughputWindowMillis);
+        for (Phase phase : Phase.values()) {
+            hash = 31 * hash + Long.hashCode(getTimeoutMillis(phase));
+        }
+        return hash;
+    }
+}
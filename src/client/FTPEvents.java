@@ -0,0 +1,285 @@
+package client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events emitted by {@link FTPClient}.
+ *
+ * A recording started with "jcmd &lt;pid&gt; JFR.start" (or -XX:StartFlightRecording) shows every
+ * connection, command and transfer with the time spent in each of its phases, so a slow job can be
+ * attributed to login, PASV, opening the data connection, the copy or waiting for the closing reply.
+ * While no recording is enabled, every method here returns after a single check that the JIT reduces to
+ * a constant, so no clock is read and nothing is recorded. The event objects are still allocated, one
+ * small object per connection, command or transfer.
+ */
+final class FTPEvents {
+
+    private FTPEvents() {
+    }
+
+    /**
+     * @param response A reply from the server, or null
+     * @return The reply's three-digit code, or 0 if there is none
+     */
+    static int replyCode(String response) {
+        if (response == null || response.length() < 3) {
+            return 0;
+        }
+        int code = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = response.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+
+    /**
+     * Keeps passwords out of recordings.
+     *
+     * @param command A command as sent to the server
+     * @return The command, with the argument of PASS replaced
+     */
+    static String redact(String command) {
+        return command.regionMatches(true, 0, "PASS ", 0, 5) ? "PASS ****" : command;
+    }
+
+    /**
+     * One command on the control connection, from sending it to reading its reply.
+     */
+    @Name("ftp.Command")
+    @Label("FTP Command")
+    @Category("FTP")
+    @Description("A command sent on an FTP control connection and the reply it received")
+    @StackTrace(false)
+    static final class Command extends Event {
+        @Label("Host")
+        String host;
+
+        @Label("Command")
+        String command;
+
+        @Label("Reply Code")
+        int replyCode;
+
+        /**
+         * Records the reply, if a recording wants this event.
+         *
+         * @param host     The server
+         * @param command  The command as sent
+         * @param response The reply
+         */
+        void finish(String host, String command, String response) {
+            if (shouldCommit()) {
+                this.host = host;
+                this.command = redact(command);
+                this.replyCode = replyCode(response);
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Opening a session: the control connection, the TLS upgrade and the login.
+     */
+    @Name("ftp.Connect")
+    @Label("FTP Connect")
+    @Category("FTP")
+    @Description("Opening an FTP session, split into its phases")
+    @StackTrace(false)
+    static final class Connect extends Event {
+        @Label("Host")
+        String host;
+
+        @Label("Port")
+        int port;
+
+        @Label("TLS")
+        boolean tls;
+
+        @Label("Connect")
+        @Description("Opening the control connection and reading the greeting")
+        @Timespan(Timespan.NANOSECONDS)
+        long connectDuration;
+
+        @Label("TLS Handshake")
+        @Description("AUTH TLS and the handshake on the control connection")
+        @Timespan(Timespan.NANOSECONDS)
+        long tlsDuration;
+
+        @Label("Login")
+        @Description("USER and PASS, then the session settings")
+        @Timespan(Timespan.NANOSECONDS)
+        long loginDuration;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        private transient long mark;
+
+        Connect(String host, int port, boolean tls) {
+            if (isEnabled()) {
+                this.host = host;
+                this.port = port;
+                this.tls = tls;
+                mark = System.nanoTime();
+                begin();
+            }
+        }
+
+        void connected() {
+            if (isEnabled()) {
+                connectDuration = lap();
+            }
+        }
+
+        void secured() {
+            if (isEnabled()) {
+                tlsDuration = lap();
+            }
+        }
+
+        void loggedIn() {
+            if (isEnabled()) {
+                loginDuration = lap();
+                succeeded = true;
+            }
+        }
+
+        /**
+         * Commits the event, whether or not the session was opened.
+         */
+        void finish() {
+            if (shouldCommit()) {
+                commit();
+            }
+        }
+
+        private long lap() {
+            long now = System.nanoTime();
+            long elapsed = now - mark;
+            mark = now;
+            return elapsed;
+        }
+    }
+
+    /**
+     * One transfer over a data connection, split into its phases.
+     */
+    @Name("ftp.Transfer")
+    @Label("FTP Transfer")
+    @Category("FTP")
+    @Description("A file transfer or listing over an FTP data connection, split into its phases")
+    @StackTrace(false)
+    static final class Transfer extends Event {
+        @Label("Host")
+        String host;
+
+        @Label("Command")
+        @Description("The transfer command, such as RETR, STOR or LIST, with its path")
+        String command;
+
+        @Label("Bytes")
+        @Description("Bytes moved over the data connection")
+        @DataAmount
+        long bytes;
+
+        @Label("Reply Code")
+        @Description("The closing reply, or 0 if the transfer did not get that far")
+        int replyCode;
+
+        @Label("Passive")
+        @Description("The PASV command and its reply")
+        @Timespan(Timespan.NANOSECONDS)
+        long passiveDuration;
+
+        @Label("Data Connect")
+        @Description("Opening the data connection")
+        @Timespan(Timespan.NANOSECONDS)
+        long dataConnectDuration;
+
+        @Label("Start")
+        @Description("Sending the transfer command until the server accepts it, including any TLS handshake")
+        @Timespan(Timespan.NANOSECONDS)
+        long startDuration;
+
+        @Label("Copy")
+        @Description("Moving the data")
+        @Timespan(Timespan.NANOSECONDS)
+        long copyDuration;
+
+        @Label("Completion")
+        @Description("Waiting for the closing reply after the data")
+        @Timespan(Timespan.NANOSECONDS)
+        long completionDuration;
+
+        private transient long mark;
+
+        Transfer(String host, String command) {
+            if (isEnabled()) {
+                this.host = host;
+                this.command = command;
+                mark = System.nanoTime();
+                begin();
+            }
+        }
+
+        void passive() {
+            if (isEnabled()) {
+                passiveDuration = lap();
+            }
+        }
+
+        void connected() {
+            if (isEnabled()) {
+                dataConnectDuration = lap();
+            }
+        }
+
+        void started() {
+            if (isEnabled()) {
+                startDuration = lap();
+            }
+        }
+
+        void copied(TransferMonitor monitor) {
+            if (isEnabled()) {
+                copyDuration = lap();
+                bytes = monitor.getBytes();
+            }
+        }
+
+        void completed(String response) {
+            if (isEnabled()) {
+                completionDuration = lap();
+                replyCode = replyCode(response);
+            }
+        }
+
+        /**
+         * Commits the event, whether or not the transfer completed. A transfer that failed has no
+         * reply code; the phases it did not reach are zero.
+         */
+        void finish() {
+            if (shouldCommit()) {
+                commit();
+            }
+        }
+
+        private long lap() {
+            long now = System.nanoTime();
+            long elapsed = now - mark;
+            mark = now;
+            return elapsed;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package client;
+
+import java.io.IOException;
+
+/**
+ * Signals that the FTP server answered a command with an unexpected reply.
+ * Unlike other IOExceptions, the control connection is still in a known state afterwards,
+ * so the session can keep being used.
+ */
+public class FTPReplyException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String reply;
+
+    /**
+     * Constructs an FTPReplyException.
+     *
+     * @param message The detail message
+     * @param reply   The reply line received from the server
+     */
+    public FTPReplyException(String message, String reply) {
+        super(message);
+        this.reply = reply;
+    }
+
+    /** @return The reply line received from the server */
+    public String getReply() {
+        return reply;
+    }
+
+    /**
+     * @return The three-digit reply code, or -1 if the reply did not start with one
+     */
+    public int getReplyCode() {
+        if (reply == null || reply.length() < 3) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(reply.substring(0, 3));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package client;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A pool of logged-in FTPClient sessions to a single server.
+ * Sessions are connected lazily, handed out to one caller at a time, and kept open for reuse
+ * so that batches of commands do not pay for a connect and login per command.
+ * At most {@code maxSessions} sessions exist at once; callers block until one is free.
+ */
+public class FTPSessionPool implements AutoCloseable {
+    private final String server;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final FTPClientConfig config;
+    private final int maxSessions;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<IdleSession> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed;
+
+    /** Sessions idle for longer than this are checked with NOOP before being handed out again */
+    private static final long VALIDATE_AFTER_NANOS = 5_000_000_000L;
+
+    /**
+     * Work done with a borrowed session.
+     */
+    public interface SessionWork {
+        void run(FTPClient client) throws IOException;
+    }
+
+    /**
+     * A session waiting in the pool and when it was returned.
+     */
+    private static class IdleSession {
+        final FTPClient client;
+        final long since = System.nanoTime();
+
+        IdleSession(FTPClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * Constructs a session pool for the specified server.
+     *
+     * @param server      The hostname or IP address of the FTP server
+     * @param port        The port number on which the FTP server is listening
+     * @param username    The username for authentication
+     * @param password    The password for authentication
+     * @param config      The settings used for every session
+     * @param maxSessions The maximum number of sessions open at the same time
+     */
+    public FTPSessionPool(String server, int port, String username, String password, FTPClientConfig config, int maxSessions) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("maxSessions must be at least 1");
+        }
+        this.server = server;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.config = config;
+        this.maxSessions = maxSessions;
+        this.permits = new Semaphore(maxSessions, true);
+    }
+
+    /** @return The settings used for every session */
+    public FTPClientConfig getConfig() {
+        return config;
+    }
+
+    /** @return The maximum number of sessions open at the same time */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /** @return The hostname or IP address of the FTP server */
+    public String getServer() {
+        return server;
+    }
+
+    /** @return The port number on which the FTP server is listening */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Takes a connected session from the pool, connecting a new one if no idle session is available.
+     * Blocks while all sessions are in use.
+     * The session must be handed back with {@link #release} or {@link #invalidate}.
+     *
+     * @return A connected, logged-in FTPClient for the caller's exclusive use
+     * @throws IOException          If a new session cannot be connected
+     * @throws InterruptedException If interrupted while waiting for a free session
+     */
+    public FTPClient borrow() throws IOException, InterruptedException {
+        if (closed) {
+            throw new IOException("Session pool is closed");
+        }
+        permits.acquire();
+        IdleSession session;
+        while ((session = idle.pollFirst()) != null) {
+            if (System.nanoTime() - session.since < VALIDATE_AFTER_NANOS || isAlive(session.client)) {
+                return session.client;
+            }
+            // The server has most likely timed the session out; drop it and try the next one
+            session.client.closeQuietly();
+        }
+        FTPClient client = null;
+        try {
+            client = new FTPClient(server, port, username, password, config);
+            client.connect();
+            return client;
+        } catch (IOException | RuntimeException e) {
+            if (client != null) {
+                client.closeQuietly();
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs work on a borrowed session and hands the session back afterwards.
+     * A session is kept for reuse after success or after the server refused a command;
+     * after any other failure its connection state is unknown, so it is discarded.
+     *
+     * @param work The work to run with the session
+     * @throws IOException          If the work fails or no session can be connected
+     * @throws InterruptedException If interrupted while waiting for a free session
+     */
+    public void withSession(SessionWork work) throws IOException, InterruptedException {
+        FTPClient client = borrow();
+        try {
+            work.run(client);
+        } catch (FTPReplyException e) {
+            release(client);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            invalidate(client);
+            throw e;
+        }
+        release(client);
+    }
+
+    /**
+     * Checks that an idle session is still logged in.
+     */
+    private static boolean isAlive(FTPClient client) {
+        try {
+            return client.sendCommand("NOOP").startsWith("200");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a healthy session to the pool for reuse.
+     *
+     * @param client The session obtained from {@link #borrow}
+     */
+    public void release(FTPClient client) {
+        if (closed) {
+            client.disconnect();
+        } else {
+            // Most recently used first, so idle sessions beyond the working set can time out on the server
+            client.clearResponseBuffer();
+            idle.offerFirst(new IdleSession(client));
+        }
+        permits.release();
+    }
+
+    /**
+     * Discards a session whose connection can no longer be trusted, freeing its slot for a new one.
+     *
+     * @param client The session obtained from {@link #borrow}
+     */
+    public void invalidate(FTPClient client) {
+        client.closeQuietly();
+        permits.release();
+    }
+
+    /**
+     * Disconnects every idle session. Sessions still borrowed are disconnected when they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        IdleSession session;
+        while ((session = idle.pollFirst()) != null) {
+            session.client.disconnect();
+        }
+    }
+}
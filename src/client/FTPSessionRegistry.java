@@ -0,0 +1,81 @@
+package client;
+
+import util.FTPPathHandler;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one FTPSessionPool per server, account and client configuration for the lifetime of a process.
+ * A long-running process such as the daemon uses it so that repeated commands against the same server
+ * reuse already logged-in sessions instead of connecting and logging in every time.
+ */
+public class FTPSessionRegistry implements AutoCloseable {
+    private final Map<Key, FTPSessionPool> pools = new ConcurrentHashMap<>();
+    private final int maxSessionsPerPool;
+
+    /**
+     * Identifies the sessions that can be shared: the parsed path's session key names the server and
+     * account, and the password and settings must match as well.
+     */
+    private static class Key {
+        final String sessionKey;
+        final String password;
+        final FTPClientConfig config;
+
+        Key(String sessionKey, String password, FTPClientConfig config) {
+            this.sessionKey = sessionKey;
+            this.password = password;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            // Session keys are usually interned, so equals() mostly ends at the identity check
+            return sessionKey.equals(other.sessionKey) && Objects.equals(password, other.password)
+                    && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sessionKey, config);
+        }
+    }
+
+    /**
+     * Constructs an empty registry.
+     *
+     * @param maxSessionsPerPool The maximum number of sessions kept open to each server and account
+     */
+    public FTPSessionRegistry(int maxSessionsPerPool) {
+        this.maxSessionsPerPool = maxSessionsPerPool;
+    }
+
+    /**
+     * Returns the pool for the server and account named in a parsed path and the given settings,
+     * creating it on first use.
+     *
+     * @param path   A parsed path naming the server and account
+     * @param config The settings used for every session
+     * @return The shared pool; callers must not close it
+     */
+    public FTPSessionPool poolFor(FTPPathHandler.ParsedPath path, FTPClientConfig config) {
+        return pools.computeIfAbsent(new Key(path.getSessionKey(), path.getPassword(), config),
+                key -> new FTPSessionPool(path.getHost(), path.getPort(), path.getUsername(), path.getPassword(),
+                        config, maxSessionsPerPool));
+    }
+
+    /**
+     * Closes every pool, disconnecting their idle sessions.
+     */
+    @Override
+    public void close() {
+        pools.values().forEach(FTPSessionPool::close);
+        pools.clear();
+    }
+}
@@ -0,0 +1,30 @@
+package client;
+
+import java.io.IOException;
+
+/**
+ * Signals that a phase of an FTP operation exceeded its deadline, or that a transfer stalled.
+ * The control connection is in an unknown state afterwards, so the session must not be reused.
+ */
+public class FTPTimeoutException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final FTPClientConfig.Phase phase;
+
+    /**
+     * Constructs an FTPTimeoutException.
+     *
+     * @param phase   The phase whose deadline passed
+     * @param message The detail message
+     * @param cause   The exception the timeout surfaced as, or null
+     */
+    public FTPTimeoutException(FTPClientConfig.Phase phase, String message, Throwable cause) {
+        super(message, cause);
+        this.phase = phase;
+    }
+
+    /** @return The phase whose deadline passed */
+    public FTPClientConfig.Phase getPhase() {
+        return phase;
+    }
+}
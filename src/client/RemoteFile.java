@@ -0,0 +1,67 @@
+package client;
+
+/**
+ * A single entry of a remote directory listing.
+ * Entries are parsed from the Unix "ls -l" style lines that most FTP servers send in reply to LIST.
+ */
+public class RemoteFile {
+    private final String name;
+    private final boolean directory;
+    private final long size;
+
+    /**
+     * Constructs a RemoteFile.
+     *
+     * @param name      The name of the entry, without its directory
+     * @param directory True if the entry is a directory
+     * @param size      The size of the entry in bytes
+     */
+    public RemoteFile(String name, boolean directory, long size) {
+        this.name = name;
+        this.directory = directory;
+        this.size = size;
+    }
+
+    /** @return The name of the entry, without its directory */
+    public String getName() { return name; }
+
+    /** @return True if the entry is a directory */
+    public boolean isDirectory() { return directory; }
+
+    /** @return The size of the entry in bytes */
+    public long getSize() { return size; }
+
+    /**
+     * Parses one line of a Unix-style LIST reply, for example
+     * {@code drwxr-xr-x    2 ftp      ftp          4096 Jan 01 00:00 reports}.
+     *
+     * @param line The listing line
+     * @return The parsed entry, or null for lines that are not entries ("total" lines, "." and "..")
+     */
+    public static RemoteFile parse(String line) {
+        // permissions, links, owner, group, size, month, day, time/year, name (which may contain spaces)
+        String[] fields = line.trim().split("\\s+", 9);
+        if (fields.length < 9 || fields[0].length() < 10) {
+            return null;
+        }
+        String name = fields[8];
+        char type = fields[0].charAt(0);
+        if (type == 'l') {
+            // Symbolic links are listed as "name -> target"; the link itself is what gets deleted
+            int arrow = name.indexOf(" -> ");
+            if (arrow >= 0) {
+                name = name.substring(0, arrow);
+            }
+        }
+        if (name.equals(".") || name.equals("..")) {
+            return null;
+        }
+        long size;
+        try {
+            size = Long.parseLong(fields[4]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new RemoteFile(name, type == 'd', size);
+    }
+}
@@ -0,0 +1,204 @@
+package client;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the data connections of one transfer and enforces the first-byte, stall and total deadlines
+ * as well as the minimum throughput. Progress is counted by the streams returned from {@link #wrap};
+ * a shared watchdog thread checks every transfer periodically and closes the sockets of one that has
+ * missed a deadline, which unblocks any read or write in progress. {@link #translate} then turns the
+ * resulting socket error into an {@link FTPTimeoutException} naming the phase.
+ */
+class TransferMonitor implements Closeable {
+    /** How often the watchdog checks each transfer */
+    private static final long TICK_MILLIS = 100;
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ftp-transfer-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Socket[] sockets;
+    private final long firstByteNanos;
+    private final long stallNanos;
+    private final long totalNanos;
+    private final long minBytesPerSecond;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long lastProgressNanos = startNanos;
+    private volatile long firstByteAt;
+
+    /** Byte counts sampled at each tick over the throughput window, oldest overwritten first */
+    private final long[] samples;
+    private int ticks;
+
+    private final ScheduledFuture<?> task;
+    private volatile FTPTimeoutException tripped;
+
+    /**
+     * Starts watching a transfer.
+     *
+     * @param config  The settings holding the deadlines
+     * @param sockets The data connections to close if a deadline passes
+     */
+    TransferMonitor(FTPClientConfig config, Socket... sockets) {
+        this.sockets = sockets;
+        this.firstByteNanos = TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMillis(FTPClientConfig.Phase.FIRST_BYTE));
+        this.stallNanos = TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMillis(FTPClientConfig.Phase.STALL));
+        this.totalNanos = TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMillis(FTPClientConfig.Phase.TOTAL));
+        this.minBytesPerSecond = config.getMinThroughputBytesPerSecond();
+        this.samples = new long[(int) Math.max(1, config.getThroughputWindowMillis() / TICK_MILLIS) + 1];
+
+        boolean limited = firstByteNanos > 0 || stallNanos > 0 || totalNanos > 0 || minBytesPerSecond > 0;
+        task = limited ? WATCHDOG.scheduleAtFixedRate(this::check, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS) : null;
+    }
+
+    /**
+     * Counts the data moved through a stream of one of the watched connections.
+     */
+    InputStream wrap(InputStream input) {
+        return new FilterInputStream(input) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    progress(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    progress(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Counts the data moved through a stream of one of the watched connections.
+     */
+    OutputStream wrap(OutputStream output) {
+        return new FilterOutputStream(output) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                progress(1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                out.write(buffer, offset, length);
+                progress(length);
+            }
+        };
+    }
+
+    private void progress(int count) {
+        long now = System.nanoTime();
+        if (firstByteAt == 0) {
+            firstByteAt = now;
+        }
+        lastProgressNanos = now;
+        bytes.addAndGet(count);
+    }
+
+    /**
+     * @return The number of bytes moved through the wrapped streams so far
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return The time left before the total deadline in milliseconds, or 0 if there is none
+     */
+    int remainingTotalMillis() {
+        if (totalNanos == 0) {
+            return 0;
+        }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(totalNanos - (System.nanoTime() - startNanos));
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining));
+    }
+
+    /**
+     * Runs on the watchdog thread and trips the first deadline that has passed.
+     */
+    private void check() {
+        long now = System.nanoTime();
+        long elapsed = now - startNanos;
+        if (totalNanos > 0 && elapsed > totalNanos) {
+            trip(FTPClientConfig.Phase.TOTAL, "Transfer exceeded its deadline of " + millis(totalNanos) + " ms");
+        } else if (firstByteAt == 0) {
+            if (firstByteNanos > 0 && elapsed > firstByteNanos) {
+                trip(FTPClientConfig.Phase.FIRST_BYTE, "No data within " + millis(firstByteNanos) + " ms");
+            }
+        } else if (stallNanos > 0 && now - lastProgressNanos > stallNanos) {
+            trip(FTPClientConfig.Phase.STALL, "Transfer moved no data for " + millis(stallNanos) + " ms");
+        } else if (minBytesPerSecond > 0) {
+            long total = bytes.get();
+            long oldest = samples[ticks % samples.length];
+            samples[ticks % samples.length] = total;
+            ticks++;
+            // Only judge throughput once a full window of samples has been taken
+            if (ticks > samples.length) {
+                long windowNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * samples.length);
+                long rate = (total - oldest) * 1_000_000_000L / windowNanos;
+                if (rate < minBytesPerSecond) {
+                    trip(FTPClientConfig.Phase.STALL, "Transfer throughput fell to " + rate + " bytes/s");
+                }
+            }
+        }
+    }
+
+    private void trip(FTPClientConfig.Phase phase, String message) {
+        if (tripped != null) {
+            return;
+        }
+        tripped = new FTPTimeoutException(phase, message, null);
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        task.cancel(false);
+    }
+
+    /**
+     * Explains a failure of the watched transfer.
+     *
+     * @param e The exception the transfer failed with
+     * @return An FTPTimeoutException if the watchdog closed the connections, otherwise the exception itself
+     */
+    IOException translate(IOException e) {
+        FTPTimeoutException timeout = tripped;
+        if (timeout == null) {
+            return e;
+        }
+        return new FTPTimeoutException(timeout.getPhase(), timeout.getMessage(), e);
+    }
+
+    /** Stops watching. */
+    @Override
+    public void close() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
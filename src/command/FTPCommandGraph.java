@@ -0,0 +1,66 @@
+package command;
+
+import java.util.*;
+
+/**
+ * A directed acyclic graph of FTP commands.
+ * Each command is added under a unique id together with the ids of the commands it depends on,
+ * for example the MKD of a directory before the STORs into it.
+ * Dependencies must be added before their dependents, which keeps the graph acyclic by construction.
+ */
+public class FTPCommandGraph {
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+    /**
+     * A single command in the graph along with its edges.
+     */
+    static class Node {
+        final String id;
+        final FTPCommand command;
+        final List<Node> dependencies;
+        final List<Node> dependents = new ArrayList<>();
+
+        Node(String id, FTPCommand command, List<Node> dependencies) {
+            this.id = id;
+            this.command = command;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * Adds a command to the graph.
+     *
+     * @param id           A unique id for the command, used to refer to it as a dependency and in the results
+     * @param command      The command to execute
+     * @param dependencies The ids of previously added commands that must succeed before this one runs
+     * @throws IllegalArgumentException If the id is already used or a dependency has not been added yet
+     */
+    public void addCommand(String id, FTPCommand command, String... dependencies) {
+        if (nodes.containsKey(id)) {
+            throw new IllegalArgumentException("Duplicate command id: " + id);
+        }
+        List<Node> parents = new ArrayList<>(dependencies.length);
+        for (String dependency : dependencies) {
+            Node parent = nodes.get(dependency);
+            if (parent == null) {
+                throw new IllegalArgumentException("Unknown dependency '" + dependency + "' for command " + id);
+            }
+            parents.add(parent);
+        }
+        Node node = new Node(id, command, parents);
+        for (Node parent : parents) {
+            parent.dependents.add(node);
+        }
+        nodes.put(id, node);
+    }
+
+    /** @return The number of commands in the graph */
+    public int size() {
+        return nodes.size();
+    }
+
+    /** @return The nodes of the graph in the order they were added */
+    Collection<Node> getNodes() {
+        return nodes.values();
+    }
+}
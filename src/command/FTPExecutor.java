@@ -1,15 +1,21 @@
 package command;
 
 import client.FTPClient;
+import client.FTPClientConfig;
+import client.FTPSessionPool;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 /**
  * The FTPExecutor class is responsible for executing FTP commands using an FTPClient.
  * It manages the connection lifecycle and provides methods to execute commands with and without log capture.
+ * An executor either owns a single client that is connected and disconnected around every command,
+ * or borrows already logged-in sessions from an {@link FTPSessionPool}.
  */
 public class FTPExecutor {
     private final FTPClient client;
+    private final FTPSessionPool pool;
 
     /**
      * Constructs an FTPExecutor with the specified server details and credentials.
@@ -20,7 +26,35 @@ public class FTPExecutor {
      * @param password The password for authentication
      */
     public FTPExecutor(String server, int port, String username, String password) {
-        this.client = new FTPClient(server, port, username, password);
+        this(new FTPClient(server, port, username, password), null);
+    }
+
+    /**
+     * Constructs an FTPExecutor with the specified server details, credentials and client settings.
+     *
+     * @param server   The hostname or IP address of the FTP server
+     * @param port     The port number on which the FTP server is listening
+     * @param username The username for authentication
+     * @param password The password for authentication
+     * @param config   The settings for the FTPClient
+     */
+    public FTPExecutor(String server, int port, String username, String password, FTPClientConfig config) {
+        this(new FTPClient(server, port, username, password, config), null);
+    }
+
+    /**
+     * Constructs an FTPExecutor that runs commands on sessions borrowed from a pool.
+     * Sessions stay logged in between commands instead of being disconnected.
+     *
+     * @param pool The pool of sessions to the FTP server
+     */
+    public FTPExecutor(FTPSessionPool pool) {
+        this(null, pool);
+    }
+
+    private FTPExecutor(FTPClient client, FTPSessionPool pool) {
+        this.client = client;
+        this.pool = pool;
     }
 
     /**
@@ -30,6 +64,10 @@ public class FTPExecutor {
      * @param command The FTPCommand to execute
      */
     public void executeCommand(FTPCommand command) {
+        if (pool != null) {
+            executePooled(command);
+            return;
+        }
         try {
             client.connect();
             command.execute(client);
@@ -40,6 +78,17 @@ public class FTPExecutor {
         }
     }
 
+    /**
+     * Executes an FTP command like {@link #executeCommand(FTPCommand)}, but lets failures propagate
+     * instead of printing them, for callers that report the outcome of each command themselves.
+     *
+     * @param command The FTPCommand to execute
+     * @throws IOException If the command fails; an interrupt is reported as an InterruptedIOException
+     */
+    public void executeChecked(FTPCommand command) throws IOException {
+        withClient(command::execute);
+    }
+
     /**
      * Executes an FTP command and captures the logs of the operation.
      * This method connects to the server, runs the command, disconnects, and then returns the log of the operation.
@@ -59,4 +108,74 @@ public class FTPExecutor {
         }
         return client.getResponseBuffer();
     }
+
+    /**
+     * Executes a command that spans two servers, with this executor's server as the source and
+     * the other executor's server as the target.
+     * Both servers are connected before the command runs and disconnected afterwards.
+     * Any IOException that occurs during the process is caught and printed to the error stream.
+     *
+     * @param target  The FTPExecutor for the destination server
+     * @param command The FTPPairCommand to execute
+     */
+    public void executeCommand(FTPExecutor target, FTPPairCommand command) {
+        if (pool != null || target.pool != null) {
+            try {
+                withClient(source -> target.withClient(targetClient -> command.execute(source, targetClient)));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        try {
+            client.connect();
+            target.client.connect();
+            command.execute(client, target.client);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            target.client.disconnect();
+            client.disconnect();
+        }
+    }
+
+    /**
+     * Executes an FTP command on a pooled session.
+     * Any IOException that occurs during the process is caught and printed to the error stream.
+     *
+     * @param command The FTPCommand to execute
+     */
+    private void executePooled(FTPCommand command) {
+        try {
+            withClient(command::execute);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs work with a connected client: a pooled session if this executor has a pool,
+     * otherwise its own client, connected for the duration of the work.
+     * Failures propagate, so that nested calls hand back every session they borrowed correctly.
+     *
+     * @param work The work to run
+     * @throws IOException If the work fails; an interrupt is reported as an InterruptedIOException
+     */
+    private void withClient(FTPSessionPool.SessionWork work) throws IOException {
+        if (pool == null) {
+            try {
+                client.connect();
+                work.run(client);
+            } finally {
+                client.disconnect();
+            }
+            return;
+        }
+        try {
+            pool.withSession(work);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a session");
+        }
+    }
 }
@@ -0,0 +1,174 @@
+package command;
+
+import client.FTPSessionPool;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The FTPGraphExecutor class runs an {@link FTPCommandGraph} over a pool of FTP sessions.
+ * A command starts as soon as all of its dependencies have succeeded, so independent branches
+ * run concurrently on different sessions. When a command fails, every command that depends on it,
+ * directly or transitively, is cancelled instead of being run.
+ */
+public class FTPGraphExecutor {
+    private final FTPSessionPool pool;
+
+    /**
+     * The outcome of a command in the graph.
+     */
+    public enum Status {
+        /** The command ran and completed without error */
+        SUCCEEDED,
+        /** The command ran and threw an exception, or no session could be opened for it */
+        FAILED,
+        /** The command never ran because one of its dependencies did not succeed */
+        CANCELLED
+    }
+
+    /**
+     * The result and timing of a single command in the graph.
+     */
+    public static class NodeResult {
+        private final Status status;
+        private final Exception error;
+        private final Duration startOffset;
+        private final Duration duration;
+
+        NodeResult(Status status, Exception error, Duration startOffset, Duration duration) {
+            this.status = status;
+            this.error = error;
+            this.startOffset = startOffset;
+            this.duration = duration;
+        }
+
+        /** @return The outcome of the command */
+        public Status getStatus() { return status; }
+
+        /** @return The exception that made the command fail, or null */
+        public Exception getError() { return error; }
+
+        /** @return When the command started, relative to the start of the graph (zero if it never ran) */
+        public Duration getStartOffset() { return startOffset; }
+
+        /** @return How long the command ran, including waiting for a session (zero if it never ran) */
+        public Duration getDuration() { return duration; }
+    }
+
+    /**
+     * Constructs an FTPGraphExecutor that runs commands on sessions from the given pool.
+     * Up to {@link FTPSessionPool#getMaxSessions()} commands run at the same time.
+     *
+     * @param pool The pool of sessions to the FTP server
+     */
+    public FTPGraphExecutor(FTPSessionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Executes every command in the graph, respecting dependencies, and waits for all of them to finish.
+     *
+     * @param graph The graph of commands to execute
+     * @return The result of every command, keyed by command id, in the order the commands were added
+     * @throws InterruptedException If interrupted while waiting; running commands are interrupted as well
+     */
+    public Map<String, NodeResult> execute(FTPCommandGraph graph) throws InterruptedException {
+        Run run = new Run(graph);
+        try {
+            for (FTPCommandGraph.Node node : graph.getNodes()) {
+                if (node.dependencies.isEmpty()) {
+                    run.submit(node);
+                }
+            }
+            run.done.await();
+        } finally {
+            run.workers.shutdownNow();
+        }
+
+        Map<String, NodeResult> ordered = new LinkedHashMap<>();
+        for (FTPCommandGraph.Node node : graph.getNodes()) {
+            ordered.put(node.id, run.results.get(node.id));
+        }
+        return ordered;
+    }
+
+    /**
+     * The state of one execution of a graph.
+     */
+    private class Run {
+        final ExecutorService workers = Executors.newFixedThreadPool(pool.getMaxSessions());
+        final Map<String, NodeResult> results = new ConcurrentHashMap<>();
+        final Map<FTPCommandGraph.Node, AtomicInteger> pendingDependencies = new HashMap<>();
+        final CountDownLatch done;
+        final long origin = System.nanoTime();
+
+        Run(FTPCommandGraph graph) {
+            for (FTPCommandGraph.Node node : graph.getNodes()) {
+                pendingDependencies.put(node, new AtomicInteger(node.dependencies.size()));
+            }
+            done = new CountDownLatch(graph.size());
+        }
+
+        void submit(FTPCommandGraph.Node node) {
+            workers.execute(() -> runNode(node));
+        }
+
+        /**
+         * Runs one command on a pooled session, records its result, and releases or cancels its dependents.
+         */
+        void runNode(FTPCommandGraph.Node node) {
+            long start = System.nanoTime();
+            Exception error = null;
+            try {
+                pool.withSession(node.command::execute);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = e;
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+            long end = System.nanoTime();
+
+            Status status = error == null ? Status.SUCCEEDED : Status.FAILED;
+            finish(node, new NodeResult(status, error, Duration.ofNanos(start - origin), Duration.ofNanos(end - start)));
+
+            for (FTPCommandGraph.Node dependent : node.dependents) {
+                if (status != Status.SUCCEEDED) {
+                    cancel(dependent);
+                } else if (pendingDependencies.get(dependent).decrementAndGet() == 0) {
+                    submit(dependent);
+                }
+            }
+        }
+
+        /**
+         * Cancels a command and everything that depends on it.
+         */
+        void cancel(FTPCommandGraph.Node node) {
+            Deque<FTPCommandGraph.Node> stack = new ArrayDeque<>();
+            stack.push(node);
+            while (!stack.isEmpty()) {
+                FTPCommandGraph.Node next = stack.pop();
+                if (finish(next, new NodeResult(Status.CANCELLED, null, Duration.ZERO, Duration.ZERO))) {
+                    next.dependents.forEach(stack::push);
+                }
+            }
+        }
+
+        /**
+         * Records the result of a command unless it already has one.
+         *
+         * @return True if this call recorded the result
+         */
+        boolean finish(FTPCommandGraph.Node node, NodeResult result) {
+            if (results.putIfAbsent(node.id, result) != null) {
+                return false;
+            }
+            done.countDown();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package command;
+
+import client.FTPClient;
+
+import java.io.IOException;
+
+/**
+ * The FTPPairCommand interface represents a command that works on two FTP servers at once,
+ * such as a site-to-site copy between a source and a destination server.
+ * It is the two-connection counterpart of {@link FTPCommand}.
+ */
+public interface FTPPairCommand {
+
+    /**
+     * Executes the command using the provided pair of FTPClients.
+     *
+     * @param source The FTPClient connected to the server the data comes from
+     * @param target The FTPClient connected to the server the data goes to
+     * @throws IOException If an I/O error occurs on either connection during the execution of the command.
+     */
+    void execute(FTPClient source, FTPClient target) throws IOException;
+}
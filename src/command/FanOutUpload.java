@@ -0,0 +1,378 @@
+package command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FanOutUpload class uploads one stream to several targets at once, reading the source only once.
+ * Each target runs its own STOR on its own session and thread, and all of them read the same buffers
+ * from a ring filled by the calling thread. A buffer is refilled once every target has sent it, so
+ * the slowest target sets the pace and memory stays at the size of the ring.
+ *
+ * With a maximum lag set, a target that still holds up the ring after that long is dropped: its upload
+ * fails, and the others carry on at their own pace. The outcome of every target is reported separately.
+ * A target that fails or is dropped leaves whatever its upload leaves on failure; with atomic uploads
+ * configured, that is the previous version of the file.
+ */
+public class FanOutUpload {
+    /** The size of each buffer in the ring */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** The number of buffers in the ring, which is how far the fastest target can run ahead of the slowest */
+    public static final int DEFAULT_BUFFERS = 64;
+
+    private final int bufferSize;
+    private final int buffers;
+    private final long maxLagNanos;
+
+    /**
+     * One destination of the upload.
+     */
+    public static class Target {
+        private final String name;
+        private final FTPExecutor executor;
+        private final String remotePath;
+
+        /**
+         * @param name       How the target is named in its result, such as its URL
+         * @param executor   The executor for the target's server
+         * @param remotePath The path to store the file under
+         */
+        public Target(String name, FTPExecutor executor, String remotePath) {
+            this.name = name;
+            this.executor = executor;
+            this.remotePath = remotePath;
+        }
+    }
+
+    /**
+     * How the upload to one target finished.
+     */
+    public static class Result {
+        private final String name;
+        private final long bytes;
+        private final Duration elapsed;
+        private final IOException error;
+        private final boolean dropped;
+
+        Result(String name, long bytes, Duration elapsed, IOException error, boolean dropped) {
+            this.name = name;
+            this.bytes = bytes;
+            this.elapsed = elapsed;
+            this.error = error;
+            this.dropped = dropped;
+        }
+
+        /** @return The target's name */
+        public String getName() { return name; }
+
+        /** @return The number of bytes sent to the target */
+        public long getBytes() { return bytes; }
+
+        /** @return The time from the start of the upload until the target finished or failed */
+        public Duration getElapsed() { return elapsed; }
+
+        /** @return The failure, or null if the upload succeeded */
+        public IOException getError() { return error; }
+
+        /** @return True if the target was dropped for lagging behind the others */
+        public boolean isDropped() { return dropped; }
+
+        /** @return True if the whole file reached the target */
+        public boolean isSucceeded() { return error == null; }
+
+        @Override
+        public String toString() {
+            String outcome = error == null ? "ok" : dropped ? "dropped" : "failed: " + error.getMessage();
+            return name + ": " + outcome + ", " + bytes + " bytes in " + elapsed.toMillis() + " ms";
+        }
+    }
+
+    /**
+     * Constructs a FanOutUpload with the default ring that never drops a target.
+     */
+    public FanOutUpload() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS, Duration.ZERO);
+    }
+
+    /**
+     * @param bufferSize The size of each buffer in the ring
+     * @param buffers    The number of buffers in the ring
+     * @param maxLag     How long a target may hold up the ring before it is dropped, or zero to always wait.
+     *                   A target is only dropped once it has started sending, so the time it takes to
+     *                   connect is left to the connection deadlines.
+     */
+    public FanOutUpload(int bufferSize, int buffers, Duration maxLag) {
+        if (bufferSize < 1 || buffers < 1 || maxLag.isNegative()) {
+            throw new IllegalArgumentException("Buffer size and count must be positive and the lag not negative");
+        }
+        this.bufferSize = bufferSize;
+        this.buffers = buffers;
+        this.maxLagNanos = maxLag.toNanos();
+    }
+
+    /**
+     * Uploads the source to every target. The source is read to its end unless every target fails first,
+     * and is not closed.
+     *
+     * @param source  The data to upload
+     * @param targets The destinations
+     * @return The result of each target, in the order of the targets
+     * @throws IOException          If the source cannot be read; every target then fails too
+     * @throws InterruptedException If interrupted while uploading; the targets are cancelled
+     */
+    public List<Result> upload(InputStream source, List<Target> targets) throws IOException, InterruptedException {
+        Ring ring = new Ring();
+        List<Ring.Reader> readers = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            readers.add(ring.new Reader());
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, targets.size()), runnable -> {
+            Thread thread = new Thread(runnable, "fan-out-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        try {
+            List<Future<Result>> results = new ArrayList<>();
+            for (int i = 0; i < targets.size(); i++) {
+                Target target = targets.get(i);
+                Ring.Reader reader = readers.get(i);
+                results.add(workers.submit(() -> send(target, reader, start)));
+            }
+            IOException sourceError = null;
+            try {
+                ring.fill(source);
+            } catch (IOException e) {
+                sourceError = e;
+                ring.end(new IOException("Reading the source failed: " + e.getMessage(), e));
+            }
+
+            List<Result> finished = new ArrayList<>();
+            for (Future<Result> result : results) {
+                try {
+                    finished.add(result.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Fan-out target failed unexpectedly", e.getCause());
+                }
+            }
+            if (sourceError != null) {
+                throw sourceError;
+            }
+            return finished;
+        } finally {
+            ring.end(new InterruptedIOException("Fan-out upload cancelled"));
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs one target's upload on its own thread.
+     */
+    private static Result send(Target target, Ring.Reader reader, long start) {
+        IOException error = null;
+        try {
+            target.executor.executeChecked(client -> client.upload(target.remotePath, reader));
+            if (!reader.reachedEnd) {
+                // The client stopped reading early; the target does not have the whole file
+                error = new IOException("Upload ended before the end of the source");
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            reader.retire();
+        }
+        return new Result(target.name, reader.bytes, Duration.ofNanos(System.nanoTime() - start), error,
+                reader.dropped);
+    }
+
+    /**
+     * The shared buffers. The producer fills them in sequence; each reader follows at its own pace and
+     * a buffer is reused once no active reader still needs it.
+     */
+    private final class Ring {
+        private final byte[][] slots = new byte[buffers][bufferSize];
+        private final int[] lengths = new int[buffers];
+        private final List<Reader> active = new ArrayList<>();
+        /** The number of buffers published so far */
+        private long published;
+        private boolean ended;
+        /** Why the stream ended early, or null if it ended with the source */
+        private IOException failure;
+
+        /**
+         * Reads the source into the ring until its end, or until no reader is left.
+         */
+        void fill(InputStream source) throws IOException {
+            while (true) {
+                int slot;
+                synchronized (this) {
+                    if (!awaitSlot()) {
+                        return;
+                    }
+                    slot = (int) (published % buffers);
+                }
+                // The slot is free: every reader still active has finished with its previous contents
+                byte[] buffer = slots[slot];
+                int length = 0;
+                int count;
+                while (length < bufferSize && (count = source.read(buffer, length, bufferSize - length)) != -1) {
+                    length += count;
+                }
+                synchronized (this) {
+                    if (length > 0) {
+                        lengths[slot] = length;
+                        published++;
+                    }
+                    if (length < bufferSize) {
+                        ended = true;
+                    }
+                    notifyAll();
+                    if (ended) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits until the next slot is free, dropping readers that hold it up past the maximum lag.
+         *
+         * @return False if no reader is left to send to
+         */
+        private boolean awaitSlot() throws InterruptedIOException {
+            long deadline = System.nanoTime() + maxLagNanos;
+            while (true) {
+                if (active.isEmpty()) {
+                    return false;
+                }
+                long oldest = published - buffers;
+                boolean blocked = false;
+                for (Reader reader : active) {
+                    blocked |= reader.position <= oldest;
+                }
+                if (!blocked) {
+                    return true;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (maxLagNanos > 0 && remaining <= 0) {
+                    for (Reader reader : new ArrayList<>(active)) {
+                        if (reader.started && reader.position <= oldest) {
+                            reader.dropped = true;
+                            active.remove(reader);
+                        }
+                    }
+                    notifyAll();
+                    deadline = System.nanoTime() + maxLagNanos;
+                    continue;
+                }
+                try {
+                    if (maxLagNanos > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } else {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a target");
+                }
+            }
+        }
+
+        synchronized void end(IOException cause) {
+            if (!ended) {
+                ended = true;
+                failure = cause;
+            }
+            notifyAll();
+        }
+
+        /**
+         * One target's view of the ring, read by its upload as an ordinary stream.
+         */
+        final class Reader extends InputStream {
+            /** The sequence number of the buffer being read */
+            private long position;
+            /** How much of that buffer has been read */
+            private int offset;
+            private long bytes;
+            private boolean started;
+            private volatile boolean dropped;
+            private volatile boolean reachedEnd;
+
+            Reader() {
+                active.add(this);
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                int slot;
+                int count;
+                synchronized (Ring.this) {
+                    started = true;
+                    while (position == published && !ended && !dropped) {
+                        try {
+                            Ring.this.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while waiting for the source");
+                        }
+                    }
+                    if (dropped) {
+                        throw new IOException("Dropped for lagging more than " + buffers
+                                + " buffers behind the other targets");
+                    }
+                    if (position == published) {
+                        if (failure != null) {
+                            throw failure;
+                        }
+                        reachedEnd = true;
+                        return -1;
+                    }
+                    slot = (int) (position % buffers);
+                    count = Math.min(len, lengths[slot] - offset);
+                }
+                // The producer does not reuse the slot until this reader moves past it
+                System.arraycopy(slots[slot], offset, b, off, count);
+                synchronized (Ring.this) {
+                    offset += count;
+                    bytes += count;
+                    if (offset == lengths[slot]) {
+                        offset = 0;
+                        position++;
+                        Ring.this.notifyAll();
+                    }
+                }
+                return count;
+            }
+
+            /**
+             * Stops the producer waiting for this reader, once its upload is over.
+             */
+            void retire() {
+                synchronized (Ring.this) {
+                    active.remove(this);
+                    Ring.this.notifyAll();
+                }
+            }
+        }
+    }
+}
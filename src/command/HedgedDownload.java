@@ -0,0 +1,268 @@
+package command;
+
+import client.DurabilityPolicy;
+import client.FTPClient;
+import client.FTPSessionPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * The HedgedDownload class cuts the tail latency of small downloads.
+ * A download that has not finished after the hedge delay is started a second time on another
+ * pooled session, and whichever copy completes first is kept; the other is cancelled by closing
+ * its session. A download that fails before the delay is retried on another session right away.
+ *
+ * The hedge delay adapts to the recent history: it is the 95th percentile of the last completed
+ * downloads, but never less than the configured minimum, so only genuinely slow downloads are hedged.
+ * Files larger than the size limit are never hedged, since a second copy would double a large transfer.
+ */
+public class HedgedDownload {
+    /** The number of recent download times the hedge delay is derived from */
+    private static final int HISTORY_SIZE = 64;
+
+    private final FTPSessionPool pool;
+    private final long minHedgeDelayNanos;
+    private final long maxHedgedBytes;
+    private final ExecutorService attempts = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "hedged-download");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long[] history = new long[HISTORY_SIZE];
+    private int completed;
+
+    /**
+     * How a hedged download finished.
+     */
+    public static class Outcome {
+        private final boolean hedged;
+        private final boolean hedgeWon;
+        private final Duration elapsed;
+
+        Outcome(boolean hedged, boolean hedgeWon, Duration elapsed) {
+            this.hedged = hedged;
+            this.hedgeWon = hedgeWon;
+            this.elapsed = elapsed;
+        }
+
+        /** @return True if a second copy was started */
+        public boolean isHedged() { return hedged; }
+
+        /** @return True if the second copy finished first */
+        public boolean isHedgeWon() { return hedgeWon; }
+
+        /** @return The time until the first copy completed */
+        public Duration getElapsed() { return elapsed; }
+    }
+
+    /**
+     * Constructs a HedgedDownload that runs its copies on sessions from the given pool.
+     * The pool should allow at least two sessions, or the second copy waits for the first.
+     *
+     * @param pool           The pool of sessions to the FTP server
+     * @param minHedgeDelay  The shortest time to wait before starting a second copy
+     * @param maxHedgedBytes The largest file that is hedged
+     */
+    public HedgedDownload(FTPSessionPool pool, Duration minHedgeDelay, long maxHedgedBytes) {
+        this.pool = pool;
+        this.minHedgeDelayNanos = minHedgeDelay.toNanos();
+        this.maxHedgedBytes = maxHedgedBytes;
+    }
+
+    /**
+     * Downloads a file, hedging it if it is slow.
+     * Each copy is written through the durability policy of the pool's configuration to its own temporary
+     * file next to the destination, and the winner is committed into place.
+     * The transform stages of the pool's configuration are undone as the data arrives.
+     *
+     * @param remotePath The path of the file on the FTP server
+     * @param localPath  The local destination, replaced if it exists
+     * @return How the download finished
+     * @throws IOException          If every copy failed; further failures are attached as suppressed exceptions
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public Outcome download(String remotePath, Path localPath) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        CompletionService<Attempt> finished = new ExecutorCompletionService<>(attempts);
+        Attempt primary = new Attempt(remotePath, localPath, false);
+        Attempt hedge = new Attempt(remotePath, localPath, true);
+        finished.submit(primary, primary);
+        boolean hedgeStarted = false;
+        IOException failure = null;
+        int running = 1;
+
+        try {
+            while (running > 0) {
+                Future<Attempt> done = hedgeStarted ? finished.take()
+                        : finished.poll(hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+                if (done == null || done.get().error != null) {
+                    if (done != null) {
+                        running--;
+                        failure = addFailure(failure, done.get().error);
+                    }
+                    if (!hedgeStarted) {
+                        // Slow or failed: start the second copy
+                        hedgeStarted = true;
+                        running++;
+                        finished.submit(hedge, hedge);
+                    }
+                    continue;
+                }
+
+                Attempt winner = done.get();
+                Attempt loser = winner == primary ? hedge : primary;
+                loser.cancel();
+                winner.commit();
+                long elapsed = System.nanoTime() - start;
+                record(elapsed);
+                return new Outcome(hedgeStarted, winner == hedge, Duration.ofNanos(elapsed));
+            }
+        } catch (ExecutionException e) {
+            // Attempts record their own errors, so this only happens on a bug
+            throw new IOException(e.getCause());
+        } finally {
+            primary.cancel();
+            hedge.cancel();
+        }
+        throw failure;
+    }
+
+    /**
+     * Stops the threads used for the copies. Sessions stay in the pool.
+     */
+    public void shutdown() {
+        attempts.shutdownNow();
+    }
+
+    private static IOException addFailure(IOException first, IOException next) {
+        if (first == null) {
+            return next;
+        }
+        first.addSuppressed(next);
+        return first;
+    }
+
+    /**
+     * @return The time to wait before hedging: the 95th percentile of recent downloads, at least the minimum
+     */
+    private synchronized long hedgeDelayNanos() {
+        int count = Math.min(completed, HISTORY_SIZE);
+        if (count < 10) {
+            return minHedgeDelayNanos;
+        }
+        long[] sorted = Arrays.copyOf(history, count);
+        Arrays.sort(sorted);
+        return Math.max(minHedgeDelayNanos, sorted[(int) Math.ceil(0.95 * count) - 1]);
+    }
+
+    private synchronized void record(long nanos) {
+        history[completed++ % HISTORY_SIZE] = nanos;
+    }
+
+    /**
+     * One copy of the download, running on its own pooled session.
+     */
+    private class Attempt implements Runnable {
+        final String remotePath;
+        final Path localPath;
+        final boolean isHedge;
+        volatile IOException error;
+        private FTPClient client;
+        /** The downloaded copy, waiting to be committed or discarded */
+        private DurabilityPolicy.OutputFile file;
+        private volatile boolean cancelled;
+
+        Attempt(String remotePath, Path localPath, boolean isHedge) {
+            this.remotePath = remotePath;
+            this.localPath = localPath;
+            this.isHedge = isHedge;
+        }
+
+        @Override
+        public void run() {
+            try {
+                pool.withSession(session -> {
+                    synchronized (this) {
+                        if (cancelled) {
+                            throw new InterruptedIOException("Cancelled");
+                        }
+                        client = session;
+                    }
+                    if (isHedge) {
+                        long size = session.getFileSize(remotePath);
+                        if (size < 0 || size > maxHedgedBytes) {
+                            throw new IOException("Not hedging " + remotePath + ": "
+                                    + (size < 0 ? "size unknown" : size + " bytes is too large"));
+                        }
+                    }
+                    DurabilityPolicy.OutputFile output = pool.getConfig().getDurability().create(localPath);
+                    synchronized (this) {
+                        file = output;
+                    }
+                    session.download(remotePath, output.getStream(), pool.getConfig().getTransforms());
+                    synchronized (this) {
+                        // From here on the session goes back to the pool and must not be closed
+                        client = null;
+                        if (cancelled) {
+                            throw new InterruptedIOException("Cancelled");
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                error = new InterruptedIOException("Interrupted");
+            }
+            if (error != null || cancelled) {
+                discard();
+            }
+        }
+
+        /**
+         * Puts this copy in place at the destination.
+         */
+        void commit() throws IOException {
+            DurabilityPolicy.OutputFile output;
+            synchronized (this) {
+                output = file;
+                file = null;
+            }
+            try (DurabilityPolicy.OutputFile committed = output) {
+                committed.commit();
+            }
+        }
+
+        /**
+         * Stops this copy by closing its session; the pool discards the session afterwards.
+         */
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                if (client != null) {
+                    client.closeQuietly();
+                }
+            }
+            discard();
+        }
+
+        private void discard() {
+            DurabilityPolicy.OutputFile output;
+            synchronized (this) {
+                output = file;
+                file = null;
+            }
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    // Best effort; the temporary file is hidden and has a unique name
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package command;
+
+import client.ConcurrencyController;
+import client.FTPReplyException;
+import client.FTPSessionPool;
+import client.RemoteFile;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The RecursiveDelete class removes a remote directory together with everything below it.
+ * The tree is walked one directory listing at a time, and the files found are deleted in
+ * pipelined batches of DELE commands spread over a pool of sessions while the walk continues.
+ * Each directory is removed with RMD as soon as its last child is gone, so directories are
+ * removed bottom-up without waiting for the whole tree to be listed first.
+ *
+ * With a {@link ConcurrencyController}, the number of sessions working at once follows the limit the
+ * controller learns for the server, and work whose session could not be opened because the server
+ * signalled overload is tried again instead of failing.
+ */
+public class RecursiveDelete {
+    /** The number of DELE commands sent on one session before reading their replies */
+    private static final int DELETE_BATCH_SIZE = 32;
+
+    /** How often work is tried again after the server refused a session for it */
+    private static final int MAX_RETRIES = 3;
+
+    private final FTPSessionPool pool;
+    private final ConcurrencyController controller;
+    private final String hostKey;
+
+    /**
+     * The counts and timing of a recursive delete.
+     */
+    public static class Report {
+        private final long filesDeleted;
+        private final long directoriesRemoved;
+        private final List<IOException> failures;
+        private final Duration elapsed;
+
+        Report(long filesDeleted, long directoriesRemoved, List<IOException> failures, Duration elapsed) {
+            this.filesDeleted = filesDeleted;
+            this.directoriesRemoved = directoriesRemoved;
+            this.failures = failures;
+            this.elapsed = elapsed;
+        }
+
+        /** @return The number of files deleted */
+        public long getFilesDeleted() { return filesDeleted; }
+
+        /** @return The number of directories removed, including the root if it was removed */
+        public long getDirectoriesRemoved() { return directoriesRemoved; }
+
+        /** @return The errors encountered; directories above a failure are left in place */
+        public List<IOException> getFailures() { return failures; }
+
+        /** @return The wall-clock time the delete took */
+        public Duration getElapsed() { return elapsed; }
+
+        /** @return Files and directories removed per second */
+        public double getEntriesPerSecond() {
+            double seconds = Math.max(elapsed.toNanos(), 1) / 1e9;
+            return (filesDeleted + directoriesRemoved) / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Deleted %d files and %d directories in %.2f s (%.1f entries/s), %d failures",
+                    filesDeleted, directoriesRemoved, elapsed.toNanos() / 1e9, getEntriesPerSecond(), failures.size());
+        }
+    }
+
+    /**
+     * Constructs a RecursiveDelete that works on sessions from the given pool.
+     *
+     * @param pool The pool of sessions to the FTP server
+     */
+    public RecursiveDelete(FTPSessionPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * Constructs a RecursiveDelete whose concurrency against the server is adapted by a controller.
+     * The pool's size is the upper bound; the controller decides how much of it is used.
+     *
+     * @param pool       The pool of sessions to the FTP server
+     * @param controller The controller learning the server's limit, or null to use every session
+     */
+    public RecursiveDelete(FTPSessionPool pool, ConcurrencyController controller) {
+        this.pool = pool;
+        this.controller = controller;
+        this.hostKey = pool.getServer() + ":" + pool.getPort();
+    }
+
+    /**
+     * Deletes a directory and all of its contents.
+     *
+     * @param directory The path of the directory on the FTP server
+     * @return The counts, failures and timing of the delete
+     * @throws InterruptedException If interrupted while waiting for the delete to finish
+     */
+    public Report delete(String directory) throws InterruptedException {
+        Run run = new Run();
+        long start = System.nanoTime();
+        try {
+            run.list(new DirectoryState(directory, null));
+            run.done.await();
+        } finally {
+            run.workers.shutdownNow();
+        }
+        return new Report(run.filesDeleted.get(), run.directoriesRemoved.get(),
+                new ArrayList<>(run.failures), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Tracks the children of a directory that still have to be removed.
+     * The count starts at one for the listing itself, so the directory cannot become empty
+     * before all of its entries are known.
+     */
+    private static class DirectoryState {
+        final String path;
+        final DirectoryState parent;
+        final AtomicInteger pendingChildren = new AtomicInteger(1);
+        volatile boolean failed;
+
+        DirectoryState(String path, DirectoryState parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+
+        String child(String name) {
+            return path.endsWith("/") ? path + name : path + "/" + name;
+        }
+    }
+
+    /**
+     * The state of one recursive delete.
+     */
+    private class Run {
+        final ExecutorService workers = Executors.newFixedThreadPool(pool.getMaxSessions());
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicLong filesDeleted = new AtomicLong();
+        final AtomicLong directoriesRemoved = new AtomicLong();
+        final List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * Lists a directory, schedules the deletion of its files and the listing of its subdirectories.
+         */
+        void list(DirectoryState directory) {
+            submit(client -> {
+                List<RemoteFile> entries = client.listEntries(directory.path);
+                List<String> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+                for (RemoteFile entry : entries) {
+                    directory.pendingChildren.incrementAndGet();
+                    if (entry.isDirectory()) {
+                        list(new DirectoryState(directory.child(entry.getName()), directory));
+                    } else {
+                        batch.add(directory.child(entry.getName()));
+                        if (batch.size() == DELETE_BATCH_SIZE) {
+                            deleteFiles(directory, batch);
+                            batch = new ArrayList<>(DELETE_BATCH_SIZE);
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    deleteFiles(directory, batch);
+                }
+            }, () -> childDone(directory, true), () -> childDone(directory, false));
+        }
+
+        /**
+         * Deletes a batch of files from one directory on a single session.
+         */
+        void deleteFiles(DirectoryState directory, List<String> paths) {
+            AtomicInteger failed = new AtomicInteger();
+            submit(client -> {
+                List<FTPReplyException> errors = client.deleteFiles(paths, DELETE_BATCH_SIZE);
+                filesDeleted.addAndGet(paths.size() - errors.size());
+                failures.addAll(errors);
+                failed.set(errors.size());
+            }, () -> {
+                for (int i = 0; i < paths.size(); i++) {
+                    childDone(directory, i >= failed.get());
+                }
+            }, () -> {
+                for (int i = 0; i < paths.size(); i++) {
+                    childDone(directory, false);
+                }
+            });
+        }
+
+        /**
+         * Records that one child of a directory is finished, removing the directory once it is empty.
+         *
+         * @param succeeded False if the child could not be removed, which keeps the directory in place
+         */
+        void childDone(DirectoryState directory, boolean succeeded) {
+            if (!succeeded) {
+                directory.failed = true;
+            }
+            if (directory.pendingChildren.decrementAndGet() != 0) {
+                return;
+            }
+            if (directory.failed) {
+                // The directory is not empty, so neither it nor its ancestors can be removed
+                parentDone(directory, false);
+                return;
+            }
+            submit(client -> {
+                client.deleteDirectory(directory.path);
+                directoriesRemoved.incrementAndGet();
+            }, () -> parentDone(directory, true), () -> parentDone(directory, false));
+        }
+
+        void parentDone(DirectoryState directory, boolean succeeded) {
+            if (directory.parent == null) {
+                done.countDown();
+            } else {
+                childDone(directory.parent, succeeded);
+            }
+        }
+
+        /**
+         * Runs a task on a pooled session, then runs exactly one of the two continuations.
+         */
+        void submit(FTPSessionPool.SessionWork task, Runnable onSuccess, Runnable onFailure) {
+            submit(task, onSuccess, onFailure, 0);
+        }
+
+        private void submit(FTPSessionPool.SessionWork task, Runnable onSuccess, Runnable onFailure, int retries) {
+            workers.execute(() -> {
+                boolean succeeded = false;
+                ConcurrencyController.Permit permit = null;
+                boolean[] started = new boolean[1];
+                try {
+                    permit = controller != null ? controller.acquire(hostKey) : null;
+                    pool.withSession(client -> {
+                        started[0] = true;
+                        task.run(client);
+                    });
+                    if (permit != null) {
+                        permit.succeeded(-1);
+                    }
+                    succeeded = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (IOException e) {
+                    if (permit != null) {
+                        permit.failed(e);
+                    }
+                    if (permit != null && !started[0] && ConcurrencyController.isOverload(e) && retries < MAX_RETRIES) {
+                        // The server refused another session; try again under the lowered limit
+                        submit(task, onSuccess, onFailure, retries + 1);
+                        return;
+                    }
+                    failures.add(e);
+                } catch (RuntimeException e) {
+                    if (permit != null) {
+                        permit.failed(new IOException(e));
+                    }
+                    failures.add(new IOException(e));
+                }
+                if (succeeded) {
+                    onSuccess.run();
+                } else {
+                    onFailure.run();
+                }
+            });
+        }
+    }
+}
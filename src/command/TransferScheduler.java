@@ -0,0 +1,503 @@
+package command;
+
+import client.ConcurrencyController;
+import client.FTPSessionPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The TransferScheduler class queues FTP commands in front of a session pool and decides which one
+ * runs next, so that a backlog of large transfers does not hold up small, latency-sensitive ones.
+ *
+ * Commands are queued by priority class and by size. A few sessions form a fast lane that only
+ * runs commands for files at or below the small-file threshold; the other sessions run whatever is
+ * most urgent. Urgency ages: a command competes as if it had been queued one aging interval later for
+ * every class it is below {@link Priority#HIGH}, so a low-priority command waits at most two aging
+ * intervals behind newer high-priority work instead of starving.
+ *
+ * One worker thread per session takes commands from the queues; queued commands are plain objects in
+ * FIFO queues, so hundreds of thousands of them cost memory but no threads. Choosing the next command
+ * only compares the heads of the queues.
+ *
+ * With a {@link ConcurrencyController}, the number of commands running against the server follows the
+ * limit the controller learns, and a command whose session could not even be opened because the server
+ * signalled overload is queued again at the front instead of failing.
+ */
+public class TransferScheduler implements AutoCloseable {
+    private final FTPSessionPool pool;
+    private final long smallFileThreshold;
+    private final long agingNanos;
+    private final ConcurrencyController controller;
+    private final String hostKey;
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled for idle regular workers, which take any command */
+    private final Condition anyWork = lock.newCondition();
+    /** Signalled for idle fast-lane workers, which only take small commands */
+    private final Condition smallWork = lock.newCondition();
+    private final Map<Priority, ArrayDeque<Job>> smallQueues = new EnumMap<>(Priority.class);
+    private final Map<Priority, ArrayDeque<Job>> largeQueues = new EnumMap<>(Priority.class);
+    private final Map<Priority, WaitStats> waits = new EnumMap<>(Priority.class);
+    private int idleRegularWorkers;
+    private int idleFastLaneWorkers;
+    private int running;
+    private long completed;
+    private long failed;
+    private boolean shuttingDown;
+
+    /**
+     * The priority classes, most urgent first.
+     */
+    public enum Priority {
+        /** Interactive work a user is waiting for */
+        HIGH,
+        /** Ordinary transfers */
+        NORMAL,
+        /** Bulk and background transfers */
+        LOW
+    }
+
+    /**
+     * A queued command.
+     */
+    private static class Job {
+        final FTPCommand command;
+        final Priority priority;
+        final long size;
+        final boolean small;
+        final long enqueuedNanos;
+        /** Lower runs first: the enqueue time pushed back by one aging interval per class below HIGH */
+        final long score;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        /** How often the command was queued again because the server refused a session for it */
+        int retries;
+
+        Job(FTPCommand command, Priority priority, long size, boolean small, long agingNanos) {
+            this.command = command;
+            this.priority = priority;
+            this.size = size;
+            this.small = small;
+            this.enqueuedNanos = System.nanoTime();
+            this.score = enqueuedNanos + priority.ordinal() * agingNanos;
+        }
+    }
+
+    /**
+     * Running totals of the time commands of one class waited before they started.
+     */
+    private static class WaitStats {
+        long started;
+        long totalNanos;
+        long maxNanos;
+    }
+
+    /**
+     * A snapshot of the scheduler's queues and of the time commands waited in them.
+     */
+    public static class Stats {
+        private final Map<Priority, Integer> queued;
+        private final Map<Priority, Duration> oldestWait;
+        private final Map<Priority, Duration> averageWait;
+        private final Map<Priority, Duration> maxWait;
+        private final int queuedSmall;
+        private final int running;
+        private final long completed;
+        private final long failed;
+
+        Stats(Map<Priority, Integer> queued, Map<Priority, Duration> oldestWait, Map<Priority, Duration> averageWait,
+              Map<Priority, Duration> maxWait, int queuedSmall, int running, long completed, long failed) {
+            this.queued = queued;
+            this.oldestWait = oldestWait;
+            this.averageWait = averageWait;
+            this.maxWait = maxWait;
+            this.queuedSmall = queuedSmall;
+            this.running = running;
+            this.completed = completed;
+            this.failed = failed;
+        }
+
+        /** @return The number of commands of the class waiting to run */
+        public int getQueued(Priority priority) { return queued.get(priority); }
+
+        /** @return The number of commands of every class waiting to run */
+        public int getQueued() { return queued.values().stream().mapToInt(Integer::intValue).sum(); }
+
+        /** @return The number of waiting commands eligible for the fast lane */
+        public int getQueuedSmall() { return queuedSmall; }
+
+        /** @return How long the oldest waiting command of the class has waited so far (zero if none) */
+        public Duration getOldestWait(Priority priority) { return oldestWait.get(priority); }
+
+        /** @return The average time started commands of the class waited in the queue */
+        public Duration getAverageWait(Priority priority) { return averageWait.get(priority); }
+
+        /** @return The longest time a started command of the class waited in the queue */
+        public Duration getMaxWait(Priority priority) { return maxWait.get(priority); }
+
+        /** @return The number of commands running right now */
+        public int getRunning() { return running; }
+
+        /** @return The number of commands that completed without error */
+        public long getCompleted() { return completed; }
+
+        /** @return The number of commands that failed */
+        public long getFailed() { return failed; }
+    }
+
+    /** How often a command is queued again after the server refused a session for it */
+    private static final int MAX_RETRIES = 3;
+
+    /**
+     * Constructs a scheduler and starts one worker per session of the pool.
+     *
+     * @param pool               The pool of sessions the commands run on
+     * @param fastLaneSessions   The number of sessions reserved for small files; must leave at least one other
+     * @param smallFileThreshold The largest size in bytes of a file eligible for the fast lane
+     * @param agingInterval      How much longer a command waits for each priority class it is below HIGH
+     */
+    public TransferScheduler(FTPSessionPool pool, int fastLaneSessions, long smallFileThreshold, Duration agingInterval) {
+        this(pool, fastLaneSessions, smallFileThreshold, agingInterval, null);
+    }
+
+    /**
+     * Constructs a scheduler whose concurrency against the server is adapted by a controller.
+     * The pool's size is the upper bound; the controller decides how much of it is used.
+     *
+     * @param pool               The pool of sessions the commands run on
+     * @param fastLaneSessions   The number of sessions reserved for small files; must leave at least one other
+     * @param smallFileThreshold The largest size in bytes of a file eligible for the fast lane
+     * @param agingInterval      How much longer a command waits for each priority class it is below HIGH
+     * @param controller         The controller learning the server's limit, or null to use every session
+     */
+    public TransferScheduler(FTPSessionPool pool, int fastLaneSessions, long smallFileThreshold, Duration agingInterval,
+                             ConcurrencyController controller) {
+        if (fastLaneSessions < 0 || fastLaneSessions >= pool.getMaxSessions()) {
+            throw new IllegalArgumentException("fastLaneSessions must leave at least one session for other transfers");
+        }
+        this.pool = pool;
+        this.smallFileThreshold = smallFileThreshold;
+        this.agingNanos = agingInterval.toNanos();
+        this.controller = controller;
+        this.hostKey = pool.getServer() + ":" + pool.getPort();
+        for (Priority priority : Priority.values()) {
+            smallQueues.put(priority, new ArrayDeque<>());
+            largeQueues.put(priority, new ArrayDeque<>());
+            waits.put(priority, new WaitStats());
+        }
+        for (int i = 0; i < pool.getMaxSessions(); i++) {
+            boolean fastLane = i < fastLaneSessions;
+            Thread worker = new Thread(() -> work(fastLane), fastLane ? "transfer-fast-lane" : "transfer-worker");
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a command.
+     *
+     * @param command  The command to run on a pooled session
+     * @param priority The priority class of the command
+     * @param size     The number of bytes the command transfers, or -1 if unknown; only known small sizes use the fast lane
+     * @return A future completed when the command has run, exceptionally if it failed.
+     *         Cancelling it before the command starts removes the command from the queue.
+     * @throws IllegalStateException If the scheduler is shutting down
+     */
+    public CompletableFuture<Void> submit(FTPCommand command, Priority priority, long size) {
+        boolean small = size >= 0 && size <= smallFileThreshold;
+        Job job = new Job(command, priority, size, small, agingNanos);
+        lock.lock();
+        try {
+            if (shuttingDown) {
+                throw new IllegalStateException("Scheduler is shut down");
+            }
+            (small ? smallQueues : largeQueues).get(priority).addLast(job);
+            wakeWorker(small);
+        } finally {
+            lock.unlock();
+        }
+        job.result.whenComplete((unused, error) -> {
+            if (job.result.isCancelled()) {
+                dequeue(job);
+            }
+        });
+        return job.result;
+    }
+
+    /**
+     * Removes a cancelled command from its queue, if no worker has taken it yet.
+     */
+    private void dequeue(Job job) {
+        lock.lock();
+        try {
+            (job.small ? smallQueues : largeQueues).get(job.priority).remove(job);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return A snapshot of the queue depths, wait times and counts
+     */
+    public Stats getStats() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            Map<Priority, Integer> queued = new EnumMap<>(Priority.class);
+            Map<Priority, Duration> oldestWait = new EnumMap<>(Priority.class);
+            Map<Priority, Duration> averageWait = new EnumMap<>(Priority.class);
+            Map<Priority, Duration> maxWait = new EnumMap<>(Priority.class);
+            int queuedSmall = 0;
+            for (Priority priority : Priority.values()) {
+                ArrayDeque<Job> small = smallQueues.get(priority);
+                ArrayDeque<Job> large = largeQueues.get(priority);
+                queued.put(priority, small.size() + large.size());
+                queuedSmall += small.size();
+                long oldest = Math.min(small.isEmpty() ? now : small.peekFirst().enqueuedNanos,
+                        large.isEmpty() ? now : large.peekFirst().enqueuedNanos);
+                oldestWait.put(priority, Duration.ofNanos(now - oldest));
+                WaitStats stats = waits.get(priority);
+                averageWait.put(priority, Duration.ofNanos(stats.started == 0 ? 0 : stats.totalNanos / stats.started));
+                maxWait.put(priority, Duration.ofNanos(stats.maxNanos));
+            }
+            return new Stats(queued, oldestWait, averageWait, maxWait, queuedSmall, running, completed, failed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the commands already queued, then stops the workers. Sessions stay in the pool.
+     * If interrupted while waiting, stops waiting and keeps the thread's interrupt status set;
+     * the workers still finish the queue in the background.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            shuttingDown = true;
+            anyWork.signalAll();
+            smallWork.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cancels every queued command and interrupts the running ones, then stops the workers.
+     */
+    public void shutdownNow() {
+        List<Job> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            shuttingDown = true;
+            for (Priority priority : Priority.values()) {
+                dropped.addAll(smallQueues.get(priority));
+                dropped.addAll(largeQueues.get(priority));
+                smallQueues.get(priority).clear();
+                largeQueues.get(priority).clear();
+            }
+            anyWork.signalAll();
+            smallWork.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Job job : dropped) {
+            job.result.cancel(false);
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * The loop of one worker: take the most urgent command this worker may run, and run it.
+     */
+    private void work(boolean fastLane) {
+        Job job;
+        while ((job = take(fastLane)) != null) {
+            Exception error = null;
+            ConcurrencyController.Permit permit = null;
+            boolean[] started = new boolean[1];
+            FTPCommand command = job.command;
+            try {
+                permit = controller != null ? controller.acquire(hostKey) : null;
+                pool.withSession(client -> {
+                    started[0] = true;
+                    command.execute(client);
+                });
+                if (permit != null) {
+                    permit.succeeded(job.size);
+                }
+            } catch (IOException e) {
+                if (permit != null) {
+                    permit.failed(e);
+                }
+                if (!started[0] && ConcurrencyController.isOverload(e) && requeue(job)) {
+                    continue;
+                }
+                error = e;
+            } catch (RuntimeException e) {
+                if (permit != null) {
+                    permit.failed(new IOException(e));
+                }
+                error = e;
+            } catch (InterruptedException e) {
+                // Only shutdownNow interrupts the workers
+                Thread.currentThread().interrupt();
+                error = new InterruptedIOException("Interrupted while waiting for a session");
+            }
+            // Count the command before completing it, so a caller woken by the future sees it in the statistics
+            finished(error == null);
+            if (error == null) {
+                job.result.complete(null);
+            } else {
+                job.result.completeExceptionally(error);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Puts a command that never started back at the front of its queue.
+     *
+     * @return False if the command was cancelled, has been retried too often, or the worker is being stopped
+     */
+    private boolean requeue(Job job) {
+        lock.lock();
+        try {
+            if (job.result.isCancelled() || ++job.retries > MAX_RETRIES || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            running--;
+            (job.small ? smallQueues : largeQueues).get(job.priority).addFirst(job);
+            wakeWorker(job.small);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a command this worker may run and removes it from its queue.
+     *
+     * @return The command, or null once the scheduler is shutting down and nothing is left for this worker
+     */
+    private Job take(boolean fastLane) {
+        lock.lock();
+        try {
+            while (true) {
+                Job job = pollMostUrgent(fastLane);
+                if (job != null) {
+                    if (job.result.isCancelled()) {
+                        continue;
+                    }
+                    long waited = System.nanoTime() - job.enqueuedNanos;
+                    WaitStats stats = waits.get(job.priority);
+                    stats.started++;
+                    stats.totalNanos += waited;
+                    stats.maxNanos = Math.max(stats.maxNanos, waited);
+                    running++;
+                    // A wakeup may have been consumed by a worker that was already awake; pass it on
+                    wakeWorker(hasQueued(smallQueues));
+                    return job;
+                }
+                if (shuttingDown) {
+                    return null;
+                }
+                if (fastLane) {
+                    idleFastLaneWorkers++;
+                    smallWork.awaitUninterruptibly();
+                    idleFastLaneWorkers--;
+                } else {
+                    idleRegularWorkers++;
+                    anyWork.awaitUninterruptibly();
+                    idleRegularWorkers--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes one idle worker able to run newly queued work, preferring the fast lane for small work
+     * so that regular workers stay free for the rest. Called with the lock held.
+     */
+    private void wakeWorker(boolean small) {
+        if (small && idleFastLaneWorkers > 0) {
+            smallWork.signal();
+        } else if (idleRegularWorkers > 0 && (small || hasQueued(largeQueues))) {
+            anyWork.signal();
+        }
+    }
+
+    private static boolean hasQueued(Map<Priority, ArrayDeque<Job>> queues) {
+        for (ArrayDeque<Job> queue : queues.values()) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the command with the lowest score among the heads of the queues this worker may take from.
+     * Each queue is FIFO and all of its commands share one priority, so its head has its lowest score.
+     */
+    private Job pollMostUrgent(boolean fastLane) {
+        ArrayDeque<Job> best = null;
+        for (Priority priority : Priority.values()) {
+            best = moreUrgent(best, smallQueues.get(priority));
+            if (!fastLane) {
+                best = moreUrgent(best, largeQueues.get(priority));
+            }
+        }
+        return best == null ? null : best.pollFirst();
+    }
+
+    private static ArrayDeque<Job> moreUrgent(ArrayDeque<Job> best, ArrayDeque<Job> candidate) {
+        if (candidate.isEmpty()) {
+            return best;
+        }
+        // Compare by difference, since System.nanoTime may be negative
+        if (best == null || candidate.peekFirst().score - best.peekFirst().score < 0) {
+            return candidate;
+        }
+        return best;
+    }
+
+    private void finished(boolean succeeded) {
+        lock.lock();
+        try {
+            running--;
+            if (succeeded) {
+                completed++;
+            } else {
+                failed++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package util;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Encrypts and authenticates with AES-GCM on several cores.
+ *
+ * A single GCM message cannot be decrypted before its tag at the very end is checked, so the data is
+ * split into chunks that are sealed separately, following the STREAM construction (Hoang, Reyhanitabar,
+ * Rogaway and Vizar, 2015). The stream starts with a magic number and a random 8-byte nonce prefix; each
+ * chunk's nonce is the prefix followed by the chunk's index, so chunks cannot be reordered, and each
+ * chunk's length word, which flags the final chunk, is authenticated with it, so the stream cannot be
+ * truncated or extended without the key. Chunks are sealed and opened on the worker threads.
+ *
+ * Layout: "FTG1", prefix (8 bytes), then per chunk: length word (4 bytes, big-endian, high bit set on
+ * the final chunk), ciphertext and 16-byte tag.
+ */
+public class AesGcmStage extends BlockTransformStage {
+    /** The default amount of plaintext per chunk */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final byte[] MAGIC = "FTG1".getBytes(StandardCharsets.US_ASCII);
+    private static final int PREFIX_SIZE = 8;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_SIZE = TAG_BITS / 8;
+    private static final int LAST = 0x80000000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKey key;
+
+    /**
+     * Constructs a stage with the default chunk size and one thread per core.
+     *
+     * @param key A 128-, 192- or 256-bit AES key
+     */
+    public AesGcmStage(SecretKey key) {
+        this(key, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param key       A 128-, 192- or 256-bit AES key
+     * @param chunkSize The amount of plaintext sealed into each chunk
+     * @param threads   The number of worker threads
+     */
+    public AesGcmStage(SecretKey key, int chunkSize, int threads) {
+        super(chunkSize, threads);
+        int length = key.getEncoded().length;
+        if (!"AES".equalsIgnoreCase(key.getAlgorithm()) || (length != 16 && length != 24 && length != 32)) {
+            throw new IllegalArgumentException("AES-GCM needs a 128-, 192- or 256-bit AES key");
+        }
+        this.key = key;
+    }
+
+    /**
+     * Builds an AES key from raw key bytes.
+     *
+     * @param bytes 16, 24 or 32 bytes
+     * @return The key
+     */
+    public static SecretKey key(byte[] bytes) {
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    @Override
+    protected BlockEncoder encoder(OutputStream output) throws IOException {
+        byte[] prefix = new byte[PREFIX_SIZE];
+        RANDOM.nextBytes(prefix);
+        output.write(MAGIC);
+        output.write(prefix);
+        return (data, length, index, last) -> {
+            byte[] frame = new byte[4 + length + TAG_SIZE];
+            int word = (length + TAG_SIZE) | (last ? LAST : 0);
+            writeInt(frame, 0, word);
+            try {
+                Cipher cipher = cipher(Cipher.ENCRYPT_MODE, prefix, index);
+                cipher.updateAAD(frame, 0, 4);
+                cipher.doFinal(data, 0, length, frame, 4);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("AES-GCM encryption failed: " + e.getMessage(), e);
+            }
+            return frame;
+        };
+    }
+
+    @Override
+    protected BlockDecoder decoder(InputStream input) throws IOException {
+        byte[] header = new byte[MAGIC.length + PREFIX_SIZE];
+        if (!readFully(input, header, 0, header.length)
+                || !Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IOException("Not an AES-GCM stream written by this client");
+        }
+        byte[] prefix = Arrays.copyOfRange(header, MAGIC.length, header.length);
+        return new BlockDecoder() {
+            @Override
+            public byte[] readFrame(InputStream in) throws IOException {
+                byte[] word = new byte[4];
+                if (!readFully(in, word, 0, 4)) {
+                    return null;
+                }
+                int length = readInt(word, 0) & ~LAST;
+                if (length < TAG_SIZE || length > MAX_BLOCK_SIZE + TAG_SIZE) {
+                    throw new IOException("Invalid AES-GCM chunk length: " + length);
+                }
+                byte[] frame = new byte[4 + length];
+                System.arraycopy(word, 0, frame, 0, 4);
+                if (!readFully(in, frame, 4, length)) {
+                    throw new IOException("Encrypted stream ends inside a chunk");
+                }
+                return frame;
+            }
+
+            @Override
+            public byte[] decode(byte[] frame, long index) throws IOException {
+                try {
+                    Cipher cipher = cipher(Cipher.DECRYPT_MODE, prefix, index);
+                    cipher.updateAAD(frame, 0, 4);
+                    return cipher.doFinal(frame, 4, frame.length - 4);
+                } catch (AEADBadTagException e) {
+                    throw new IOException("Encrypted chunk " + index
+                            + " fails authentication: wrong key or altered data");
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("AES-GCM decryption failed: " + e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public void finish(byte[] lastFrame) throws IOException {
+                // The flag is authenticated, so a stream that does not end on a flagged chunk was cut short
+                if (lastFrame == null || (readInt(lastFrame, 0) & LAST) == 0) {
+                    throw new IOException("Encrypted stream is truncated");
+                }
+            }
+        };
+    }
+
+    private Cipher cipher(int mode, byte[] prefix, long index) throws GeneralSecurityException, IOException {
+        if (index > 0xffffffffL) {
+            throw new IOException("Too many chunks for one AES-GCM stream");
+        }
+        byte[] nonce = Arrays.copyOf(prefix, PREFIX_SIZE + 4);
+        writeInt(nonce, PREFIX_SIZE, (int) index);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, nonce));
+        return cipher;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+}
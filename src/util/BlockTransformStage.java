@@ -0,0 +1,356 @@
+package util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transform stage that works on independent blocks, so that blocks can be encoded and decoded on
+ * several cores while the transfer streams.
+ *
+ * The encoding stream cuts the data into fixed-size blocks and hands each to a worker thread; finished
+ * frames are written in their original order. The decoding stream reads frames in order on the caller's
+ * thread, decodes them on the workers and returns their data in order. Both keep at most two blocks per
+ * worker in flight, so memory stays bounded however large the file, and a slow network or disk holds
+ * back the workers instead of queueing more data.
+ */
+public abstract class BlockTransformStage implements TransformStage {
+    /** The largest block a stage encodes or accepts when decoding, which bounds the memory a stream can claim */
+    protected static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Encodes the blocks of one stream. Called from several worker threads at once.
+     */
+    protected interface BlockEncoder {
+        /**
+         * @param data   The block's data; only the first length bytes are valid
+         * @param length The number of bytes in the block, which may be zero for the last block
+         * @param index  The block's position in the stream, starting at 0
+         * @param last   True for the final block of the stream
+         * @return The complete frame to write for the block
+         * @throws IOException If the block cannot be encoded
+         */
+        byte[] encode(byte[] data, int length, long index, boolean last) throws IOException;
+    }
+
+    /**
+     * Decodes the frames of one stream. {@link #readFrame} and {@link #finish} are called in order on the
+     * reading thread; {@link #decode} is called from several worker threads at once.
+     */
+    protected interface BlockDecoder {
+        /**
+         * @param input The encoded stream
+         * @return The next complete frame, or null at the end of the stream
+         * @throws IOException If the frame is malformed or the stream ends inside it
+         */
+        byte[] readFrame(InputStream input) throws IOException;
+
+        /**
+         * @param frame A frame returned by {@link #readFrame}
+         * @param index The frame's position in the stream, starting at 0
+         * @return The decoded data
+         * @throws IOException If the frame cannot be decoded
+         */
+        byte[] decode(byte[] frame, long index) throws IOException;
+
+        /**
+         * Checks, once the frames end, that the stream is complete.
+         *
+         * @param lastFrame The last frame read, or null if there was none
+         * @throws IOException If the stream was cut short
+         */
+        void finish(byte[] lastFrame) throws IOException;
+    }
+
+    private final int blockSize;
+    private final int threads;
+    private final int maxInFlight;
+    private volatile ExecutorService workers;
+
+    /**
+     * @param blockSize The number of bytes of original data per block
+     * @param threads   The number of worker threads
+     */
+    protected BlockTransformStage(int blockSize, int threads) {
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE || threads < 1) {
+            throw new IllegalArgumentException("Block size must be 1 to " + MAX_BLOCK_SIZE
+                    + " bytes and the thread count positive");
+        }
+        this.blockSize = blockSize;
+        this.threads = threads;
+        this.maxInFlight = 2 * threads;
+    }
+
+    /**
+     * Starts encoding a stream, writing any header the stream needs.
+     *
+     * @param output The stream receiving the frames
+     * @return The encoder for the stream's blocks
+     * @throws IOException If the header cannot be written
+     */
+    protected abstract BlockEncoder encoder(OutputStream output) throws IOException;
+
+    /**
+     * Starts decoding a stream, reading any header the stream has.
+     *
+     * @param input The encoded stream
+     * @return The decoder for the stream's frames
+     * @throws IOException If the header cannot be read or is invalid
+     */
+    protected abstract BlockDecoder decoder(InputStream input) throws IOException;
+
+    @Override
+    public OutputStream encode(OutputStream output) throws IOException {
+        return new EncodingStream(output, encoder(output));
+    }
+
+    @Override
+    public InputStream decode(InputStream input) throws IOException {
+        return new DecodingStream(input, decoder(input));
+    }
+
+    /**
+     * @return The block size of the original data
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return The number of worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    private ExecutorService workers() {
+        ExecutorService pool = workers;
+        if (pool == null) {
+            synchronized (this) {
+                pool = workers;
+                if (pool == null) {
+                    String name = getClass().getSimpleName();
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), runnable -> {
+                                Thread thread = new Thread(runnable, name + "-worker");
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    // Idle stages, such as those of finished commands in a long-lived daemon, keep no threads
+                    executor.allowCoreThreadTimeOut(true);
+                    pool = executor;
+                    workers = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Block transform failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Collects written data into blocks and writes their frames in order.
+     */
+    private final class EncodingStream extends OutputStream {
+        private final OutputStream output;
+        private final BlockEncoder encoder;
+        private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        private byte[] block = new byte[blockSize];
+        private int filled;
+        private long index;
+        private boolean closed;
+
+        EncodingStream(OutputStream output, BlockEncoder encoder) {
+            this.output = output;
+            this.encoder = encoder;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                int count = Math.min(len, blockSize - filled);
+                System.arraycopy(b, off, block, filled, count);
+                filled += count;
+                off += count;
+                len -= count;
+                if (filled == blockSize) {
+                    submit(false);
+                }
+            }
+        }
+
+        /**
+         * Writes the frames that are done, without waiting for the others.
+         */
+        @Override
+        public void flush() throws IOException {
+            while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                output.write(await(inFlight.poll()));
+            }
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                // The last block is always encoded, even when empty, so decoders can tell the stream is complete
+                submit(true);
+                while (!inFlight.isEmpty()) {
+                    output.write(await(inFlight.poll()));
+                }
+            } finally {
+                inFlight.forEach(future -> future.cancel(true));
+                output.close();
+            }
+        }
+
+        private void submit(boolean last) throws IOException {
+            byte[] data = block;
+            int length = filled;
+            long position = index++;
+            inFlight.add(workers().submit(() -> encoder.encode(data, length, position, last)));
+            block = last ? null : new byte[blockSize];
+            filled = 0;
+            while (inFlight.size() > maxInFlight) {
+                output.write(await(inFlight.poll()));
+            }
+        }
+    }
+
+    /**
+     * Reads frames ahead, decodes them on the workers and returns their data in order.
+     */
+    private final class DecodingStream extends InputStream {
+        private final InputStream input;
+        private final BlockDecoder decoder;
+        private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        private byte[] current = new byte[0];
+        private int position;
+        private long index;
+        private byte[] lastFrame;
+        private boolean ended;
+
+        DecodingStream(InputStream input, BlockDecoder decoder) {
+            this.input = input;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == current.length) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return current.length - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inFlight.forEach(future -> future.cancel(true));
+            inFlight.clear();
+            input.close();
+        }
+
+        /**
+         * Moves to the next decoded block, reading and submitting frames to keep the workers busy.
+         *
+         * @return False at the end of the stream
+         */
+        private boolean advance() throws IOException {
+            while (!ended && inFlight.size() < maxInFlight) {
+                byte[] frame = decoder.readFrame(input);
+                if (frame == null) {
+                    ended = true;
+                    decoder.finish(lastFrame);
+                } else {
+                    long position = index++;
+                    lastFrame = frame;
+                    inFlight.add(workers().submit(() -> decoder.decode(frame, position)));
+                }
+            }
+            if (inFlight.isEmpty()) {
+                return false;
+            }
+            current = await(inFlight.poll());
+            position = 0;
+            return true;
+        }
+    }
+
+    /**
+     * Reads exactly the given number of bytes.
+     *
+     * @param input  The stream to read from
+     * @param buffer The buffer to fill
+     * @param offset Where to start filling
+     * @param length The number of bytes to read
+     * @return False if the stream ended before the first byte, true if all bytes were read
+     * @throws IOException If the stream ends after the first byte but before the last
+     */
+    protected static boolean readFully(InputStream input, byte[] buffer, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = input.read(buffer, offset + read, length - read);
+            if (count == -1) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Stream ended inside a frame");
+            }
+            read += count;
+        }
+        return true;
+    }
+}
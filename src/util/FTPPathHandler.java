@@ -1,6 +1,12 @@
 package util;
 
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -8,6 +14,12 @@ import java.util.regex.Pattern;
  * The FTPPathHandler class provides utility methods for parsing and handling FTP URLs.
  * It extracts components such as host, port, username, password, and path from FTP URLs,
  * and provides a structured representation of this information.
+ *
+ * URLs are parsed by a hand-written single-pass scanner that accepts exactly the URLs the original
+ * regular expression accepts (kept as {@link #parseWithPattern} for comparison) and additionally
+ * percent-decodes the username, password and path. Host names and usernames are taken from a small
+ * cache, so a manifest naming the same few servers a million times reuses the same String instances
+ * instead of allocating them per line, and session lookups keyed by them compare by identity first.
  */
 public class FTPPathHandler {
     /**
@@ -26,6 +38,18 @@ public class FTPPathHandler {
     /** Default control port for FTP connections */
     private static final int DEFAULT_CONTROL_PORT = 21;
 
+    /** Local path that stands for standard input (uploads) or standard output (downloads) */
+    public static final String STDIO_PATH = "-";
+
+    private static final String SCHEME = "ftp://";
+
+    /** Canonical instances of recently seen host names and usernames */
+    private static final KeyCache KEYS = new KeyCache(1024);
+
+    /** Interned session keys; bounded so that a stream of distinct servers cannot grow it forever */
+    private static final Map<String, String> SESSION_KEYS = new ConcurrentHashMap<>();
+    private static final int MAX_SESSION_KEYS = 4096;
+
     /**
      * Inner class representing a parsed FTP path with all its components.
      */
@@ -37,6 +61,7 @@ public class FTPPathHandler {
         private final String remotePath;
         private final String localPath;
         private final boolean isDownload;
+        private String sessionKey;
 
         /**
          * Constructs a ParsedPath object with the specified components.
@@ -80,10 +105,58 @@ public class FTPPathHandler {
 
         /** @return True if this represents a download operation, false for upload */
         public boolean isDownload() { return isDownload; }
+
+        /**
+         * Checks whether another parsed path names the same server and account as this one.
+         *
+         * @param other The other parsed path
+         * @return True if host, port and username all match
+         */
+        public boolean isSameServer(ParsedPath other) {
+            // Keys are interned, but the intern table is cleared when it fills up, so compare by value
+            return getSessionKey().equals(other.getSessionKey());
+        }
+
+        /**
+         * Returns an interned key naming this server and account; FTPSessionRegistry looks up shared
+         * sessions by it.
+         * Paths with the same host (ignoring case), port and username usually return the same instance,
+         * but the intern table is cleared when it fills up, so keys must be compared with equals().
+         *
+         * @return The interned session key
+         */
+        public String getSessionKey() {
+            String key = sessionKey;
+            if (key == null) {
+                // The length prefix keeps usernames containing '@' from colliding with other accounts
+                key = username.length() + ":" + username + "@" + host.toLowerCase(Locale.ROOT) + ":" + port;
+                String interned = SESSION_KEYS.get(key);
+                if (interned == null) {
+                    if (SESSION_KEYS.size() >= MAX_SESSION_KEYS) {
+                        SESSION_KEYS.clear();
+                    }
+                    interned = SESSION_KEYS.putIfAbsent(key, key);
+                    if (interned == null) {
+                        interned = key;
+                    }
+                }
+                sessionKey = key = interned;
+            }
+            return key;
+        }
+
+        /** @return True if the local side is standard input/output rather than a file */
+        public boolean isStdio() { return FTPPathHandler.isStdio(localPath); }
     }
 
     /**
      * Parses an FTP URL and local path into a structured ParsedPath object.
+     * Format: ftp://[username[:password]@]host[:port][/path], where the username, password and path
+     * may contain percent-encoded UTF-8 (e.g. %40 for '@').
+     *
+     * The URL is scanned once: the authority ends at the first slash or backslash, the userinfo at the
+     * first '@' in the authority. Like the regular expression, a host may itself contain '@' when the
+     * text before the first '@' is not a valid userinfo followed by a valid host and port.
      *
      * @param ftpUrl    The FTP URL to parse
      * @param localPath The corresponding local file system path
@@ -92,6 +165,180 @@ public class FTPPathHandler {
      * @throws MalformedURLException If the provided FTP URL is invalid
      */
     public static ParsedPath parse(String ftpUrl, String localPath, boolean isDownload) throws MalformedURLException {
+        if (!ftpUrl.startsWith(SCHEME)) {
+            throw new MalformedURLException("Invalid FTP URL format");
+        }
+        int start = SCHEME.length();
+        int length = ftpUrl.length();
+
+        // One pass over the authority, noting the delimiters the components are cut at
+        int authorityEnd = start;
+        int firstAt = -1;
+        int firstColon = -1;
+        for (; authorityEnd < length; authorityEnd++) {
+            char c = ftpUrl.charAt(authorityEnd);
+            if (c == '/' || c == '\\') {
+                break;
+            } else if (c == '@' && firstAt < 0) {
+                firstAt = authorityEnd;
+            } else if (c == ':' && firstColon < 0) {
+                firstColon = authorityEnd;
+            }
+        }
+
+        String username = DEFAULT_USERNAME;
+        String password = DEFAULT_PASSWORD;
+        int hostStart = start;
+        // A userinfo needs a non-empty username and, after a colon, a non-empty password
+        if (firstAt > start && firstColon != start && firstColon != firstAt - 1
+                && hostPortEnd(ftpUrl, firstAt + 1, authorityEnd) > 0) {
+            int userEnd = firstColon >= 0 && firstColon < firstAt ? firstColon : firstAt;
+            username = component(ftpUrl, start, userEnd, true);
+            if (userEnd < firstAt) {
+                password = component(ftpUrl, userEnd + 1, firstAt, false);
+            }
+            hostStart = firstAt + 1;
+        }
+        int hostEnd = hostPortEnd(ftpUrl, hostStart, authorityEnd);
+        if (hostEnd < 0) {
+            throw new MalformedURLException("Invalid FTP URL format");
+        }
+        String host = KEYS.get(ftpUrl, hostStart, hostEnd);
+        int port = hostEnd < authorityEnd ? parsePort(ftpUrl, hostEnd + 1, authorityEnd) : DEFAULT_CONTROL_PORT;
+        String remotePath = authorityEnd < length ? remotePath(ftpUrl, authorityEnd) : "/";
+
+        return new ParsedPath(host, port, username, password, remotePath, localPath, isDownload);
+    }
+
+    /**
+     * Checks that a range of the authority is a host without colons, optionally followed by a colon and digits.
+     *
+     * @return The end of the host name, or -1 if the range is not a valid host and port
+     */
+    private static int hostPortEnd(String url, int from, int to) {
+        int i = from;
+        while (i < to && url.charAt(i) != ':') {
+            i++;
+        }
+        if (i == from) {
+            return -1;
+        }
+        if (i < to) {
+            if (i + 1 == to) {
+                return -1;
+            }
+            for (int j = i + 1; j < to; j++) {
+                char c = url.charAt(j);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+            }
+        }
+        return i;
+    }
+
+    private static int parsePort(String url, int from, int to) throws MalformedURLException {
+        int port = 0;
+        for (int i = from; i < to; i++) {
+            port = port * 10 + (url.charAt(i) - '0');
+            if (port > 65535) {
+                throw new MalformedURLException("Invalid port in FTP URL");
+            }
+        }
+        return port;
+    }
+
+    /**
+     * Extracts the remote path, normalizing backslashes to slashes and percent-decoding it.
+     * The path always starts with a slash or backslash, so it already starts with '/' once normalized.
+     */
+    private static String remotePath(String url, int from) throws MalformedURLException {
+        boolean plain = true;
+        for (int i = from; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                // The regular expression's '.' does not match line terminators
+                throw new MalformedURLException("Invalid FTP URL format");
+            }
+            plain &= c != '\\' && c != '%';
+        }
+        if (plain) {
+            return url.substring(from);
+        }
+        return decode(url.substring(from).replace('\\', '/'));
+    }
+
+    /**
+     * Extracts a username or password, percent-decoding it if needed.
+     * Usernames without escapes come from the key cache.
+     */
+    private static String component(String url, int from, int to, boolean cached) throws MalformedURLException {
+        int escape = url.indexOf('%', from);
+        if (escape < 0 || escape >= to) {
+            return cached ? KEYS.get(url, from, to) : url.substring(from, to);
+        }
+        return decode(url.substring(from, to));
+    }
+
+    /**
+     * Decodes percent-encoded UTF-8 (RFC 3986 section 2.1).
+     * Control characters are refused: the decoded text is sent on the control connection, where an
+     * escaped CR or LF would end the command early and start another one.
+     *
+     * @throws MalformedURLException If an escape is incomplete, the bytes are not valid UTF-8,
+     *                               or the decoded text holds a control character or line separator
+     */
+    private static String decode(String text) throws MalformedURLException {
+        if (text.indexOf('%') < 0) {
+            return text;
+        }
+        StringBuilder decoded = new StringBuilder(text.length());
+        byte[] bytes = new byte[text.length() / 3];
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c != '%') {
+                decoded.append(c);
+                i++;
+                continue;
+            }
+            int count = 0;
+            while (i < text.length() && text.charAt(i) == '%') {
+                int high = i + 2 < text.length() ? Character.digit(text.charAt(i + 1), 16) : -1;
+                int low = high >= 0 ? Character.digit(text.charAt(i + 2), 16) : -1;
+                if (low < 0) {
+                    throw new MalformedURLException("Invalid percent-encoding in FTP URL");
+                }
+                bytes[count++] = (byte) (high << 4 | low);
+                i += 3;
+            }
+            try {
+                decoded.append(StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes, 0, count)));
+            } catch (CharacterCodingException e) {
+                throw new MalformedURLException("Invalid UTF-8 in percent-encoded FTP URL");
+            }
+        }
+        for (int j = 0; j < decoded.length(); j++) {
+            char c = decoded.charAt(j);
+            if (Character.isISOControl(c) || c == '\u2028' || c == '\u2029') {
+                throw new MalformedURLException("Control character in percent-encoded FTP URL");
+            }
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * Parses an FTP URL with the original regular expression.
+     * This is the reference the single-pass {@link #parse} is tested and benchmarked against;
+     * it does not percent-decode.
+     *
+     * @param ftpUrl    The FTP URL to parse
+     * @param localPath The corresponding local file system path
+     * @param isDownload True if this represents a download operation, false for upload
+     * @return A ParsedPath object containing the extracted components
+     * @throws MalformedURLException If the provided FTP URL is invalid
+     */
+    public static ParsedPath parseWithPattern(String ftpUrl, String localPath, boolean isDownload) throws MalformedURLException {
         Matcher matcher = FTP_URL_PATTERN.matcher(ftpUrl);
         if (!matcher.matches()) {
             throw new MalformedURLException("Invalid FTP URL format");
@@ -110,6 +357,16 @@ public class FTPPathHandler {
         return new ParsedPath(host, port, username, password, remotePath, localPath, isDownload);
     }
 
+    /**
+     * Checks whether a local path refers to standard input/output instead of a file.
+     *
+     * @param localPath The local path to check, may be null
+     * @return True if the path is "-"
+     */
+    public static boolean isStdio(String localPath) {
+        return STDIO_PATH.equals(localPath);
+    }
+
     /**
      * Normalizes a file path by replacing backslashes with forward slashes
      * and ensuring the path starts with a forward slash.
@@ -124,4 +381,33 @@ public class FTPPathHandler {
         }
         return path;
     }
+
+    /**
+     * A direct-mapped cache of short strings, looked up by a range of a larger string without
+     * extracting it first. A hit returns the cached instance and allocates nothing; a miss extracts
+     * the substring and replaces whatever occupied its slot. Slots are written without locking, which
+     * is safe because Strings are immutable and a lost update only costs a later miss.
+     */
+    private static class KeyCache {
+        private final String[] slots;
+
+        KeyCache(int size) {
+            slots = new String[Integer.highestOneBit(size)];
+        }
+
+        String get(String text, int from, int to) {
+            int hash = 0;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            int slot = (hash ^ hash >>> 16) & (slots.length - 1);
+            String cached = slots[slot];
+            if (cached != null && cached.length() == to - from && text.startsWith(cached, from)) {
+                return cached;
+            }
+            String key = text.substring(from, to);
+            slots[slot] = key;
+            return key;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Compresses with gzip on several cores.
+ *
+ * Each block is compressed into a gzip member of its own (RFC 1952 section 2.2 allows a file of several
+ * members), so the output can be read by gunzip and any other gzip reader. Every member carries its
+ * total length in an extra header field ("FB"), in the way BGZF does, which lets the decoder find the
+ * members without inflating them and decompress them on several cores too. Gzip data written by other
+ * tools, without that field, is still decoded, on one core.
+ */
+public class ParallelGzipStage extends BlockTransformStage {
+    /** The default block size; large enough that splitting costs well under 1% of compression ratio */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int ID1 = 0x1f;
+    private static final int ID2 = 0x8b;
+    private static final int DEFLATE = 8;
+    private static final int FEXTRA = 4;
+    /** The fixed header, the extra field length and the "FB" subfield with its 4-byte member length */
+    private static final int HEADER_SIZE = 10 + 2 + 4 + 4;
+    /** The CRC-32 and the uncompressed size */
+    private static final int TRAILER_SIZE = 8;
+
+    private final int level;
+
+    /**
+     * Constructs a stage with the default compression level and block size and one thread per core.
+     */
+    public ParallelGzipStage() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param level     The compression level, 1 to 9, or -1 for the default
+     * @param blockSize The number of bytes compressed into each member
+     * @param threads   The number of worker threads
+     */
+    public ParallelGzipStage(int level, int blockSize, int threads) {
+        super(blockSize, threads);
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 1 || level > 9)) {
+            throw new IllegalArgumentException("Compression level must be 1 to 9: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    protected BlockEncoder encoder(OutputStream output) {
+        return (data, length, index, last) -> compress(data, length);
+    }
+
+    @Override
+    protected BlockDecoder decoder(InputStream input) {
+        return new BlockDecoder() {
+            @Override
+            public byte[] readFrame(InputStream in) throws IOException {
+                byte[] header = new byte[HEADER_SIZE];
+                if (!readFully(in, header, 0, HEADER_SIZE)) {
+                    return null;
+                }
+                int size = memberSize(header);
+                if (size < 0) {
+                    throw new ZipException("Gzip member without a block length; it was not written by this stage");
+                }
+                if (size < HEADER_SIZE + TRAILER_SIZE || size > 2 * MAX_BLOCK_SIZE) {
+                    throw new ZipException("Invalid gzip block length: " + size);
+                }
+                byte[] member = new byte[size];
+                System.arraycopy(header, 0, member, 0, HEADER_SIZE);
+                if (!readFully(in, member, HEADER_SIZE, size - HEADER_SIZE)) {
+                    throw new ZipException("Gzip stream ends inside a member");
+                }
+                return member;
+            }
+
+            @Override
+            public byte[] decode(byte[] frame, long index) throws IOException {
+                return decompress(frame);
+            }
+
+            @Override
+            public void finish(byte[] lastFrame) throws IOException {
+                if (lastFrame == null) {
+                    throw new ZipException("Empty gzip stream");
+                }
+            }
+        };
+    }
+
+    /**
+     * Decodes block-compressed data on the workers, and any other gzip data on the calling thread.
+     */
+    @Override
+    public InputStream decode(InputStream input) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(input, HEADER_SIZE);
+        byte[] header = new byte[HEADER_SIZE];
+        int read = 0;
+        int count;
+        while (read < HEADER_SIZE && (count = pushback.read(header, read, HEADER_SIZE - read)) != -1) {
+            read += count;
+        }
+        pushback.unread(header, 0, read);
+        if (read == HEADER_SIZE && memberSize(header) >= 0) {
+            return super.decode(pushback);
+        }
+        return new GZIPInputStream(pushback, 64 * 1024);
+    }
+
+    /**
+     * @return The total length of the member whose header this is, or -1 if it has no "FB" field
+     */
+    private static int memberSize(byte[] header) {
+        if ((header[0] & 0xff) != ID1 || (header[1] & 0xff) != ID2 || header[2] != DEFLATE
+                || header[3] != FEXTRA || littleEndian16(header, 10) != 8
+                || header[12] != 'F' || header[13] != 'B' || littleEndian16(header, 14) != 4) {
+            return -1;
+        }
+        return littleEndian32(header, 16);
+    }
+
+    private byte[] compress(byte[] data, int length) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + HEADER_SIZE + TRAILER_SIZE + 64);
+            byte[] header = {ID1, (byte) ID2, DEFLATE, FEXTRA, 0, 0, 0, 0, 0, (byte) 255,
+                    8, 0, 'F', 'B', 4, 0, 0, 0, 0, 0};
+            member.write(header, 0, HEADER_SIZE);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                member.write(buffer, 0, count);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            writeLittleEndian32(member, (int) crc.getValue());
+            writeLittleEndian32(member, length);
+
+            byte[] bytes = member.toByteArray();
+            int size = bytes.length;
+            bytes[16] = (byte) size;
+            bytes[17] = (byte) (size >>> 8);
+            bytes[18] = (byte) (size >>> 16);
+            bytes[19] = (byte) (size >>> 24);
+            return bytes;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] member) throws IOException {
+        int dataEnd = member.length - TRAILER_SIZE;
+        int size = littleEndian32(member, dataEnd + 4);
+        if (size < 0 || size > MAX_BLOCK_SIZE) {
+            throw new ZipException("Gzip block too large: " + size);
+        }
+        byte[] data = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, HEADER_SIZE, dataEnd - HEADER_SIZE);
+            int filled = 0;
+            while (filled < size) {
+                int count = inflater.inflate(data, filled, size - filled);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                filled += count;
+            }
+            if (filled != size) {
+                throw new ZipException("Gzip block is shorter than its recorded size");
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt gzip block: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != littleEndian32(member, dataEnd)) {
+            throw new ZipException("Gzip block fails its CRC check");
+        }
+        return data;
+    }
+
+    private static int littleEndian16(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static int littleEndian32(byte[] bytes, int offset) {
+        return littleEndian16(bytes, offset) | littleEndian16(bytes, offset + 2) << 16;
+    }
+
+    private static void writeLittleEndian32(ByteArrayOutputStream output, int value) {
+        output.write(value);
+        output.write(value >>> 8);
+        output.write(value >>> 16);
+        output.write(value >>> 24);
+    }
+}
@@ -0,0 +1,36 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A reversible transformation applied to file contents while they stream to or from the server,
+ * such as compression or encryption.
+ *
+ * Uploads pass the local data through {@link #encode} on its way to the server, and downloads pass the
+ * server's data through {@link #decode}, so the file on the server holds the encoded form. Stages are
+ * shared by every transfer of a job and must therefore keep all per-transfer state in the streams they
+ * return.
+ */
+public interface TransformStage {
+
+    /**
+     * Wraps a stream so that data written to the result reaches the given stream encoded.
+     * Closing the result writes any buffered data and trailer, then closes the given stream.
+     *
+     * @param output The stream receiving the encoded data
+     * @return The stream to write the original data to
+     * @throws IOException If a header cannot be written
+     */
+    OutputStream encode(OutputStream output) throws IOException;
+
+    /**
+     * Wraps a stream of encoded data so that reading the result returns the original data.
+     *
+     * @param input The stream providing the encoded data
+     * @return The stream to read the original data from
+     * @throws IOException If a header cannot be read or is invalid
+     */
+    InputStream decode(InputStream input) throws IOException;
+}
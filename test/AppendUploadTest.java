@@ -0,0 +1,81 @@
+import client.FTPClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AppendUploadTest Class
+ *
+ * This class tests appending the new tail of a growing local file to its remote copy with SIZE and APPE,
+ * and the checks that refuse to append when the remote file is not a prefix of the local one.
+ */
+class AppendUploadTest {
+
+    /**
+     * Tests appending to a remote file that holds the first part of the local file, then to a missing one.
+     * Verifies that only the new bytes are sent with APPE, that an up-to-date file sends nothing,
+     * and that a missing remote file is created whole.
+     */
+    @Test
+    void testAppendsOnlyTheTail(@TempDir Path directory) throws IOException {
+        byte[] data = new byte[150_000];
+        new Random(3).nextBytes(data);
+        Path local = directory.resolve("app.log");
+        Files.write(local, data);
+
+        try (StandInFTPServer server = new StandInFTPServer()) {
+            server.putFile("/app.log", Arrays.copyOf(data, 100_000));
+            FTPClient client = new FTPClient("127.0.0.1", server.getPort(), "user", "pass");
+            client.connect();
+            try {
+                assertEquals(50_000, client.appendFile("/app.log", local.toString(), true));
+                assertArrayEquals(data, server.getFile("/app.log"));
+                assertTrue(server.commandLog().contains("APPE /app.log"));
+                assertTrue(server.commandLog().contains("REST " + (100_000 - 64 * 1024)));
+
+                assertEquals(0, client.appendFile("/app.log", local.toString(), false));
+
+                assertEquals(data.length, client.appendFile("/new.log", local.toString(), false));
+                assertArrayEquals(data, server.getFile("/new.log"));
+            } finally {
+                client.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Tests appending where the remote file is not a prefix of the local one.
+     * Verifies that a remote file with a different tail, or a larger one, is refused and left unchanged.
+     */
+    @Test
+    void testRefusesWhenRemoteIsNotAPrefix(@TempDir Path directory) throws IOException {
+        byte[] data = new byte[20_000];
+        new Random(4).nextBytes(data);
+        Path local = directory.resolve("app.log");
+        Files.write(local, data);
+        byte[] rotated = Arrays.copyOf(data, 10_000);
+        rotated[9_999] ^= 1;
+
+        try (StandInFTPServer server = new StandInFTPServer()) {
+            server.putFile("/rotated.log", rotated);
+            server.putFile("/larger.log", new byte[30_000]);
+            FTPClient client = new FTPClient("127.0.0.1", server.getPort(), "user", "pass");
+            client.connect();
+            try {
+                assertThrows(IOException.class, () -> client.appendFile("/rotated.log", local.toString(), true));
+                assertArrayEquals(rotated, server.getFile("/rotated.log"));
+                assertThrows(IOException.class, () -> client.appendFile("/larger.log", local.toString(), false));
+                assertEquals(30_000, server.getFile("/larger.log").length);
+            } finally {
+                client.disconnect();
+            }
+        }
+    }
+}
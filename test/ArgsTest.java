@@ -1,4 +1,11 @@
+import client.FTPClientConfig;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -119,4 +126,119 @@ class ArgsTest {
         String[] args = {};
         assertThrows(IllegalArgumentException.class, () -> ParseArgs.parse(args));
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests parsing of "cp" with standard input as the source.
+     * Verifies that "-" is accepted as the local side of a copy.
+     */
+    @Test
+    void testParseArgsWithCpFromStdin() {
+        String[] args = {"cp", "-", "ftp://example.com/file2.txt"};
+        ParseArgs result = ParseArgs.parse(args);
+        assertEquals("cp", result.operation);
+        assertEquals("-", result.param1);
+        assertEquals("ftp://example.com/file2.txt", result.param2);
+    }
+
+    /**
+     * Tests parsing of "cp" with "-" on both sides.
+     * Verifies that an IllegalArgumentException is thrown since one side must be a URL.
+     */
+    @Test
+    void testParseArgsWithCpStdioOnBothSides() {
+        String[] args = {"cp", "-", "-"};
+        assertThrows(IllegalArgumentException.class, () -> ParseArgs.parse(args));
+    }
+
+    /**
+     * Tests parsing of "mv" with standard output as the destination.
+     * Verifies that an IllegalArgumentException is thrown since a stream cannot be moved.
+     */
+    @Test
+    void testParseArgsWithMvToStdout() {
+        String[] args = {"mv", "ftp://example.com/file.txt", "-"};
+        assertThrows(IllegalArgumentException.class, () -> ParseArgs.parse(args));
+    }
+
+    /**
+     * Tests parsing of a long option.
+     * Verifies that "--atomic" is recorded and does not count as a parameter.
+     */
+    @Test
+    void testParseArgsWithLongOption() {
+        String[] args = {"cp", "--atomic", "file1.txt", "ftp://example.com/file2.txt"};
+        ParseArgs result = ParseArgs.parse(args);
+        assertTrue(result.hasOption("atomic"));
+        assertEquals("file1.txt", result.param1);
+        assertEquals("ftp://example.com/file2.txt", result.param2);
+    }
+
+    /**
+     * Tests parsing with an unknown option.
+     * Verifies that an IllegalArgumentException is thrown.
+     */
+    @Test
+    void testParseArgsWithUnknownOption() {
+        String[] args = {"--labradoodle", "ls", "ftp://example.com"};
+        assertThrows(IllegalArgumentException.class, () -> ParseArgs.parse(args));
+    }
+
+    /**
+     * Tests resolving the local paths of a command line given in another working directory.
+     * Verifies that local parameters and path options become absolute, while URLs, "-" and other options are kept.
+     */
+    @Test
+    void testResolveLocalPaths() {
+        Path directory = Path.of("/home/user/work");
+        ParseArgs result = ParseArgs.parse(new String[]{"cp", "--cache=cache", "--encrypt=/keys/key", "--sessions=2",
+                "data/file.txt", "ftp://example.com/a.txt", "ftp://example.com/b.txt"}).resolveLocalPaths(directory);
+        assertEquals(directory.resolve("data/file.txt").toString(), result.param1);
+        assertEquals(List.of(directory.resolve("data/file.txt").toString(), "ftp://example.com/a.txt",
+                "ftp://example.com/b.txt"), result.params);
+        assertEquals(directory.resolve("cache").toString(), result.options.get("cache"));
+        assertEquals("/keys/key", result.options.get("encrypt"));
+        assertEquals("2", result.options.get("sessions"));
+
+        ParseArgs stdio = ParseArgs.parse(new String[]{"cp", "ftp://example.com/a.txt", "-"}).resolveLocalPaths(directory);
+        assertEquals("-", stdio.param2);
+    }
+
+    /**
+     * Tests building the client settings twice from the same transform and cache options.
+     * Verifies that the settings compare equal, so the daemon reuses one session pool for both commands.
+     */
+    @Test
+    void testSameOptionsGiveEqualConfigs(@TempDir Path directory) throws IOException {
+        Path keyFile = directory.resolve("key");
+        Files.write(keyFile, new byte[16]);
+        String[] args = {"cp", "--compress", "--encrypt=" + keyFile, "--cache=" + directory.resolve("cache"),
+                "ftp://example.com/file.txt", "file.txt"};
+
+        FTPClientConfig first = Main.configFrom(ParseArgs.parse(args));
+        FTPClientConfig second = Main.configFrom(ParseArgs.parse(args));
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    /**
+     * Tests building settings with many different encryption keys.
+     * Verifies that only the most recent stages are kept, so a key used long ago gets a stage of its own.
+     */
+    @Test
+    void testEncryptionStagesAreNotKeptForever(@TempDir Path directory) throws IOException {
+        String[] first = encryptArgs(directory, 0);
+        FTPClientConfig before = Main.configFrom(ParseArgs.parse(first));
+        for (int i = 1; i <= 16; i++) {
+            Main.configFrom(ParseArgs.parse(encryptArgs(directory, i)));
+        }
+        assertNotEquals(before, Main.configFrom(ParseArgs.parse(first)));
+    }
+
+    private static String[] encryptArgs(Path directory, int seed) throws IOException {
+        Path keyFile = directory.resolve("key" + seed);
+        byte[] key = new byte[16];
+        key[0] = (byte) seed;
+        Files.write(keyFile, key);
+        return new String[]{"cp", "--encrypt=" + keyFile, "ftp://example.com/file.txt", "file.txt"};
+    }
+}
@@ -0,0 +1,128 @@
+import client.ConcurrencyController;
+import client.FTPClientConfig;
+import client.FTPReplyException;
+import client.FTPSessionPool;
+import command.TransferScheduler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ConcurrencyControllerTest Class
+ *
+ * This class tests the adaptive per-server concurrency limit: additive increase while throughput grows,
+ * multiplicative decrease on overload signals, persistence of learned limits, and a batch run against a
+ * stand-in server that only accepts a few sessions.
+ */
+class ConcurrencyControllerTest {
+
+    /**
+     * Tests which failures count as the server being overloaded.
+     * Verifies that 421, 425 and 426 replies, refused connections and resets do, and other failures do not.
+     */
+    @Test
+    void testOverloadSignals() {
+        assertTrue(ConcurrencyController.isOverload(new FTPReplyException("busy", "421 Too many connections")));
+        assertTrue(ConcurrencyController.isOverload(new FTPReplyException("no data", "425 Can't open data connection")));
+        assertTrue(ConcurrencyController.isOverload(new IOException(new FTPReplyException("aborted", "426 Aborted"))));
+        assertTrue(ConcurrencyController.isOverload(new ConnectException("Connection refused")));
+        assertTrue(ConcurrencyController.isOverload(new SocketException("Connection reset")));
+        assertFalse(ConcurrencyController.isOverload(new FTPReplyException("missing", "550 No such file")));
+        assertFalse(ConcurrencyController.isOverload(new IOException("Disk full")));
+    }
+
+    /**
+     * Tests the limit under steady load whose throughput grows with parallelism, followed by an overload reply.
+     * Verifies that the limit climbs to the maximum, halves on the overload, and is saved and loaded.
+     */
+    @Test
+    void testIncreaseBackOffAndPersistence(@TempDir Path directory) throws Exception {
+        ConcurrencyController controller = new ConcurrencyController(1, 6);
+        String host = "ftp.example.com:21";
+        List<Thread> workers = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 6; i++) {
+            Thread worker = new Thread(() -> {
+                // Each operation takes 20 ms regardless of how many run, so throughput scales with the limit
+                while (controller.getLimit(host) < 6 && System.nanoTime() < deadline) {
+                    try {
+                        ConcurrencyController.Permit permit = controller.acquire(host);
+                        sleep(20);
+                        permit.succeeded(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(6, controller.getLimit(host));
+
+        ConcurrencyController.Permit permit = controller.acquire(host);
+        permit.failed(new FTPReplyException("busy", "421 Too many connections"));
+        assertEquals(3, controller.getLimit(host));
+
+        Path file = directory.resolve("concurrency.properties");
+        controller.save(file);
+        ConcurrencyController restored = new ConcurrencyController(1, 6);
+        restored.load(file);
+        assertEquals(3, restored.getLimit(host));
+        assertEquals(1, restored.getLimit("other.example.com:21"));
+    }
+
+    /**
+     * Tests a batch of downloads from a server that greets sessions beyond the third with 421.
+     * Verifies that every download still succeeds and that the learned limit settles within the server's limit.
+     */
+    @Test
+    void testBatchSettlesBelowServerLimit() throws Exception {
+        try (StandInFTPServer server = new StandInFTPServer()) {
+            server.maxSessions = 3;
+            server.putFile("/small.txt", new byte[512]);
+            ConcurrencyController controller = new ConcurrencyController(1, 8);
+            FTPSessionPool pool = new FTPSessionPool("127.0.0.1", server.getPort(), "user", "pass",
+                    new FTPClientConfig(), 8);
+            TransferScheduler scheduler = new TransferScheduler(pool, 0, 0, Duration.ofSeconds(1), controller);
+            List<CompletableFuture<Void>> downloads = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                downloads.add(scheduler.submit(client -> {
+                    client.download("/small.txt", new ByteArrayOutputStream());
+                    sleep(5);
+                }, TransferScheduler.Priority.NORMAL, 512));
+            }
+            for (CompletableFuture<Void> download : downloads) {
+                download.get(30, TimeUnit.SECONDS);
+            }
+            scheduler.close();
+            pool.close();
+
+            int limit = controller.getLimit("127.0.0.1:" + server.getPort());
+            assertTrue(limit >= 2 && limit <= 3, "limit " + limit);
+            assertTrue(server.refusedSessions() > 0);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import client.CrlfTranslator;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * CrlfTranslatorBenchmark Class
+ *
+ * Compares the throughput and allocation of ASCII line-ending translation with a plain binary copy,
+ * streaming an in-memory text file through an 8 KiB buffer the way a transfer does.
+ * A line-by-line String conversion is included as the baseline the translator replaces.
+ * Each case is warmed up before it is measured, and the best of several runs is reported.
+ *
+ * Usage: java CrlfTranslatorBenchmark [size in MiB]
+ */
+class CrlfTranslatorBenchmark {
+    private static final int CHUNK = 8192;
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+
+    /**
+     * One way of moving the data through the buffer.
+     */
+    private interface Case {
+        long run(byte[] data) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int sizeMiB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        byte[] network = text(sizeMiB * 1024 * 1024, "\r\n");
+        byte[] local = text(sizeMiB * 1024 * 1024, "\n");
+
+        System.out.printf("%d MiB of text, %d byte chunks%n", sizeMiB, CHUNK);
+        System.out.printf("%-22s %10s %16s%n", "case", "MiB/s", "bytes allocated");
+        measure("binary copy", network, CrlfTranslatorBenchmark::copy);
+        measure("translate to local", network, data -> translate(data, CrlfTranslator.Direction.TO_LOCAL));
+        measure("translate to network", local, data -> translate(data, CrlfTranslator.Direction.TO_NETWORK));
+        measure("readLine baseline", network, CrlfTranslatorBenchmark::readLines);
+    }
+
+    private static void measure(String name, byte[] data, Case benchmark) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            sink += benchmark.run(data);
+        }
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            sink += benchmark.run(data);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        }
+        System.out.printf("%-22s %10.0f %16d%s%n", name, data.length / 1048576.0 / (best / 1e9), allocated,
+                sink == 42 ? " " : "");
+    }
+
+    private static long copy(byte[] data) {
+        byte[] out = new byte[CHUNK];
+        long total = 0;
+        for (int offset = 0; offset < data.length; offset += CHUNK) {
+            int length = Math.min(CHUNK, data.length - offset);
+            System.arraycopy(data, offset, out, 0, length);
+            total += out[length - 1] + length;
+        }
+        return total;
+    }
+
+    private static long translate(byte[] data, CrlfTranslator.Direction direction) {
+        CrlfTranslator translator = new CrlfTranslator(direction, "\n");
+        byte[] out = new byte[CrlfTranslator.maxOutputLength(CHUNK)];
+        long total = 0;
+        for (int offset = 0; offset < data.length; offset += CHUNK) {
+            int written = translator.translate(data, offset, Math.min(CHUNK, data.length - offset), out);
+            total += written == 0 ? 0 : out[written - 1] + written;
+        }
+        return total + translator.finish(out);
+    }
+
+    private static long readLines(byte[] data) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.US_ASCII), CHUNK);
+        StringBuilder out = new StringBuilder(CHUNK);
+        long total = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            out.append(line).append('\n');
+            if (out.length() >= CHUNK) {
+                total += out.toString().getBytes(StandardCharsets.US_ASCII).length;
+                out.setLength(0);
+            }
+        }
+        return total + out.length();
+    }
+
+    /**
+     * Builds printable text with lines of varying length.
+     */
+    private static byte[] text(int size, String separator) {
+        Random random = new Random(3);
+        byte[] data = new byte[size];
+        int i = 0;
+        while (i < size) {
+            int lineLength = 20 + random.nextInt(100);
+            for (int j = 0; j < lineLength && i < size; j++) {
+                data[i++] = (byte) ('a' + random.nextInt(26));
+            }
+            for (int j = 0; j < separator.length() && i < size; j++) {
+                data[i++] = (byte) separator.charAt(j);
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,89 @@
+import client.CrlfTranslator;
+import client.FTPClientConfig;
+import command.FTPExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CrlfTranslatorTest Class
+ *
+ * This class tests line-ending translation for ASCII transfers, including CRLF pairs split across chunks.
+ */
+class CrlfTranslatorTest {
+
+    /**
+     * Tests translating server text to local line endings, cut into chunks at every possible position.
+     * Verifies that CRLF becomes LF even when the pair is split, and that bare CRs are kept.
+     */
+    @Test
+    void testToLocalAcrossChunkBoundaries() {
+        String network = "one\r\ntwo\r\n\r\nbare\rcr\r\r\nend\r";
+        String expected = "one\ntwo\n\nbare\rcr\r\nend\r";
+        for (int first = 0; first <= network.length(); first++) {
+            for (int second = first; second <= network.length(); second++) {
+                assertEquals(expected, translate(CrlfTranslator.Direction.TO_LOCAL, network, first, second),
+                        "split at " + first + " and " + second);
+            }
+        }
+    }
+
+    /**
+     * Tests translating local text to the network representation, cut into chunks at every possible position.
+     * Verifies that bare LFs gain a CR and that existing CRLF pairs are not doubled.
+     */
+    @Test
+    void testToNetworkAcrossChunkBoundaries() {
+        String local = "one\ntwo\r\nthree\n\n";
+        String expected = "one\r\ntwo\r\nthree\r\n\r\n";
+        for (int first = 0; first <= local.length(); first++) {
+            for (int second = first; second <= local.length(); second++) {
+                assertEquals(expected, translate(CrlfTranslator.Direction.TO_NETWORK, local, first, second),
+                        "split at " + first + " and " + second);
+            }
+        }
+    }
+
+    /**
+     * Tests an ASCII upload and download against the stand-in server.
+     * Verifies that the server receives CRLF line endings and that the client gets LF back.
+     */
+    @Test
+    void testAsciiTransfer() throws IOException {
+        try (StandInFTPServer server = new StandInFTPServer()) {
+            FTPClientConfig config = new FTPClientConfig();
+            config.setAsciiMode(true);
+            FTPExecutor executor = new FTPExecutor("127.0.0.1", server.getPort(), "user", "pass", config);
+            byte[] local = "first\nsecond\n".getBytes(StandardCharsets.US_ASCII);
+            ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+
+            executor.executeCommand(client -> client.upload("/notes.txt", new ByteArrayInputStream(local)));
+            executor.executeCommand(client -> client.download("/notes.txt", downloaded));
+
+            assertEquals("first\r\nsecond\r\n", new String(server.getFile("/notes.txt"), StandardCharsets.US_ASCII));
+            assertArrayEquals(local, downloaded.toByteArray());
+            assertTrue(server.commandLog().contains("TYPE A"));
+        }
+    }
+
+    /**
+     * Feeds the text to a translator in three chunks split at the given positions.
+     */
+    private static String translate(CrlfTranslator.Direction direction, String text, int first, int second) {
+        byte[] in = text.getBytes(StandardCharsets.US_ASCII);
+        CrlfTranslator translator = new CrlfTranslator(direction, "\n");
+        byte[] out = new byte[CrlfTranslator.maxOutputLength(in.length)];
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int[] bounds = {0, first, second, in.length};
+        for (int i = 0; i < 3; i++) {
+            result.write(out, 0, translator.translate(in, bounds[i], bounds[i + 1] - bounds[i], out));
+        }
+        result.write(out, 0, translator.finish(out));
+        return result.toString(StandardCharsets.US_ASCII);
+    }
+}
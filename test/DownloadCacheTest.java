@@ -0,0 +1,99 @@
+import client.DownloadCache;
+import client.DurabilityPolicy;
+import client.FTPClientConfig;
+import command.FTPExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * DownloadCacheTest Class
+ *
+ * This class tests the local download cache: hits that skip the transfer, misses after the file
+ * changes on the server, and least-recently-used eviction under the size cap.
+ */
+class DownloadCacheTest {
+    private static final DurabilityPolicy DIRECT = DurabilityPolicy.of(DurabilityPolicy.Sync.NONE);
+
+    /**
+     * Tests copyFile with a cache, downloading the same file repeatedly and once after it changes.
+     * Verifies that the second download is served without a RETR, and that a changed file is transferred again.
+     */
+    @Test
+    void testCacheServesUnchangedFiles(@TempDir Path directory) throws IOException {
+        DownloadCache cache = new DownloadCache(directory.resolve("cache"), 1024 * 1024, true);
+        FTPClientConfig config = new FTPClientConfig();
+        config.setCache(cache);
+
+        try (StandInFTPServer server = new StandInFTPServer()) {
+            server.putFile("/artifact.jar", "version 1".getBytes(StandardCharsets.UTF_8));
+            FTPExecutor executor = new FTPExecutor("127.0.0.1", server.getPort(), "user", "pass", config);
+            Path first = directory.resolve("first.jar");
+            Path second = directory.resolve("second.jar");
+            executor.executeCommand(client -> client.copyFile("/artifact.jar", first.toString(), true));
+            executor.executeCommand(client -> client.copyFile("/artifact.jar", second.toString(), true));
+
+            assertEquals("version 1", Files.readString(second));
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, server.commandLog().stream().filter(command -> command.startsWith("RETR")).count());
+
+            server.putFile("/artifact.jar", "version 2".getBytes(StandardCharsets.UTF_8));
+            executor.executeCommand(client -> client.copyFile("/artifact.jar", second.toString(), true));
+            assertEquals("version 2", Files.readString(second));
+            assertEquals("version 1", Files.readString(first));
+            assertEquals(2, cache.getMisses());
+            assertEquals(2, server.commandLog().stream().filter(command -> command.startsWith("RETR")).count());
+        }
+    }
+
+    /**
+     * Tests eviction once the entries exceed the size cap, and an entry shorter than its file.
+     * Verifies that the least recently used entry goes, that a hit counts as a use,
+     * and that a truncated entry is treated as a miss.
+     */
+    @Test
+    void testEvictsLeastRecentlyUsed(@TempDir Path directory) throws IOException {
+        Path cacheDirectory = directory.resolve("cache");
+        DownloadCache cache = new DownloadCache(cacheDirectory, 250, false);
+        String a = DownloadCache.key("user", "host", 21, "/a", 100, "20240101000000");
+        String b = DownloadCache.key("user", "host", 21, "/b", 100, "20240101000000");
+        String c = DownloadCache.key("user", "host", 21, "/c", 100, "20240101000000");
+        assertEquals(a, DownloadCache.key("user", "HOST", 21, "/x/./../a", 100, "20240101000000"));
+
+        store(cache, a, 100);
+        store(cache, b, 100);
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(cacheDirectory.resolve(a), FileTime.fromMillis(now - 20_000));
+        Files.setLastModifiedTime(cacheDirectory.resolve(b), FileTime.fromMillis(now - 10_000));
+
+        // Using a makes b the least recently used
+        assertTrue(cache.fetch(a, 100, directory.resolve("a"), DIRECT));
+        store(cache, c, 100);
+        assertEquals(1, cache.getEvictions());
+        assertFalse(cache.fetch(b, 100, directory.resolve("b"), DIRECT));
+        assertTrue(cache.fetch(c, 100, directory.resolve("c"), DIRECT));
+        assertEquals(100, Files.size(directory.resolve("c")));
+
+        assertFalse(cache.fetch(a, 101, directory.resolve("a"), DIRECT));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    private static void store(DownloadCache cache, String key, int size) throws IOException {
+        try (DownloadCache.Fill fill = cache.fill(key, size);
+             OutputStream output = fill.tee(OutputStream.nullOutputStream())) {
+            output.write(new byte[size]);
+            output.flush();
+            assertTrue(fill.commit());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import client.DurabilityPolicy;
+import client.FTPClientConfig;
+import command.FTPExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * DurabilityPolicyTest Class
+ *
+ * This class tests how downloaded files are put in place: through a temporary file and an atomic move,
+ * with no sync, a sync per file, or group commits that share one directory sync among many files.
+ */
+class DurabilityPolicyTest {
+    private static final byte[] CONTENTS = "durable contents\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Tests downloads over an existing local file, one of which fails.
+     * Verifies that the failed download leaves the old file untouched, the successful one replaces it,
+     * and no temporary file is left behind.
+     */
+    @Test
+    void testFailedDownloadKeepsExistingFile(@TempDir Path directory) throws IOException {
+        Path local = directory.resolve("report.txt");
+        Files.write(local, "old".getBytes(StandardCharsets.UTF_8));
+        try (StandInFTPServer server = new StandInFTPServer()) {
+            server.putFile("/report.txt", CONTENTS);
+            FTPExecutor executor = new FTPExecutor("127.0.0.1", server.getPort(), "user", "pass");
+
+            executor.executeCommand(client -> client.copyFile("/missing.txt", local.toString(), true));
+            assertEquals("old", Files.readString(local));
+
+            executor.executeCommand(client -> client.copyFile("/report.txt", local.toString(), true));
+            assertArrayEquals(CONTENTS, Files.readAllBytes(local));
+        }
+        assertEquals(1, count(directory));
+    }
+
+    /**
+     * Tests the per-file sync mode and a file closed without being committed.
+     * Verifies that every committed file and its directory are synced once, and the uncommitted file never appears.
+     */
+    @Test
+    void testPerFileSync(@TempDir Path directory) throws IOException {
+        DurabilityPolicy policy = new DurabilityPolicy(DurabilityPolicy.Sync.PER_FILE, 1, 0);
+        for (int i = 0; i < 10; i++) {
+            write(policy, directory.resolve("file-" + i));
+        }
+        try (DurabilityPolicy.OutputFile abandoned = policy.create(directory.resolve("abandoned"))) {
+            abandoned.getStream().write(CONTENTS, 0, 4);
+        }
+
+        assertEquals(10, count(directory));
+        assertFalse(Files.exists(directory.resolve("abandoned")));
+        assertEquals(10, policy.getFileSyncs());
+        assertEquals(10, policy.getDirectorySyncs());
+    }
+
+    /**
+     * Tests two hundred small files committed under group commit with a long batch delay.
+     * Verifies that no file appears before the batch commits, and that the flush puts them all in place
+     * with a single directory sync.
+     */
+    @Test
+    void testGroupCommitSharesDirectorySync(@TempDir Path directory) throws IOException {
+        DurabilityPolicy policy = new DurabilityPolicy(DurabilityPolicy.Sync.GROUP_COMMIT, 1000, 60_000);
+        for (int i = 0; i < 200; i++) {
+            write(policy, directory.resolve("file-" + i));
+        }
+        assertFalse(Files.exists(directory.resolve("file-0")));
+
+        policy.flush();
+        assertEquals(200, count(directory));
+        assertArrayEquals(CONTENTS, Files.readAllBytes(directory.resolve("file-199")));
+        assertEquals(200, policy.getFileSyncs());
+        assertEquals(1, policy.getDirectorySyncs());
+    }
+
+    /**
+     * Tests that configurations choosing the same mode share its policy.
+     * Verifies that they compare equal, so pooled sessions are reused across them.
+     */
+    @Test
+    void testSharedPolicyKeepsConfigsEqual() {
+        FTPClientConfig first = new FTPClientConfig();
+        FTPClientConfig second = new FTPClientConfig();
+        first.setDurability(DurabilityPolicy.of(DurabilityPolicy.Sync.GROUP_COMMIT));
+        second.setDurability(DurabilityPolicy.of(DurabilityPolicy.Sync.GROUP_COMMIT));
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(new FTPClientConfig(), first);
+    }
+
+    /**
+     * Tests a group commit in which a file queued by one thread fails while another thread's file succeeds.
+     * Verifies that only the thread that queued the failed file sees the failure when it flushes.
+     */
+    @Test
+    void testGroupCommitReportsFailuresToTheirThread(@TempDir Path directory) throws Exception {
+        DurabilityPolicy policy = new DurabilityPolicy(DurabilityPolicy.Sync.GROUP_COMMIT, 1000, 60_000);
+        Path removed = Files.createDirectory(directory.resolve("removed"));
+        IOException[] failure = new IOException[1];
+        Thread other = new Thread(() -> {
+            try {
+                write(policy, removed.resolve("lost"));
+                try (Stream<Path> files = Files.list(removed)) {
+                    for (Path file : files.toList()) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(removed);
+                policy.flush();
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        write(policy, directory.resolve("kept"));
+        other.start();
+        other.join();
+
+        assertNotNull(failure[0]);
+        assertTrue(failure[0].getMessage().contains("lost"), failure[0].getMessage());
+        policy.flush();
+        assertArrayEquals(CONTENTS, Files.readAllBytes(directory.resolve("kept")));
+    }
+
+    private static void write(DurabilityPolicy policy, Path target) throws IOException {
+        try (DurabilityPolicy.OutputFile file = policy.create(target)) {
+            file.getStream().write(CONTENTS);
+            file.commit();
+        }
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
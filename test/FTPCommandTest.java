@@ -4,88 +4,11 @@ import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.TestFactory;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
-/**
- * FTPRecorder Class
- * This class implements a mechanism for recording and replaying FTP command test cases.
- * It allows for serialization and deserialization of test cases, enabling a record-replay
- * testing strategy for FTP operations.
- */
-
-class FTPRecorder implements Serializable {
-    private Map<String, TestCase> testCases = new HashMap<>();
-
-    /**
-     * TestCase Inner Class
-     * Represents a single test case with the actual response, expected content,
-     * and a flag indicating whether the expected content should be present in the response.
-     */
-    static class TestCase implements Serializable {
-        String actualResponse;
-        String expectedContent;
-        boolean shouldContain;
-
-        TestCase(String actualResponse, String expectedContent, boolean shouldContain) {
-            this.actualResponse = actualResponse;
-            this.expectedContent = expectedContent;
-            this.shouldContain = shouldContain;
-        }
-    }
-
-    /**
-     * Records a new test case.
-     *
-     * @param testName The name of the test case
-     * @param actualResponse The actual response from the FTP server
-     * @param expectedContent The content expected in the response
-     * @param shouldContain Whether the expected content should be present in the response
-     */
-    void recordTestCase(String testName, String actualResponse, String expectedContent, boolean shouldContain) {
-        testCases.put(testName, new TestCase(actualResponse, expectedContent, shouldContain));
-    }
-
-    /**
-     * Saves all recorded test cases to a file.
-     *
-     * @param filename The name of the file to save the test cases
-     * @throws IOException If an I/O error occurs
-     */
-    void saveTestCases(String filename) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(testCases);
-        }
-    }
-
-    /**
-     * Loads test cases from a file.
-     *
-     * @param filename The name of the file to load the test cases from
-     * @throws IOException If an I/O error occurs
-     * @throws ClassNotFoundException If the class of a serialized object cannot be found
-     */
-    void loadTestCases(String filename) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
-            testCases = (Map<String, TestCase>) ois.readObject();
-        }
-    }
-
-    /**
-     * Retrieves all recorded test cases.
-     *
-     * @return A Set of Map.Entry objects representing the test cases
-     */
-    Set<Map.Entry<String, TestCase>> getTestCases() {
-        return testCases.entrySet();
-    }
-}
-
 /**
  * FTPCommandTest Class
  *
@@ -0,0 +1,88 @@
+import client.FTPClient;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FTPEventsTest Class
+ *
+ * This class tests the Flight Recorder events of the FTP client: a session recorded against a stand-in
+ * server must show its connection, every command with its reply, and each transfer split into phases.
+ */
+class FTPEventsTest {
+    private static final byte[] CONTENTS = new byte[100_000];
+
+    /**
+     * Tests a recorded session that logs in, downloads, uploads and lists.
+     * Verifies the phases of the connection and transfers, the reply codes and byte counts,
+     * and that the password never appears in the recording.
+     */
+    @Test
+    void testRecordedSession(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("session.jfr");
+        try (StandInFTPServer server = new StandInFTPServer();
+             Recording recording = new Recording()) {
+            server.putFile("/data.bin", CONTENTS);
+            recording.enable("ftp.Connect").withThreshold(Duration.ZERO);
+            recording.enable("ftp.Command").withThreshold(Duration.ZERO);
+            recording.enable("ftp.Transfer").withThreshold(Duration.ZERO);
+            recording.start();
+
+            FTPClient client = new FTPClient("127.0.0.1", server.getPort(), "user", "secret");
+            client.connect();
+            client.download("/data.bin", new ByteArrayOutputStream());
+            client.upload("/copy.bin", new ByteArrayInputStream(CONTENTS));
+            client.listEntries("/");
+            client.disconnect();
+
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+
+        RecordedEvent connect = only(events, "ftp.Connect");
+        assertTrue(connect.getBoolean("succeeded"));
+        assertTrue(connect.getDuration("loginDuration").toNanos() > 0);
+
+        List<String> commands = events.stream().filter(event -> event.getEventType().getName().equals("ftp.Command"))
+                .map(event -> event.getString("command") + " " + event.getInt("replyCode"))
+                .collect(Collectors.toList());
+        assertTrue(commands.contains("USER user 331"));
+        assertTrue(commands.contains("PASS **** 230"));
+        assertTrue(commands.contains("RETR /data.bin 150"));
+        assertTrue(commands.stream().noneMatch(command -> command.contains("secret")));
+
+        List<RecordedEvent> transfers = events.stream()
+                .filter(event -> event.getEventType().getName().equals("ftp.Transfer")).collect(Collectors.toList());
+        assertEquals(List.of("RETR /data.bin", "STOR /copy.bin", "LIST /"),
+                transfers.stream().map(event -> event.getString("command")).collect(Collectors.toList()));
+        for (RecordedEvent transfer : transfers) {
+            assertEquals(226, transfer.getInt("replyCode"));
+            for (String phase : List.of("passiveDuration", "dataConnectDuration", "startDuration", "copyDuration",
+                    "completionDuration")) {
+                assertTrue(transfer.getDuration(phase).toNanos() > 0, phase);
+            }
+        }
+        assertEquals(CONTENTS.length, transfers.get(0).getLong("bytes"));
+        assertEquals(CONTENTS.length, transfers.get(1).getLong("bytes"));
+    }
+
+    private static RecordedEvent only(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> matching = events.stream().filter(event -> event.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+        assertEquals(1, matching.size(), name);
+        return matching.get(0);
+    }
+}
@@ -0,0 +1,97 @@
+import client.FTPClientConfig;
+import client.FTPSessionPool;
+import command.FTPCommandGraph;
+import command.FTPGraphExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FTPGraphExecutorTest Class
+ *
+ * This class tests running a dependency graph of FTP commands over a pool of sessions
+ * against a local stand-in server.
+ */
+class FTPGraphExecutorTest {
+    private StandInFTPServer server;
+    private FTPSessionPool pool;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new StandInFTPServer();
+        pool = new FTPSessionPool("127.0.0.1", server.getPort(), "user", "pass", new FTPClientConfig(), 4);
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    private static byte[] contents(int i) {
+        return ("file " + i + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tests directories created before the uploads into them.
+     * Verifies that every command succeeds and every file arrives.
+     */
+    @Test
+    void testDirectoriesBeforeUploads() throws InterruptedException {
+        FTPCommandGraph graph = new FTPCommandGraph();
+        for (int d = 0; d < 3; d++) {
+            String directory = "/dir" + d;
+            graph.addCommand("mkdir " + directory, client -> client.createDirectory(directory));
+            for (int i = 0; i < 10; i++) {
+                String path = directory + "/file" + i;
+                byte[] data = contents(i);
+                graph.addCommand("upload " + path, client -> client.upload(path, new ByteArrayInputStream(data)), "mkdir " + directory);
+            }
+        }
+
+        Map<String, FTPGraphExecutor.NodeResult> results = new FTPGraphExecutor(pool).execute(graph);
+
+        assertEquals(33, results.size());
+        results.forEach((id, result) -> assertEquals(FTPGraphExecutor.Status.SUCCEEDED, result.getStatus(), id));
+        assertArrayEquals(contents(7), server.getFile("/dir2/file7"));
+    }
+
+    /**
+     * Tests a failing command.
+     * Verifies that its dependents are cancelled, transitively, while an independent branch still runs.
+     */
+    @Test
+    void testFailureCancelsDependents() throws InterruptedException {
+        FTPCommandGraph graph = new FTPCommandGraph();
+        graph.addCommand("mkdir missing", client -> client.createDirectory("/missing/child"));
+        graph.addCommand("upload", client -> client.upload("/missing/child/a", new ByteArrayInputStream(contents(1))), "mkdir missing");
+        graph.addCommand("rename", client -> client.renameFile("/missing/child/a", "/a"), "upload");
+        graph.addCommand("mkdir ok", client -> client.createDirectory("/ok"));
+
+        Map<String, FTPGraphExecutor.NodeResult> results = new FTPGraphExecutor(pool).execute(graph);
+
+        assertEquals(FTPGraphExecutor.Status.FAILED, results.get("mkdir missing").getStatus());
+        assertNotNull(results.get("mkdir missing").getError());
+        assertEquals(FTPGraphExecutor.Status.CANCELLED, results.get("upload").getStatus());
+        assertEquals(FTPGraphExecutor.Status.CANCELLED, results.get("rename").getStatus());
+        assertEquals(FTPGraphExecutor.Status.SUCCEEDED, results.get("mkdir ok").getStatus());
+        assertTrue(server.hasDirectory("/ok"));
+    }
+
+    /**
+     * Tests adding a command that depends on a command which was not added first.
+     * Verifies that an IllegalArgumentException is thrown.
+     */
+    @Test
+    void testUnknownDependency() {
+        FTPCommandGraph graph = new FTPCommandGraph();
+        assertThrows(IllegalArgumentException.class, () -> graph.addCommand("upload", client -> { }, "mkdir"));
+    }
+}
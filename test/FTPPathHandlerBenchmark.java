@@ -0,0 +1,80 @@
+import util.FTPPathHandler;
+
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.util.Random;
+
+/**
+ * FTPPathHandlerBenchmark Class
+ *
+ * Compares the single-pass URL parser with the original regular expression on a synthetic manifest:
+ * many URLs spread over a few servers and accounts, as in a bulk transfer list.
+ * Reports the time and the bytes allocated per URL. Each case is warmed up before it is measured,
+ * and the best of several runs is reported.
+ *
+ * Usage: java FTPPathHandlerBenchmark [number of URLs]
+ */
+class FTPPathHandlerBenchmark {
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+
+    /**
+     * One way of parsing a URL.
+     */
+    private interface Parser {
+        FTPPathHandler.ParsedPath parse(String url) throws MalformedURLException;
+    }
+
+    public static void main(String[] args) throws MalformedURLException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] manifest = manifest(count);
+
+        System.out.printf("%d URLs%n", count);
+        System.out.printf("%-14s %10s %16s%n", "parser", "ns/URL", "bytes/URL");
+        measure("regex", manifest, url -> FTPPathHandler.parseWithPattern(url, null, true));
+        measure("single pass", manifest, url -> FTPPathHandler.parse(url, null, true));
+    }
+
+    private static void measure(String name, String[] manifest, Parser parser) throws MalformedURLException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            sink += run(manifest, parser);
+        }
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            sink += run(manifest, parser);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        }
+        System.out.printf("%-14s %10.1f %16.1f%s%n", name, (double) best / manifest.length,
+                (double) allocated / manifest.length, sink == 42 ? " " : "");
+    }
+
+    private static long run(String[] manifest, Parser parser) throws MalformedURLException {
+        long total = 0;
+        for (String url : manifest) {
+            FTPPathHandler.ParsedPath path = parser.parse(url);
+            total += path.getPort() + path.getRemotePath().length() + path.getHost().length();
+        }
+        return total;
+    }
+
+    /**
+     * Builds URLs for three servers and a handful of accounts with varied paths.
+     */
+    private static String[] manifest(int count) {
+        Random random = new Random(38);
+        String[] hosts = {"ftp.example.com", "mirror.example.org:2121", "10.0.0.7"};
+        String[] users = {"", "alice:secret@", "bob:hunter2@", "ingest@"};
+        String[] manifest = new String[count];
+        for (int i = 0; i < count; i++) {
+            manifest[i] = "ftp://" + users[random.nextInt(users.length)] + hosts[random.nextInt(hosts.length)]
+                    + "/data/" + random.nextInt(1000) + "/part-" + random.nextInt(100_000) + ".csv";
+        }
+        return manifest;
+    }
+}
@@ -0,0 +1,167 @@
+import client.FTPClient;
+import client.FTPClientConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FTPSTest Class
+ *
+ * This class tests explicit FTPS against a TLS-enabled stand-in server using a self-signed certificate
+ * generated with keytool, including TLS session resumption on the data connections.
+ */
+class FTPSTest {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    @TempDir
+    Path temporaryDirectory;
+
+    private SSLContext serverContext;
+    private SSLContext clientContext;
+    private StandInFTPServer server;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        KeyStore keyStore = selfSignedKeyStore();
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore, PASSWORD);
+        serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keys.getKeyManagers(), null, null);
+
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trust.getTrustManagers(), null);
+
+        server = new StandInFTPServer(serverContext);
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Tests uploads and downloads of several files over one FTPS session.
+     * Verifies that the data arrives intact, that the session was secured before logging in,
+     * and that every data connection resumed the control connection's TLS session.
+     */
+    @Test
+    void testTransfersResumeControlSession() throws IOException {
+        FTPClient client = new FTPClient("127.0.0.1", server.getPort(), "user", "pass", tlsConfig());
+        client.connect();
+        Random random = new Random(5);
+        try {
+            for (int i = 0; i < 4; i++) {
+                byte[] contents = new byte[1000 + random.nextInt(40_000)];
+                random.nextBytes(contents);
+                client.upload("/file" + i, new ByteArrayInputStream(contents));
+                ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+                client.download("/file" + i, downloaded);
+
+                assertArrayEquals(contents, server.getFile("/file" + i));
+                assertArrayEquals(contents, downloaded.toByteArray());
+            }
+            assertEquals(4, client.listEntries("/").size());
+        } finally {
+            client.disconnect();
+        }
+
+        List<String> log = server.commandLog();
+        assertEquals("AUTH TLS", log.get(0));
+        assertTrue(log.indexOf("PROT P") > log.indexOf("PBSZ 0"));
+        assertTrue(log.indexOf("PBSZ 0") > log.indexOf("PASS pass"));
+        assertEquals(9, server.secureDataConnections());
+        assertEquals(9, server.resumedDataConnections());
+    }
+
+    /**
+     * Tests a copy between two FTPS servers.
+     * Verifies that the file is relayed over protected connections rather than sent in the clear by FXP.
+     */
+    @Test
+    void testServerToServerCopyIsRelayed() throws IOException {
+        byte[] contents = "relayed over TLS".getBytes();
+        server.putFile("/source.txt", contents);
+        try (StandInFTPServer target = new StandInFTPServer(serverContext)) {
+            FTPClient source = new FTPClient("127.0.0.1", server.getPort(), "user", "pass", tlsConfig());
+            FTPClient destination = new FTPClient("127.0.0.1", target.getPort(), "user", "pass", tlsConfig());
+            source.connect();
+            destination.connect();
+            try {
+                source.copyToServer("/source.txt", destination, "/copy.txt");
+            } finally {
+                source.disconnect();
+                destination.disconnect();
+            }
+
+            assertArrayEquals(contents, target.getFile("/copy.txt"));
+            assertFalse(target.commandLog().stream().anyMatch(command -> command.startsWith("PORT")));
+            assertEquals(1, target.resumedDataConnections());
+        }
+    }
+
+    /**
+     * Tests connecting with a TLS context that does not trust the server's certificate.
+     * Verifies that the connection fails before the credentials are sent.
+     */
+    @Test
+    void testUntrustedCertificateIsRejected() throws Exception {
+        SSLContext trustsNothing = SSLContext.getInstance("TLS");
+        trustsNothing.init(null, null, null);
+        FTPClientConfig config = tlsConfig();
+        config.setSslContext(trustsNothing);
+        FTPClient client = new FTPClient("127.0.0.1", server.getPort(), "user", "pass", config);
+
+        assertThrows(IOException.class, client::connect);
+        client.closeQuietly();
+        assertFalse(server.commandLog().contains("USER user"));
+    }
+
+    private FTPClientConfig tlsConfig() {
+        FTPClientConfig config = new FTPClientConfig();
+        config.setTls(true);
+        config.setSslContext(clientContext);
+        return config;
+    }
+
+    /**
+     * Generates a key pair and self-signed certificate for the loopback address with keytool.
+     */
+    private KeyStore selfSignedKeyStore() throws IOException, InterruptedException, GeneralSecurityException {
+        Path file = temporaryDirectory.resolve("server.p12");
+        Process keytool = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "server", "-keyalg", "EC", "-validity", "1",
+                "-dname", "CN=localhost", "-ext", "SAN=ip:127.0.0.1,dns:localhost",
+                "-storetype", "PKCS12", "-keystore", file.toString(),
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(keytool.getInputStream().readAllBytes());
+        assertEquals(0, keytool.waitFor(), output);
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(file)) {
+            keyStore.load(input, PASSWORD);
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,100 @@
+import command.FTPExecutor;
+import command.FanOutUpload;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FanOutUploadTest Class
+ *
+ * This class tests uploading one source to several targets: every target receiving the whole file
+ * from a single read of the source, and a lagging target being dropped while the others finish.
+ */
+class FanOutUploadTest {
+
+    /**
+     * Tests a fan-out upload to two servers and a second path on one of them.
+     * Verifies that every target receives the file and that the source is read only once.
+     */
+    @Test
+    void testUploadsToEveryTarget() throws Exception {
+        byte[] data = new byte[1_000_003];
+        new Random(11).nextBytes(data);
+
+        try (StandInFTPServer first = new StandInFTPServer(); StandInFTPServer second = new StandInFTPServer()) {
+            List<FanOutUpload.Target> targets = List.of(
+                    new FanOutUpload.Target("first", executor(first), "/a.bin"),
+                    new FanOutUpload.Target("first again", executor(first), "/b.bin"),
+                    new FanOutUpload.Target("second", executor(second), "/a.bin"));
+            CountingInput source = new CountingInput(data);
+
+            List<FanOutUpload.Result> results = new FanOutUpload(8192, 4, Duration.ZERO).upload(source, targets);
+
+            assertEquals(data.length, source.count);
+            for (FanOutUpload.Result result : results) {
+                assertTrue(result.isSucceeded(), result.toString());
+                assertEquals(data.length, result.getBytes());
+            }
+            assertArrayEquals(data, first.getFile("/a.bin"));
+            assertArrayEquals(data, first.getFile("/b.bin"));
+            assertArrayEquals(data, second.getFile("/a.bin"));
+        }
+    }
+
+    /**
+     * Tests a fan-out upload where one target stops reading for longer than the maximum lag.
+     * Verifies that the lagging target is reported as dropped and the other still receives the whole file.
+     */
+    @Test
+    void testDropsLaggingTarget() throws Exception {
+        byte[] data = new byte[16 * 1024 * 1024];
+        new Random(12).nextBytes(data);
+
+        try (StandInFTPServer server = new StandInFTPServer()) {
+            server.slowStores.put("/slow.bin", 3000L);
+            List<FanOutUpload.Target> targets = List.of(
+                    new FanOutUpload.Target("slow", executor(server), "/slow.bin"),
+                    new FanOutUpload.Target("fast", executor(server), "/fast.bin"));
+
+            List<FanOutUpload.Result> results = new FanOutUpload(8192, 4, Duration.ofMillis(200))
+                    .upload(new ByteArrayInputStream(data), targets);
+
+            assertTrue(results.get(0).isDropped(), results.get(0).toString());
+            assertFalse(results.get(0).isSucceeded());
+            assertTrue(results.get(1).isSucceeded(), results.get(1).toString());
+            assertArrayEquals(data, server.getFile("/fast.bin"));
+        }
+    }
+
+    private static FTPExecutor executor(StandInFTPServer server) {
+        return new FTPExecutor("127.0.0.1", server.getPort(), "user", "pass");
+    }
+
+    /**
+     * Counts the bytes read from it.
+     */
+    private static class CountingInput extends FilterInputStream {
+        long count;
+
+        CountingInput(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import client.FTPClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImpairmentProxyTest Class
+ *
+ * This class tests that the impairment proxy relays FTP sessions, including their data connections,
+ * and applies the configured latency, bandwidth limit and resets.
+ */
+class ImpairmentProxyTest {
+    private StandInFTPServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new StandInFTPServer();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Tests a download through a slow, bandwidth-limited proxy.
+     * Verifies that the data arrives intact and that latency and the bandwidth limit slow the transfer down.
+     */
+    @Test
+    void testDownloadThroughImpairedLink() throws IOException {
+        byte[] contents = new byte[64 * 1024];
+        new Random(7).nextBytes(contents);
+        server.putFile("/data.bin", contents);
+        ImpairmentProxy.Impairment impairment = ImpairmentProxy.Impairment.NONE
+                .withLatency(20).withBandwidth(256 * 1024);
+
+        try (ImpairmentProxy proxy = new ImpairmentProxy(server.getPort(), impairment, 1)) {
+            FTPClient client = new FTPClient("127.0.0.1", proxy.getPort(), "user", "pass");
+            client.connect();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+            client.download("/data.bin", output);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            client.disconnect();
+
+            assertArrayEquals(contents, output.toByteArray());
+            // PASV, RETR and the completion reply each take a round trip, and 64 KiB at 256 KiB/s take 250 ms
+            assertTrue(elapsedMillis >= 250, "Download took only " + elapsedMillis + " ms");
+            assertTrue(proxy.getBytesForwarded() > contents.length);
+        }
+    }
+
+    /**
+     * Tests a proxy that resets every connection.
+     * Verifies that the client sees an IOException instead of hanging.
+     */
+    @Test
+    void testResetConnection() throws IOException {
+        ImpairmentProxy.Impairment impairment = ImpairmentProxy.Impairment.NONE.withResets(1.0);
+
+        try (ImpairmentProxy proxy = new ImpairmentProxy(server.getPort(), impairment, 1)) {
+            FTPClient client = new FTPClient("127.0.0.1", proxy.getPort(), "user", "pass");
+            assertThrows(IOException.class, client::connect);
+            client.closeQuietly();
+            assertEquals(1, proxy.getResets());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import client.ConcurrencyController;
+import client.FTPClientConfig;
+import client.FTPSessionPool;
+import command.RecursiveDelete;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RecursiveDeleteTest Class
+ *
+ * This class tests deleting a directory tree over a pool of sessions against a local stand-in server.
+ */
+class RecursiveDeleteTest {
+    private StandInFTPServer server;
+    private FTPSessionPool pool;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new StandInFTPServer();
+        pool = new FTPSessionPool("127.0.0.1", server.getPort(), "user", "pass", new FTPClientConfig(), 4);
+
+        // /retention/day0..day2, each with 40 files and a nested directory with 5 more
+        server.putDirectory("/retention");
+        for (int d = 0; d < 3; d++) {
+            String day = "/retention/day" + d;
+            server.putDirectory(day);
+            server.putDirectory(day + "/nested");
+            for (int i = 0; i < 40; i++) {
+                server.putFile(day + "/log " + i + ".txt", new byte[i]);
+            }
+            for (int i = 0; i < 5; i++) {
+                server.putFile(day + "/nested/part" + i, new byte[1]);
+            }
+        }
+        server.putFile("/keep.txt", new byte[1]);
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    /**
+     * Tests deleting a whole tree.
+     * Verifies that every file and directory below the root is gone, and that the report counts them.
+     */
+    @Test
+    void testDeleteTree() throws InterruptedException {
+        RecursiveDelete.Report report = new RecursiveDelete(pool).delete("/retention");
+
+        assertTrue(report.getFailures().isEmpty(), report.getFailures().toString());
+        assertEquals(135, report.getFilesDeleted());
+        assertEquals(7, report.getDirectoriesRemoved());
+        assertFalse(server.hasDirectory("/retention"));
+        assertEquals(1, server.fileNames().size());
+    }
+
+    /**
+     * Tests a file that cannot be deleted.
+     * Verifies that the failure is reported, its ancestors are kept, and everything else is still deleted.
+     */
+    @Test
+    void testFailureKeepsAncestors() throws InterruptedException {
+        server.protectedPaths.add("/retention/day1/nested/part3");
+
+        RecursiveDelete.Report report = new RecursiveDelete(pool).delete("/retention");
+
+        assertEquals(1, report.getFailures().size());
+        assertEquals(134, report.getFilesDeleted());
+        assertEquals(4, report.getDirectoriesRemoved());
+        assertTrue(server.hasDirectory("/retention/day1/nested"));
+        assertTrue(server.hasDirectory("/retention"));
+        assertFalse(server.hasDirectory("/retention/day0"));
+    }
+
+    /**
+     * Tests a delete under a concurrency controller against a server that accepts only two sessions.
+     * Verifies that the refused sessions lower the learned limit and their work is retried, so the whole
+     * tree is still deleted without failures.
+     */
+    @Test
+    void testControllerAdaptsToSessionLimit() throws InterruptedException {
+        server.maxSessions = 2;
+        ConcurrencyController controller = new ConcurrencyController(4, 4);
+
+        RecursiveDelete.Report report = new RecursiveDelete(pool, controller).delete("/retention");
+
+        assertTrue(report.getFailures().isEmpty(), report.getFailures().toString());
+        assertEquals(135, report.getFilesDeleted());
+        assertFalse(server.hasDirectory("/retention"));
+        assertTrue(controller.getLimit("127.0.0.1:" + server.getPort()) <= 2);
+    }
+}
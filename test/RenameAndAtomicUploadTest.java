@@ -0,0 +1,98 @@
+import client.FTPClient;
+import client.FTPClientConfig;
+import command.FTPExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RenameAndAtomicUploadTest Class
+ *
+ * This class tests server-side renames (RNFR/RNTO) and atomic uploads against a local stand-in server.
+ */
+class RenameAndAtomicUploadTest {
+    private static final byte[] CONTENTS = "atomic contents\n".getBytes(StandardCharsets.UTF_8);
+
+    private StandInFTPServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new StandInFTPServer();
+        server.putDirectory("/archive");
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Tests a remote-to-remote move on one server.
+     * Verifies that the file is renamed without any data transfer.
+     */
+    @Test
+    void testRenameMovesFile() {
+        server.putFile("/report.txt", CONTENTS);
+
+        new FTPExecutor("127.0.0.1", server.getPort(), "user", "pass")
+                .executeCommand(client -> client.renameFile("/report.txt", "/archive/report.txt"));
+
+        assertNull(server.getFile("/report.txt"));
+        assertArrayEquals(CONTENTS, server.getFile("/archive/report.txt"));
+        assertFalse(server.commandLog().contains("PASV"));
+    }
+
+    /**
+     * Tests an atomic upload over an existing file.
+     * Verifies that the data is stored under a temporary name, renamed into place, and no temporary file is left.
+     */
+    @Test
+    void testAtomicUpload() {
+        server.putFile("/archive/report.txt", "old".getBytes(StandardCharsets.UTF_8));
+        FTPClientConfig config = new FTPClientConfig();
+        config.setAtomicUploads(true);
+
+        new FTPExecutor("127.0.0.1", server.getPort(), "user", "pass", config)
+                .executeCommand(client -> client.upload("/archive/report.txt", new ByteArrayInputStream(CONTENTS)));
+
+        assertArrayEquals(CONTENTS, server.getFile("/archive/report.txt"));
+        assertEquals(1, server.fileNames().size());
+        assertTrue(server.commandLog().stream().anyMatch(command -> command.startsWith("STOR /archive/.report.txt.part-")));
+        assertTrue(server.commandLog().contains("RNTO /archive/report.txt"));
+    }
+
+    /**
+     * Tests an atomic upload to a server that refuses to rename over an existing file.
+     * Verifies that the previous file is not deleted, the upload is kept under its temporary name,
+     * and the error names that name.
+     */
+    @Test
+    void testAtomicUploadKeepsBothFilesWhenRenameFails() throws IOException {
+        byte[] old = "old".getBytes(StandardCharsets.UTF_8);
+        server.putFile("/archive/report.txt", old);
+        server.refuseRenameOver = true;
+        FTPClientConfig config = new FTPClientConfig();
+        config.setAtomicUploads(true);
+        FTPClient client = new FTPClient("127.0.0.1", server.getPort(), "user", "pass", config);
+        client.connect();
+        try {
+            IOException error = assertThrows(IOException.class,
+                    () -> client.upload("/archive/report.txt", new ByteArrayInputStream(CONTENTS)));
+
+            assertArrayEquals(old, server.getFile("/archive/report.txt"));
+            String temporary = server.fileNames().stream().filter(name -> name.startsWith("/archive/.report.txt.part-"))
+                    .findFirst().orElseThrow();
+            assertArrayEquals(CONTENTS, server.getFile(temporary));
+            assertTrue(error.getMessage().contains(temporary), error.getMessage());
+            assertFalse(server.commandLog().stream().anyMatch(command -> command.startsWith("DELE")));
+        } finally {
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ReplayFTPServer Class
+ *
+ * A loopback FTP server that answers with recorded reply transcripts instead of a file system.
+ * Each session plays one {@link Script}, chosen by the name it logs in with, so any number of
+ * concurrent clients can run through the same recorded conversation. Recordings made by
+ * {@link FTPRecorder} are turned into scripts with {@link #fromRecording}; scripts can also be
+ * written by hand with {@link Script#parse}.
+ *
+ * Passive-mode replies are rewritten to point at a data listener of this server, directory listings
+ * are sent back as recorded, downloads send as many bytes as the recorded 150 reply announced, and
+ * uploads are read and discarded.
+ */
+class ReplayFTPServer implements Closeable {
+    private static final Pattern REPLY_LINE = Pattern.compile("^(\\d{3})([ -])");
+    private static final Pattern BYTE_COUNT = Pattern.compile("\\((\\d+) bytes\\)");
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Script> scripts;
+    private final String greeting;
+    private final ExecutorService sessions = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "replay-ftp");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The replies to one recorded session, grouped by the command that caused them.
+     * The first group is the greeting.
+     */
+    static final class Script {
+        private final List<ReplyGroup> groups;
+
+        private Script(List<ReplyGroup> groups) {
+            this.groups = groups;
+        }
+
+        /**
+         * Parses a transcript of server replies as captured by FTPClient's response buffer.
+         * A group ends with a final (2xx to 5xx) reply line; lines without a reply code that follow
+         * a preliminary 1xx reply are the contents of the data connection.
+         *
+         * @param transcript The recorded replies, one per line
+         * @return The script
+         * @throws IllegalArgumentException If the transcript does not start with a reply
+         */
+        static Script parse(String transcript) {
+            List<ReplyGroup> groups = new ArrayList<>();
+            ReplyGroup current = new ReplyGroup();
+            for (String line : transcript.split("\r?\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Matcher matcher = REPLY_LINE.matcher(line);
+                if (!matcher.find()) {
+                    if (current.lines.isEmpty()) {
+                        throw new IllegalArgumentException("Transcript does not start with a reply: " + line);
+                    }
+                    current.data.append(line).append("\r\n");
+                    continue;
+                }
+                current.lines.add(line);
+                boolean isFinal = matcher.group(2).equals(" ") && matcher.group(1).charAt(0) != '1';
+                if (isFinal) {
+                    groups.add(current);
+                    current = new ReplyGroup();
+                }
+            }
+            if (!current.lines.isEmpty()) {
+                groups.add(current);
+            }
+            if (groups.isEmpty()) {
+                throw new IllegalArgumentException("Empty transcript");
+            }
+            return new Script(groups);
+        }
+
+        /** @return The number of commands the script answers, not counting the greeting */
+        int commandCount() {
+            return groups.size() - 1;
+        }
+    }
+
+    /**
+     * The reply lines sent for one command, and the recorded data connection contents if any.
+     */
+    private static final class ReplyGroup {
+        final List<String> lines = new ArrayList<>();
+        final StringBuilder data = new StringBuilder();
+    }
+
+    /**
+     * Starts a replay server on an ephemeral loopback port.
+     *
+     * @param scripts The scripts to serve, keyed by the user name that selects them
+     * @throws IOException If the listening socket cannot be opened
+     */
+    ReplayFTPServer(Map<String, Script> scripts) throws IOException {
+        if (scripts.isEmpty()) {
+            throw new IllegalArgumentException("No scripts to replay");
+        }
+        this.scripts = new HashMap<>(scripts);
+        this.greeting = scripts.values().iterator().next().groups.get(0).lines.get(0);
+        serverSocket = new ServerSocket(0, 200, InetAddress.getLoopbackAddress());
+        sessions.execute(this::acceptLoop);
+    }
+
+    /**
+     * Builds a replay server from the transcripts recorded by {@link FTPRecorder}.
+     *
+     * @param filename The file written by {@link FTPRecorder#saveTestCases}
+     * @return A server playing every recorded test case under its test name
+     * @throws IOException            If the recording cannot be read or the server cannot start
+     * @throws ClassNotFoundException If the recording contains unknown classes
+     */
+    static ReplayFTPServer fromRecording(String filename) throws IOException, ClassNotFoundException {
+        FTPRecorder recorder = new FTPRecorder();
+        recorder.loadTestCases(filename);
+        Map<String, Script> scripts = new TreeMap<>();
+        for (Map.Entry<String, FTPRecorder.TestCase> testCase : recorder.getTestCases()) {
+            scripts.put(testCase.getKey(), Script.parse(testCase.getValue().actualResponse));
+        }
+        return new ReplayFTPServer(scripts);
+    }
+
+    /** @return The port the control connection listens on */
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** @return The names of the scripts this server plays */
+    Set<String> scriptNames() {
+        return Collections.unmodifiableSet(scripts.keySet());
+    }
+
+    /** @return The script with the given name, or null */
+    Script getScript(String name) {
+        return scripts.get(name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : openSockets) {
+            socket.close();
+        }
+        sessions.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sessions.execute(() -> new Session(socket).run());
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * One control connection playing one script.
+     */
+    private class Session {
+        private final Socket socket;
+        private Writer writer;
+        private Script script;
+        private int nextGroup = 1;
+        private ServerSocket passiveSocket;
+
+        Session(Socket socket) {
+            this.socket = socket;
+        }
+
+        void run() {
+            openSockets.add(socket);
+            try (Socket s = socket) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                writer = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+                reply(greeting);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    String verb = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.ROOT);
+                    if (!handle(verb, space < 0 ? "" : line.substring(space + 1))) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                // Connection dropped by the client
+            } finally {
+                openSockets.remove(socket);
+                closePassive();
+            }
+        }
+
+        /**
+         * Plays the next reply group for a command.
+         *
+         * @return False once the session should end
+         */
+        boolean handle(String verb, String argument) throws IOException {
+            if (verb.equals("USER") && script == null) {
+                script = scripts.get(argument);
+                if (script == null) {
+                    reply("530 No script named " + argument + ".");
+                    return true;
+                }
+            }
+            if (script == null) {
+                reply("530 Please login with USER and PASS.");
+                return true;
+            }
+            boolean scriptEnded = nextGroup >= script.groups.size();
+            if (verb.equals("QUIT")) {
+                // Recordings of failed sessions may end without a goodbye
+                boolean recorded = !scriptEnded && script.groups.get(nextGroup).lines.get(0).startsWith("221");
+                reply(recorded ? script.groups.get(nextGroup).lines.get(0) : "221 Goodbye.");
+                return false;
+            }
+            if (scriptEnded) {
+                reply("421 Script exhausted at " + verb + ".");
+                return false;
+            }
+            play(script.groups.get(nextGroup++), verb);
+            return true;
+        }
+
+        private void play(ReplyGroup group, String verb) throws IOException {
+            for (String line : group.lines) {
+                if (line.startsWith("227 ")) {
+                    closePassive();
+                    passiveSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                    passiveSocket.setSoTimeout(5000);
+                    int port = passiveSocket.getLocalPort();
+                    reply("227 Entering Passive Mode (127,0,0,1," + (port / 256) + "," + (port % 256) + ").");
+                } else if (line.startsWith("1")) {
+                    reply(line);
+                    transfer(group, line, verb);
+                } else {
+                    reply(line);
+                }
+            }
+        }
+
+        /**
+         * Serves the data connection announced by a preliminary reply.
+         */
+        private void transfer(ReplyGroup group, String preliminary, String verb) throws IOException {
+            if (passiveSocket == null) {
+                return;
+            }
+            try (Socket data = passiveSocket.accept()) {
+                if (verb.equals("STOR") || verb.equals("APPE") || verb.equals("STOU")) {
+                    data.getInputStream().transferTo(OutputStream.nullOutputStream());
+                } else if (verb.equals("RETR")) {
+                    Matcher count = BYTE_COUNT.matcher(preliminary);
+                    byte[] contents = new byte[count.find() ? Integer.parseInt(count.group(1)) : 0];
+                    Arrays.fill(contents, (byte) 'x');
+                    data.getOutputStream().write(contents);
+                } else {
+                    data.getOutputStream().write(group.data.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            } finally {
+                closePassive();
+            }
+        }
+
+        private void closePassive() {
+            if (passiveSocket != null) {
+                try {
+                    passiveSocket.close();
+                } catch (IOException e) {
+                    // Nothing to clean up
+                }
+                passiveSocket = null;
+            }
+        }
+
+        private void reply(String line) throws IOException {
+            writer.write(line + "\r\n");
+            writer.flush();
+        }
+    }
+}
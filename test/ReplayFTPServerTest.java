@@ -0,0 +1,72 @@
+import command.FTPExecutor;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ReplayFTPServerTest Class
+ *
+ * This class tests that recorded sessions can be replayed against the real client and used for load generation.
+ */
+class ReplayFTPServerTest {
+    private static ReplayFTPServer server;
+
+    @BeforeAll
+    static void startServer() throws IOException, ClassNotFoundException {
+        server = ReplayFTPServer.fromRecording("ftp_test_cases.dat");
+    }
+
+    @AfterAll
+    static void stopServer() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Tests replaying recorded sessions through FTPExecutor.
+     * Verifies that the client receives the recorded transcript, apart from the rewritten passive address.
+     */
+    @Test
+    void testReplayReproducesTranscript() throws IOException, ClassNotFoundException {
+        FTPRecorder recorder = new FTPRecorder();
+        recorder.loadTestCases("ftp_test_cases.dat");
+        for (var testCase : recorder.getTestCases()) {
+            String name = testCase.getKey();
+            if (!name.equals("rm_test") && !name.equals("ls_root")) {
+                continue;
+            }
+            FTPExecutor executor = new FTPExecutor("127.0.0.1", server.getPort(), name, "pass");
+            String replayed = name.equals("rm_test")
+                    ? executor.executeCommandCaptureLogs(client -> client.deleteFile("/test/test.txt", true))
+                    : executor.executeCommandCaptureLogs(client -> client.listFiles("/"));
+
+            assertEquals(withoutPassiveAddress(testCase.getValue().actualResponse), withoutPassiveAddress(replayed), name);
+        }
+    }
+
+    /**
+     * Tests a short load run over every scenario.
+     * Verifies that all operations succeed and that latency and allocation are measured.
+     */
+    @Test
+    void testLoadGenerator() throws InterruptedException {
+        for (String scenario : ReplayLoadGenerator.SCENARIOS.keySet()) {
+            assertNotNull(server.getScript(scenario), scenario);
+        }
+
+        ReplayLoadGenerator.Report report = ReplayLoadGenerator.run(server, 4, Duration.ofMillis(500));
+
+        assertTrue(report.operations > 0);
+        assertEquals(0, report.failures);
+        assertTrue(report.percentileMillis(99) >= report.percentileMillis(50));
+        assertTrue(report.allocatedBytes > 0);
+    }
+
+    private static String withoutPassiveAddress(String transcript) {
+        return transcript.replaceAll("227 Entering Passive Mode \\([\\d,]+\\)\\.", "227");
+    }
+}
@@ -0,0 +1,168 @@
+import client.FTPClient;
+import client.FTPClientConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReplayLoadGenerator Class
+ *
+ * Drives many concurrent simulated clients through the real FTPClient code paths against a
+ * {@link ReplayFTPServer} playing the sessions recorded in {@code ftp_test_cases.dat}.
+ * Each simulated client repeatedly connects, runs one recorded scenario and disconnects, so every
+ * operation includes a full login just like a command-line invocation.
+ * The report gives operations per second, latency percentiles and the client threads' allocation rate.
+ *
+ * Usage: java ReplayLoadGenerator [clients] [seconds]
+ */
+class ReplayLoadGenerator {
+    /**
+     * A client operation that reproduces the commands of one recorded session.
+     */
+    private interface Scenario {
+        void run(FTPClient client) throws IOException;
+    }
+
+    /** The recorded sessions that replay cleanly, mapped to the client calls that produced them */
+    static final Map<String, Scenario> SCENARIOS = new LinkedHashMap<>();
+
+    static {
+        SCENARIOS.put("ls_root", client -> client.listEntries("/"));
+        SCENARIOS.put("mkdir_test", client -> client.createDirectory("/test"));
+        SCENARIOS.put("cp_test_upload", client ->
+                client.upload("/test/test.txt", new ByteArrayInputStream(new byte[19])));
+        SCENARIOS.put("cp_test_download", client -> client.download("/test/test.txt", OutputStream.nullOutputStream()));
+        SCENARIOS.put("rm_test", client -> client.deleteFile("/test/test.txt", true));
+        SCENARIOS.put("rmdir_test", client -> client.deleteDirectory("/test"));
+    }
+
+    /**
+     * The outcome of a load run.
+     */
+    static final class Report {
+        final long operations;
+        final long failures;
+        final Duration elapsed;
+        final long[] sortedLatenciesNanos;
+        final long allocatedBytes;
+
+        Report(long operations, long failures, Duration elapsed, long[] sortedLatenciesNanos, long allocatedBytes) {
+            this.operations = operations;
+            this.failures = failures;
+            this.elapsed = elapsed;
+            this.sortedLatenciesNanos = sortedLatenciesNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        double operationsPerSecond() {
+            return operations / (elapsed.toNanos() / 1e9);
+        }
+
+        /** @return The latency at the given percentile in milliseconds, using the nearest-rank method */
+        double percentileMillis(double p) {
+            if (sortedLatenciesNanos.length == 0) {
+                return Double.NaN;
+            }
+            int rank = (int) Math.ceil(p / 100 * sortedLatenciesNanos.length);
+            return sortedLatenciesNanos[Math.max(rank, 1) - 1] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsed.toNanos() / 1e9;
+            return String.format("%d ops, %d failures in %.1f s: %.0f ops/s%n"
+                            + "latency ms: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n"
+                            + "allocation: %.1f MiB/s, %.1f KiB/op",
+                    operations, failures, seconds, operationsPerSecond(),
+                    percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(99.9),
+                    percentileMillis(100), allocatedBytes / 1048576.0 / seconds,
+                    operations == 0 ? 0 : allocatedBytes / 1024.0 / operations);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        try (ReplayFTPServer server = ReplayFTPServer.fromRecording("ftp_test_cases.dat")) {
+            System.out.printf("Warming up, then running %d clients for %d s%n", clients, seconds);
+            run(server, clients, Duration.ofSeconds(Math.max(1, seconds / 5)));
+            System.out.println(run(server, clients, Duration.ofSeconds(seconds)));
+        }
+    }
+
+    /**
+     * Runs the scenarios round-robin on concurrent clients for a fixed time.
+     *
+     * @param server   The replay server to load
+     * @param clients  The number of concurrent simulated clients
+     * @param duration How long to generate load
+     * @return The throughput, latency and allocation measured on the client threads
+     * @throws InterruptedException If interrupted while waiting for the clients
+     */
+    static Report run(ReplayFTPServer server, int clients, Duration duration) throws InterruptedException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<String> names = new ArrayList<>(SCENARIOS.keySet());
+        long[][] latencies = new long[clients][];
+        AtomicLong failures = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        long[] deadline = new long[1];
+
+        for (int c = 0; c < clients; c++) {
+            int id = c;
+            Thread thread = new Thread(() -> {
+                long[] samples = new long[1024];
+                int count = 0;
+                try {
+                    start.await();
+                    long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+                    for (int i = id; System.nanoTime() < deadline[0]; i++) {
+                        String name = names.get(i % names.size());
+                        long begin = System.nanoTime();
+                        FTPClient client = new FTPClient("127.0.0.1", server.getPort(), name, "pass", new FTPClientConfig());
+                        try {
+                            client.connect();
+                            SCENARIOS.get(name).run(client);
+                            client.disconnect();
+                            if (count == samples.length) {
+                                samples = Arrays.copyOf(samples, count * 2);
+                            }
+                            samples[count++] = System.nanoTime() - begin;
+                        } catch (IOException e) {
+                            client.closeQuietly();
+                            failures.incrementAndGet();
+                        }
+                    }
+                    allocated.addAndGet(threads.getCurrentThreadAllocatedBytes() - allocatedBefore);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latencies[id] = Arrays.copyOf(samples, count);
+                    done.countDown();
+                }
+            }, "load-client-" + c);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        deadline[0] = begin + duration.toNanos();
+        start.countDown();
+        if (!done.await(duration.toMillis() + 30_000, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Clients did not finish");
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - begin);
+
+        long[] merged = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        return new Report(merged.length, failures.get(), elapsed, merged, allocated.get());
+    }
+}
@@ -0,0 +1,131 @@
+import client.FTPClient;
+import client.FTPClientConfig;
+import client.FTPReplyException;
+import client.FTPTimeoutException;
+import command.FTPExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SiteToSiteCopyTest Class
+ *
+ * This class tests copying a file between two FTP servers, using two local stand-in servers.
+ * It covers the direct FXP transfer as well as the relay fallback used when a server refuses PORT.
+ */
+class SiteToSiteCopyTest {
+    private static final byte[] CONTENTS = "hello from server a\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+    private StandInFTPServer source;
+    private StandInFTPServer target;
+
+    @BeforeEach
+    void startServers() throws IOException {
+        source = new StandInFTPServer();
+        target = new StandInFTPServer();
+        source.putFile("/data.txt", CONTENTS);
+    }
+
+    @AfterEach
+    void stopServers() throws IOException {
+        source.close();
+        target.close();
+    }
+
+    private static FTPExecutor executorFor(StandInFTPServer server) {
+        return new FTPExecutor("127.0.0.1", server.getPort(), "user", "pass");
+    }
+
+    /**
+     * Tests a direct site-to-site copy.
+     * Verifies that the target server was put in active mode and received the file.
+     */
+    @Test
+    void testDirectCopy() {
+        executorFor(source).executeCommand(executorFor(target),
+                (s, t) -> s.copyToServer("/data.txt", t, "/copy.txt"));
+
+        assertArrayEquals(CONTENTS, target.getFile("/copy.txt"));
+        assertTrue(target.commandLog().stream().anyMatch(command -> command.startsWith("PORT ")));
+        assertFalse(target.commandLog().contains("PASV"));
+    }
+
+    /**
+     * Tests the relay fallback.
+     * Verifies that the file still arrives when the target server refuses PORT.
+     */
+    @Test
+    void testRelayWhenPortRefused() {
+        target.refusePort = true;
+
+        executorFor(source).executeCommand(executorFor(target),
+                (s, t) -> s.copyToServer("/data.txt", t, "/copy.txt"));
+
+        assertArrayEquals(CONTENTS, target.getFile("/copy.txt"));
+        assertTrue(target.commandLog().contains("PASV"));
+    }
+
+    /**
+     * Tests a direct site-to-site copy from a server that stops sending halfway.
+     * Verifies that the stall deadline ends the wait for the closing reply with an FTPTimeoutException.
+     */
+    @Test
+    void testDirectCopyStallTimesOut() throws IOException {
+        source.stalls.put("/data.txt", 30_000L);
+        FTPClientConfig config = new FTPClientConfig();
+        config.setTimeoutMillis(FTPClientConfig.Phase.STALL, 300);
+        FTPClient sourceClient = new FTPClient("127.0.0.1", source.getPort(), "user", "pass", config);
+        FTPClient targetClient = new FTPClient("127.0.0.1", target.getPort(), "user", "pass", config);
+        sourceClient.connect();
+        targetClient.connect();
+
+        long start = System.nanoTime();
+        FTPTimeoutException e = assertThrows(FTPTimeoutException.class,
+                () -> sourceClient.copyToServer("/data.txt", targetClient, "/copy.txt"));
+        sourceClient.closeQuietly();
+        targetClient.closeQuietly();
+
+        assertEquals(FTPClientConfig.Phase.STALL, e.getPhase());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        assertTrue(target.commandLog().stream().anyMatch(command -> command.startsWith("PORT ")));
+    }
+
+    /**
+     * Tests a direct site-to-site copy whose source reports a failure after sending the data.
+     * Verifies that the failure is reported and that the target's reply to STOR is read as well,
+     * so that the target session answers its next command with its own reply.
+     */
+    @Test
+    void testDirectCopySourceFailureKeepsTargetInStep() throws IOException {
+        source.failedRetrieves.add("/data.txt");
+        FTPClient sourceClient = new FTPClient("127.0.0.1", source.getPort(), "user", "pass", new FTPClientConfig());
+        FTPClient targetClient = new FTPClient("127.0.0.1", target.getPort(), "user", "pass", new FTPClientConfig());
+        sourceClient.connect();
+        targetClient.connect();
+        try {
+            assertThrows(FTPReplyException.class,
+                    () -> sourceClient.copyToServer("/data.txt", targetClient, "/copy.txt"));
+            assertTrue(targetClient.sendCommand("NOOP").startsWith("200"));
+        } finally {
+            sourceClient.closeQuietly();
+            targetClient.closeQuietly();
+        }
+    }
+
+    /**
+     * Tests a site-to-site copy of a missing file.
+     * Verifies that nothing is stored on the target server.
+     */
+    @Test
+    void testMissingSourceFile() {
+        executorFor(source).executeCommand(executorFor(target),
+                (s, t) -> s.copyToServer("/missing.txt", t, "/copy.txt"));
+
+        assertNull(target.getFile("/copy.txt"));
+    }
+}
@@ -0,0 +1,145 @@
+import client.DurabilityPolicy;
+import client.FTPClient;
+import client.FTPClientConfig;
+import client.FTPSessionPool;
+import client.FTPTimeoutException;
+import command.HedgedDownload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.ParallelGzipStage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TimeoutAndHedgingTest Class
+ *
+ * This class tests transfer deadlines, the throughput-based stall detector and hedged downloads
+ * against a stand-in server that can stall mid-transfer.
+ */
+class TimeoutAndHedgingTest {
+    private static final byte[] CONTENTS = new byte[64 * 1024];
+
+    static {
+        new Random(11).nextBytes(CONTENTS);
+    }
+
+    private StandInFTPServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new StandInFTPServer();
+        server.putFile("/data.bin", CONTENTS);
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Tests a download from a server that stops sending halfway.
+     * Verifies that the stall deadline ends the download quickly with an FTPTimeoutException naming the phase.
+     */
+    @Test
+    void testStalledDownloadTimesOut() throws IOException {
+        server.stalls.put("/data.bin", 30_000L);
+        FTPClientConfig config = new FTPClientConfig();
+        config.setTimeoutMillis(FTPClientConfig.Phase.STALL, 300);
+        FTPClient client = new FTPClient("127.0.0.1", server.getPort(), "user", "pass", config);
+        client.connect();
+
+        long start = System.nanoTime();
+        FTPTimeoutException e = assertThrows(FTPTimeoutException.class,
+                () -> client.download("/data.bin", new ByteArrayOutputStream()));
+        client.closeQuietly();
+
+        assertEquals(FTPClientConfig.Phase.STALL, e.getPhase());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    }
+
+    /**
+     * Tests a download over a link slower than the configured minimum throughput.
+     * Verifies that the stall detector trips even though data keeps arriving.
+     */
+    @Test
+    void testSlowTransferTripsThroughputCheck() throws IOException {
+        ImpairmentProxy.Impairment slow = ImpairmentProxy.Impairment.NONE.withBandwidth(16 * 1024);
+        try (ImpairmentProxy proxy = new ImpairmentProxy(server.getPort(), slow, 1)) {
+            FTPClientConfig config = new FTPClientConfig();
+            config.setMinThroughput(64 * 1024, 500);
+            FTPClient client = new FTPClient("127.0.0.1", proxy.getPort(), "user", "pass", config);
+            client.connect();
+
+            FTPTimeoutException e = assertThrows(FTPTimeoutException.class,
+                    () -> client.download("/data.bin", new ByteArrayOutputStream()));
+            client.closeQuietly();
+
+            assertEquals(FTPClientConfig.Phase.STALL, e.getPhase());
+            assertTrue(e.getMessage().contains("throughput"), e.getMessage());
+        }
+    }
+
+    /**
+     * Tests a hedged download whose first copy stalls.
+     * Verifies that the second copy wins, the file is complete and committed through the configured
+     * durability policy, and no temporary files are left behind.
+     */
+    @Test
+    void testHedgedDownloadBeatsStalledCopy(@TempDir Path directory) throws Exception {
+        server.stalls.put("/data.bin", 30_000L);
+        Path target = directory.resolve("data.bin");
+        DurabilityPolicy durability = new DurabilityPolicy(DurabilityPolicy.Sync.PER_FILE, 1, 0);
+        FTPClientConfig config = new FTPClientConfig();
+        config.setDurability(durability);
+
+        try (FTPSessionPool pool = new FTPSessionPool("127.0.0.1", server.getPort(), "user", "pass", config, 2)) {
+            HedgedDownload download = new HedgedDownload(pool, Duration.ofMillis(200), 1024 * 1024);
+            HedgedDownload.Outcome outcome = download.download("/data.bin", target);
+            download.shutdown();
+
+            assertTrue(outcome.isHedged());
+            assertTrue(outcome.isHedgeWon());
+            assertTrue(outcome.getElapsed().toMillis() < 5_000);
+        }
+        assertArrayEquals(CONTENTS, Files.readAllBytes(target));
+        assertEquals(1, durability.getFileSyncs());
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    /**
+     * Tests a hedged download from a pool configured with compression.
+     * Verifies that the downloaded file is decompressed rather than written as stored.
+     */
+    @Test
+    void testHedgedDownloadUndoesTransforms(@TempDir Path directory) throws Exception {
+        ParallelGzipStage gzip = new ParallelGzipStage();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream output = gzip.encode(compressed)) {
+            output.write(CONTENTS);
+        }
+        server.putFile("/data.bin.gz", compressed.toByteArray());
+        FTPClientConfig config = new FTPClientConfig();
+        config.setTransforms(List.of(gzip));
+        Path target = directory.resolve("data.bin");
+
+        try (FTPSessionPool pool = new FTPSessionPool("127.0.0.1", server.getPort(), "user", "pass", config, 2)) {
+            HedgedDownload download = new HedgedDownload(pool, Duration.ofMillis(200), 1024 * 1024);
+            download.download("/data.bin.gz", target);
+            download.shutdown();
+        }
+        assertArrayEquals(CONTENTS, Files.readAllBytes(target));
+    }
+}
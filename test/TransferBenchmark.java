@@ -0,0 +1,136 @@
+import client.FTPClient;
+import client.FTPClientConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * TransferBenchmark Class
+ *
+ * Measures end-to-end throughput and tail latency of the client's transfer operations over
+ * impaired links, entirely on loopback: a {@link StandInFTPServer} behind an {@link ImpairmentProxy}.
+ * Every operation is repeated against each network profile, and the latency percentiles and
+ * effective throughput are printed as a table.
+ *
+ * Usage: java TransferBenchmark [file size in KiB] [iterations per operation]
+ */
+class TransferBenchmark {
+    /** The network conditions benchmarked, in report order */
+    private static final Map<String, ImpairmentProxy.Impairment> PROFILES = new LinkedHashMap<>();
+
+    static {
+        ImpairmentProxy.Impairment none = ImpairmentProxy.Impairment.NONE;
+        PROFILES.put("loopback", none);
+        PROFILES.put("lan", none.withLatency(1).withBandwidth(100L * 1024 * 1024 / 8));
+        PROFILES.put("wan-100ms", none.withLatency(50).withJitter(5));
+        PROFILES.put("wan-100ms-1%", none.withLatency(50).withJitter(5).withLoss(0.01));
+        PROFILES.put("dsl", none.withLatency(20).withJitter(10).withBandwidth(8L * 1024 * 1024 / 8));
+        PROFILES.put("flaky", none.withLatency(10).withResets(0.005));
+    }
+
+    /**
+     * One benchmarked operation on a connected session.
+     */
+    private interface Operation {
+        void run(FTPClient client, Path localFile) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sizeKiB = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        byte[] contents = new byte[sizeKiB * 1024];
+        new Random(1).nextBytes(contents);
+
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("download", (client, local) -> client.copyFile("/data.bin", local.toString(), true));
+        operations.put("upload", (client, local) -> client.copyFile("/upload.bin", local.toString(), false));
+        operations.put("list", (client, local) -> client.listEntries("/"));
+
+        Path localFile = Files.createTempFile("transfer-benchmark", ".bin");
+        System.out.printf("%d KiB files, %d iterations%n", sizeKiB, iterations);
+        System.out.printf("%-14s %-9s %9s %9s %9s %9s %10s %6s%n",
+                "profile", "operation", "p50 ms", "p95 ms", "p99 ms", "max ms", "MiB/s", "fails");
+        try (StandInFTPServer server = new StandInFTPServer()) {
+            server.putFile("/data.bin", contents);
+            for (int i = 0; i < 50; i++) {
+                server.putFile("/entry-" + i + ".txt", new byte[i]);
+            }
+            for (Map.Entry<String, ImpairmentProxy.Impairment> profile : PROFILES.entrySet()) {
+                try (ImpairmentProxy proxy = new ImpairmentProxy(server.getPort(), profile.getValue(), 42)) {
+                    for (Map.Entry<String, Operation> operation : operations.entrySet()) {
+                        Files.write(localFile, contents);
+                        Result result = measure(proxy, operation.getValue(), localFile, iterations);
+                        long bytes = operation.getKey().equals("list") ? 0 : (long) contents.length * result.completed();
+                        System.out.printf("%-14s %-9s %9.1f %9.1f %9.1f %9.1f %10s %6d%n",
+                                profile.getKey(), operation.getKey(), result.percentile(50), result.percentile(95),
+                                result.percentile(99), result.percentile(100),
+                                bytes == 0 ? "-" : String.format("%.2f", bytes / 1048576.0 / result.totalSeconds()),
+                                result.failures);
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(localFile);
+        }
+    }
+
+    /**
+     * Runs an operation repeatedly on one session through the proxy, reconnecting after a failure.
+     */
+    private static Result measure(ImpairmentProxy proxy, Operation operation, Path localFile, int iterations) {
+        Result result = new Result();
+        FTPClient client = null;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            try {
+                if (client == null) {
+                    client = new FTPClient("127.0.0.1", proxy.getPort(), "user", "pass", new FTPClientConfig());
+                    client.connect();
+                    // Connecting is not part of the operation being measured
+                    start = System.nanoTime();
+                }
+                operation.run(client, localFile);
+                result.latenciesNanos.add(System.nanoTime() - start);
+            } catch (IOException e) {
+                result.failures++;
+                if (client != null) {
+                    client.closeQuietly();
+                    client = null;
+                }
+            }
+        }
+        if (client != null) {
+            client.disconnect();
+        }
+        return result;
+    }
+
+    /**
+     * The latencies of the successful runs of one operation and the number of failed runs.
+     */
+    private static final class Result {
+        final List<Long> latenciesNanos = new ArrayList<>();
+        int failures;
+
+        int completed() {
+            return latenciesNanos.size();
+        }
+
+        double totalSeconds() {
+            return latenciesNanos.stream().mapToLong(Long::longValue).sum() / 1e9;
+        }
+
+        /** @return The latency at the given percentile in milliseconds, using the nearest-rank method */
+        double percentile(double p) {
+            if (latenciesNanos.isEmpty()) {
+                return Double.NaN;
+            }
+            List<Long> sorted = new ArrayList<>(latenciesNanos);
+            Collections.sort(sorted);
+            int rank = (int) Math.ceil(p / 100 * sorted.size());
+            return sorted.get(Math.max(rank, 1) - 1) / 1e6;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import client.FTPClientConfig;
+import client.FTPSessionPool;
+import command.TransferScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TransferSchedulerTest Class
+ *
+ * This class tests the priority-aware transfer scheduler: the small-file fast lane, aging of
+ * low-priority commands, the live statistics, and a very large queue, against a stand-in server.
+ */
+class TransferSchedulerTest {
+    private static final long SMALL = 64 * 1024;
+
+    private StandInFTPServer server;
+    private FTPSessionPool pool;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new StandInFTPServer();
+        server.putFile("/small.txt", "small".getBytes());
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    /**
+     * Tests a small download queued behind large transfers that occupy every regular session.
+     * Verifies that the fast lane runs it right away and that the statistics show the queued large transfers.
+     */
+    @Test
+    void testFastLaneBypassesLargeTransfers() throws Exception {
+        pool = pool(3);
+        TransferScheduler scheduler = new TransferScheduler(pool, 1, SMALL, Duration.ofSeconds(10));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        List<CompletableFuture<Void>> large = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            large.add(scheduler.submit(client -> {
+                started.countDown();
+                await(release);
+            }, TransferScheduler.Priority.HIGH, 1L << 30));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+        scheduler.submit(client -> client.download("/small.txt", downloaded), TransferScheduler.Priority.LOW, 5)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals("small", downloaded.toString());
+
+        TransferScheduler.Stats stats = scheduler.getStats();
+        assertEquals(2, stats.getQueued(TransferScheduler.Priority.HIGH));
+        assertEquals(2, stats.getRunning());
+        assertEquals(1, stats.getCompleted());
+        assertTrue(large.stream().noneMatch(CompletableFuture::isDone));
+
+        release.countDown();
+        scheduler.close();
+        assertTrue(large.stream().allMatch(future -> future.isDone() && !future.isCompletedExceptionally()));
+        assertEquals(5, scheduler.getStats().getCompleted());
+    }
+
+    /**
+     * Tests a low-priority command that has waited longer than two aging intervals.
+     * Verifies that it runs before high-priority commands queued after that, and that
+     * newer low-priority commands still yield to them.
+     */
+    @Test
+    void testAgingPreventsStarvation() throws Exception {
+        pool = pool(1);
+        TransferScheduler scheduler = new TransferScheduler(pool, 0, SMALL, Duration.ofMillis(50));
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        scheduler.submit(client -> await(release), TransferScheduler.Priority.HIGH, -1);
+
+        scheduler.submit(client -> order.add("old low"), TransferScheduler.Priority.LOW, -1);
+        Thread.sleep(200);
+        for (int i = 0; i < 3; i++) {
+            String name = "high " + i;
+            scheduler.submit(client -> order.add(name), TransferScheduler.Priority.HIGH, -1);
+        }
+        scheduler.submit(client -> order.add("new low"), TransferScheduler.Priority.LOW, -1);
+        assertTrue(scheduler.getStats().getOldestWait(TransferScheduler.Priority.LOW).toMillis() >= 200);
+
+        release.countDown();
+        scheduler.close();
+        assertEquals(List.of("old low", "high 0", "high 1", "high 2", "new low"), order);
+    }
+
+    /**
+     * Tests cancelling a command that is still queued.
+     * Verifies that it leaves the queue at once and never runs.
+     */
+    @Test
+    void testCancelRemovesQueuedCommand() throws Exception {
+        pool = pool(1);
+        TransferScheduler scheduler = new TransferScheduler(pool, 0, SMALL, Duration.ofSeconds(1));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        scheduler.submit(client -> {
+            started.countDown();
+            await(release);
+        }, TransferScheduler.Priority.HIGH, -1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> cancelled = scheduler.submit(client -> order.add("cancelled"),
+                TransferScheduler.Priority.NORMAL, -1);
+        scheduler.submit(client -> order.add("kept"), TransferScheduler.Priority.NORMAL, -1);
+        assertEquals(2, scheduler.getStats().getQueued());
+
+        assertTrue(cancelled.cancel(false));
+        assertEquals(1, scheduler.getStats().getQueued(TransferScheduler.Priority.NORMAL));
+
+        release.countDown();
+        scheduler.close();
+        assertEquals(List.of("kept"), order);
+    }
+
+    /**
+     * Tests queueing two hundred thousand commands at once.
+     * Verifies that they all complete, that failures are reported through their futures,
+     * and that the scheduler does not start a thread per command.
+     */
+    @Test
+    void testHundredsOfThousandsOfQueuedCommands() throws Exception {
+        pool = pool(4);
+        TransferScheduler scheduler = new TransferScheduler(pool, 1, SMALL, Duration.ofSeconds(1));
+        int count = 200_000;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(count);
+        TransferScheduler.Priority[] priorities = TransferScheduler.Priority.values();
+        for (int i = 0; i < count; i++) {
+            boolean fail = i % 1000 == 0;
+            futures.add(scheduler.submit(client -> {
+                if (fail) {
+                    throw new IllegalStateException("Failing on purpose");
+                }
+            }, priorities[i % priorities.length], i % 2 == 0 ? 100 : -1));
+        }
+        assertEquals(4, Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("transfer-")).count());
+
+        scheduler.close();
+        TransferScheduler.Stats stats = scheduler.getStats();
+        assertEquals(0, stats.getQueued());
+        assertEquals(count - count / 1000, stats.getCompleted());
+        assertEquals(count / 1000, stats.getFailed());
+        assertTrue(futures.get(0).isCompletedExceptionally());
+        assertTrue(futures.get(1).isDone() && !futures.get(1).isCompletedExceptionally());
+    }
+
+    private FTPSessionPool pool(int sessions) {
+        return new FTPSessionPool("127.0.0.1", server.getPort(), "user", "pass", new FTPClientConfig(), sessions);
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import util.AesGcmStage;
+import util.ParallelGzipStage;
+import util.TransformStage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * TransformBenchmark Class
+ *
+ * Measures how fast the transform stages encode compressible data, against single-threaded
+ * GZIPOutputStream, for one thread and for one thread per core. Output goes to a counting sink,
+ * so only the transform is measured. Each case is warmed up, and the best of several runs is reported.
+ *
+ * Usage: java TransformBenchmark [megabytes]
+ */
+class TransformBenchmark {
+    private static final int WARMUP_RUNS = 20;
+    private static final int MEASURED_RUNS = 5;
+
+    /**
+     * One way of wrapping the sink.
+     */
+    private interface Encoder {
+        OutputStream wrap(OutputStream sink) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        byte[] data = sampleData(megabytes * 1024 * 1024);
+        int cores = Runtime.getRuntime().availableProcessors();
+        byte[] key = new byte[32];
+
+        System.out.printf("%d MB, %d cores%n", megabytes, cores);
+        System.out.printf("%-28s %10s %10s%n", "encoder", "MB/s", "ratio");
+        measure("GZIPOutputStream", data, sink -> new GZIPOutputStream(sink, 64 * 1024));
+        measure("parallel gzip, 1 thread", data, stage(new ParallelGzipStage(Deflater.DEFAULT_COMPRESSION,
+                ParallelGzipStage.DEFAULT_BLOCK_SIZE, 1)));
+        measure("parallel gzip, all " + cores + " cores", data, stage(new ParallelGzipStage()));
+        measure("AES-GCM, 1 thread", data, stage(new AesGcmStage(AesGcmStage.key(key),
+                AesGcmStage.DEFAULT_CHUNK_SIZE, 1)));
+        measure("AES-GCM, all " + cores + " cores", data, stage(new AesGcmStage(AesGcmStage.key(key))));
+    }
+
+    private static Encoder stage(TransformStage stage) {
+        return stage::encode;
+    }
+
+    private static void measure(String name, byte[] data, Encoder encoder) throws IOException {
+        long best = Long.MAX_VALUE;
+        long written = 0;
+        for (int i = 0; i < WARMUP_RUNS + MEASURED_RUNS; i++) {
+            CountingSink sink = new CountingSink();
+            long start = System.nanoTime();
+            try (OutputStream output = encoder.wrap(sink)) {
+                for (int offset = 0; offset < data.length; offset += 64 * 1024) {
+                    output.write(data, offset, Math.min(64 * 1024, data.length - offset));
+                }
+            }
+            if (i >= WARMUP_RUNS) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            written = sink.count;
+        }
+        System.out.printf("%-28s %10.1f %10.3f%n", name, data.length / (best / 1e9) / 1e6, (double) written / data.length);
+    }
+
+    /**
+     * Builds compressible data resembling a CSV export.
+     */
+    private static byte[] sampleData(int size) {
+        Random random = new Random(42);
+        byte[] data = new byte[size];
+        int position = 0;
+        while (position < size) {
+            byte[] line = (random.nextInt(1_000_000) + "," + random.nextInt(100) + ",item-" + random.nextInt(5000)
+                    + ",2024-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10) + "\n").getBytes();
+            int count = Math.min(line.length, size - position);
+            System.arraycopy(line, 0, data, position, count);
+            position += count;
+        }
+        return data;
+    }
+
+    /**
+     * Discards its input and counts it.
+     */
+    private static class CountingSink extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
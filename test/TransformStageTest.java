@@ -0,0 +1,141 @@
+import client.FTPClientConfig;
+import command.FTPExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.AesGcmStage;
+import util.ParallelGzipStage;
+import util.TransformStage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TransformStageTest Class
+ *
+ * This class tests the streaming transform stages: block-parallel gzip, chunked AES-GCM, and both
+ * applied by copyFile on the way to and from a stand-in server.
+ */
+class TransformStageTest {
+
+    /**
+     * Tests block-parallel gzip on data spanning many blocks.
+     * Verifies that the output round-trips, that a standard gzip reader reads it,
+     * and that gzip data written by another tool is still decoded.
+     */
+    @Test
+    void testParallelGzip() throws IOException {
+        byte[] data = sampleData(3_500_000);
+        ParallelGzipStage stage = new ParallelGzipStage(6, 256 * 1024, 4);
+
+        byte[] compressed = encode(stage, data);
+        assertTrue(compressed.length < data.length / 2);
+        assertArrayEquals(data, decode(stage, compressed));
+        try (InputStream standard = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(data, standard.readAllBytes());
+        }
+
+        ByteArrayOutputStream foreign = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(foreign)) {
+            gzip.write(data);
+        }
+        assertArrayEquals(data, decode(stage, foreign.toByteArray()));
+        assertArrayEquals(new byte[0], decode(stage, encode(stage, new byte[0])));
+    }
+
+    /**
+     * Tests chunked AES-GCM encryption and streams altered after encryption.
+     * Verifies that the data round-trips, and that a changed byte, a dropped final chunk
+     * or a different key are all rejected.
+     */
+    @Test
+    void testAesGcmRejectsTamperingAndTruncation() throws IOException {
+        byte[] data = sampleData(1_000_000);
+        byte[] key = new byte[32];
+        new Random(42).nextBytes(key);
+        AesGcmStage stage = new AesGcmStage(AesGcmStage.key(key), 64 * 1024, 3);
+
+        byte[] encrypted = encode(stage, data);
+        assertArrayEquals(data, decode(stage, encrypted));
+
+        byte[] altered = encrypted.clone();
+        altered[altered.length / 2] ^= 1;
+        assertThrows(IOException.class, () -> decode(stage, altered));
+
+        // Cut the stream after its first chunk: 12 bytes of header, then a length word and the chunk
+        byte[] truncated = Arrays.copyOf(encrypted, 12 + 4 + 64 * 1024 + 16);
+        assertThrows(IOException.class, () -> decode(stage, truncated));
+
+        key[0] ^= 1;
+        AesGcmStage otherKey = new AesGcmStage(AesGcmStage.key(key), 64 * 1024, 3);
+        assertThrows(IOException.class, () -> decode(otherKey, encrypted));
+    }
+
+    /**
+     * Tests copyFile with compression and encryption configured, uploading and downloading a file.
+     * Verifies that the server stores the encrypted form and the download restores the original.
+     */
+    @Test
+    void testCopyFileAppliesStages(@TempDir Path directory) throws IOException {
+        byte[] data = sampleData(2_000_000);
+        Path local = directory.resolve("data.bin");
+        Files.write(local, data);
+        byte[] key = new byte[16];
+        FTPClientConfig config = new FTPClientConfig();
+        config.setTransforms(List.of(new ParallelGzipStage(), new AesGcmStage(AesGcmStage.key(key))));
+
+        try (StandInFTPServer server = new StandInFTPServer()) {
+            FTPExecutor executor = new FTPExecutor("127.0.0.1", server.getPort(), "user", "pass", config);
+            executor.executeCommand(client -> client.copyFile("/data.bin", local.toString(), false));
+
+            byte[] stored = server.getFile("/data.bin");
+            assertEquals("FTG1", new String(stored, 0, 4));
+            assertTrue(stored.length < data.length / 2);
+
+            Path downloaded = directory.resolve("copy.bin");
+            executor.executeCommand(client -> client.copyFile("/data.bin", downloaded.toString(), true));
+            assertArrayEquals(data, Files.readAllBytes(downloaded));
+        }
+    }
+
+    /**
+     * Builds compressible data: text-like lines with random numbers.
+     */
+    private static byte[] sampleData(int size) {
+        Random random = new Random(7);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(size + 100);
+        while (output.size() < size) {
+            byte[] line = ("record " + random.nextInt(100_000) + ",value=" + random.nextInt(1000) + "\n").getBytes();
+            output.write(line, 0, line.length);
+        }
+        return Arrays.copyOf(output.toByteArray(), size);
+    }
+
+    private static byte[] encode(TransformStage stage, byte[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (OutputStream encoded = stage.encode(output)) {
+            // Odd-sized writes so block boundaries fall inside writes
+            for (int offset = 0; offset < data.length; offset += 10_007) {
+                encoded.write(data, offset, Math.min(10_007, data.length - offset));
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] decode(TransformStage stage, byte[] encoded) throws IOException {
+        try (InputStream decoded = stage.decode(new ByteArrayInputStream(encoded))) {
+            return decoded.readAllBytes();
+        }
+    }
+}